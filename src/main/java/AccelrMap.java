@@ -3,43 +3,81 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
 /**
- * Mapper for hadoop. Gets average acceleration for every trip.
+ * Mapper for hadoop. Gets average acceleration for every trip. If the job
+ * asks for the routes, every trip's route fingerprint is computed from the
+ * same parse and written aside to the ROUTES_OUTPUT named output.
  */
 public class AccelrMap extends
-		Mapper<NullWritable, BytesWritable, Text, TripDataWritable> {
+		Mapper<TripIdWritable, BytesWritable, DriverValueWritable, TripDataWritable> {
+	public static final String ROUTES_OUTPUT = "routes";
+	static final String ROUTES_ASKED = "trips.acceleration.routes";
 	private static final String ENCODING = "UTF-8";
 	private static final String POINTS_DELIM = "\n";
-	private static final double STOP_VELOCITY = 0.2;
-	private static final int MIN_ACCELR_TIME = 3;
+	static final double STOP_VELOCITY = 0.2;
+	static final int MIN_ACCELR_TIME = 3;
+	private TripDataWritable tripData = new TripDataWritable();
+	private DriverValueWritable outKey = new DriverValueWritable();
+	private SpeedSmoother smoother;
+	private MultipleOutputs<DriverValueWritable, TripDataWritable> routeOutputs;
+	private RouteFingerprintWritable fingerprint = new RouteFingerprintWritable();
+	private SimplifiedTripWritable simplified = new SimplifiedTripWritable();
+	private double tolerance;
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		Configuration conf = context.getConfiguration();
+		smoother = SpeedSmoother.create(conf);
+		if (conf.getBoolean(ROUTES_ASKED, false)) {
+			routeOutputs = new MultipleOutputs<DriverValueWritable, TripDataWritable>(
+					context);
+			tolerance = conf.getDouble(SimplifyMap.TOLERANCE, 0);
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		if (routeOutputs != null) {
+			routeOutputs.close();
+		}
+	}
 
 	@Override
 	protected void map(
-			NullWritable key,
+			TripIdWritable key,
 			BytesWritable fileBytes,
-			Mapper<NullWritable, BytesWritable, Text, TripDataWritable>.Context context)
+			Mapper<TripIdWritable, BytesWritable, DriverValueWritable, TripDataWritable>.Context context)
 			throws IOException, InterruptedException {
-		Path filePath = ((FileSplit) context.getInputSplit()).getPath();
-
-		// Get the trip id & the driver id from the filename
-		Text driverId = new Text(filePath.getParent().getName());
-		Integer tripId = getTripId(filePath);
+		// Get the trip id & the driver id of the trip
+		Text driverId = key.getDriverID();
+		Integer tripId = key.getTripID();
 
 		// Compute the average acceleration in the trip
-		Double avg = getAvgAcceleration(fileBytes);
+		List<TripPoint> trip = parseTrip(fileBytes);
+		Double avg = getAvgAcceleration(trip, smoother);
 
 		// Write the avg acceleration by trip id
-		TripDataWritable tripData = new TripDataWritable();
 		tripData.set(tripId, avg);
-		context.write(driverId, tripData);
+		outKey.set(driverId, tripData.getData()); // sorts the trips by value
+		context.write(outKey, tripData);
+
+		// Keep the trip's route fingerprint, of the routes' geometry
+		if (routeOutputs != null) {
+			if (tolerance > 0) {
+				simplified.set(trip, TripSimplifier.simplify(trip, tolerance));
+				trip = simplified.getPoints();
+			}
+			fingerprint.set(tripId, RouteFingerprint.compute(trip));
+			routeOutputs.write(ROUTES_OUTPUT, driverId, fingerprint);
+		}
 	}
 
 	/**
@@ -50,26 +88,42 @@ public class AccelrMap extends
 	 * @return the avg acceleration in the trip
 	 * @throws IOException
 	 */
-	private Double getAvgAcceleration(BytesWritable fileBytes)
+	static Double getAvgAcceleration(BytesWritable fileBytes)
 			throws IOException {
-		List<TripPoint> trip = parseTrip(fileBytes); // get the trip's points
-		List<Double> vels = getVelocities(trip); // get all velocities in trip
-		List<Double> accelrs = getAccelerations(vels); // get trip accelerations
-		return avg(accelrs);// compute average acceleration
+		return getAvgAcceleration(fileBytes, null);
 	}
 
 	/**
-	 * Get the trip ID from the filename.
+	 * Analyzes the trip and gets average acceleration in it, smoothing its
+	 * velocities first.
 	 * 
-	 * @param filePath
-	 *            path to the file
-	 * @return trip ID
+	 * @param fileBytes
+	 *            the trip file
+	 * @param smoother
+	 *            the velocities' smoother, or null to use the raw velocities
+	 * @return the avg acceleration in the trip
+	 * @throws IOException
+	 */
+	static Double getAvgAcceleration(BytesWritable fileBytes,
+			SpeedSmoother smoother) throws IOException {
+		return getAvgAcceleration(parseTrip(fileBytes), smoother);
+	}
+
+	/**
+	 * Gets the average acceleration in a parsed trip, smoothing its
+	 * velocities first.
+	 * 
+	 * @param trip
+	 *            the trip's points
+	 * @param smoother
+	 *            the velocities' smoother, or null to use the raw velocities
+	 * @return the avg acceleration in the trip
 	 */
-	private int getTripId(Path filePath) {
-		String tripFileName = filePath.getName(); // get file name
-		int filenameEnding = tripFileName.indexOf("."); // remove ending
-		String strTripId = tripFileName.substring(0, filenameEnding);
-		return Integer.parseInt(strTripId);
+	static Double getAvgAcceleration(List<TripPoint> trip,
+			SpeedSmoother smoother) {
+		List<Double> vels = getVelocities(trip, smoother); // get all velocities
+		List<Double> accelrs = getAccelerations(vels); // get trip accelerations
+		return avg(accelrs);// compute average acceleration
 	}
 
 	/**
@@ -79,7 +133,7 @@ public class AccelrMap extends
 	 *            numbers to compute avg
 	 * @return the list avg
 	 */
-	private Double avg(List<Double> nums) {
+	static Double avg(List<Double> nums) {
 		// If no acceleration found - return 0
 		if (nums.isEmpty()) {
 			return 0.0;
@@ -100,7 +154,7 @@ public class AccelrMap extends
 	 *            each second's velocities list.
 	 * @return the list of accelerations
 	 */
-	private List<Double> getAccelerations(List<Double> velocities) {
+	private static List<Double> getAccelerations(List<Double> velocities) {
 		List<Double> accelerations = new ArrayList<Double>();
 		Iterator<Double> iter = velocities.iterator();
 		while (iter.hasNext()) {
@@ -142,13 +196,19 @@ public class AccelrMap extends
 	 * 
 	 * @param trip
 	 *            list of trip's points
+	 * @param smoother
+	 *            the velocities' smoother, or null to keep them raw
 	 * @return list of velocities
 	 */
-	private List<Double> getVelocities(List<TripPoint> trip) {
+	private static List<Double> getVelocities(List<TripPoint> trip,
+			SpeedSmoother smoother) {
 		List<Double> velocities = new ArrayList<Double>();
 		if (trip.isEmpty()) {
 			return velocities;
 		}
+		if (smoother != null) {
+			smoother.reset(); // a new trip
+		}
 
 		Iterator<TripPoint> iter = trip.iterator();
 		TripPoint lastPoint;
@@ -160,7 +220,11 @@ public class AccelrMap extends
 			currPoint = iter.next();
 
 			// Velocity = distance/1sec = distance
-			velocities.add(lastPoint.getDistFrom(currPoint));
+			double velocity = lastPoint.getDistFrom(currPoint);
+			if (smoother != null) {
+				velocity = smoother.smooth(velocity);
+			}
+			velocities.add(velocity);
 		}
 		return velocities;
 	}
@@ -174,10 +238,11 @@ public class AccelrMap extends
 	 * 
 	 * @throws IOException
 	 */
-	private List<TripPoint> parseTrip(BytesWritable tripFile)
+	static List<TripPoint> parseTrip(BytesWritable tripFile)
 			throws IOException {
 		// Get trip points
-		String tripString = IOUtils.toString(tripFile.getBytes(), ENCODING);
+		String tripString = new String(tripFile.getBytes(), 0,
+				tripFile.getLength(), ENCODING);
 		String[] strPoints = tripString.split(POINTS_DELIM);
 
 		// Create a trip - array of points
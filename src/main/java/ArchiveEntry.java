@@ -0,0 +1,64 @@
+/**
+ * A file entry inside a trips archive (zip or tar).
+ */
+public class ArchiveEntry {
+	private String name;
+	private long indexOffset;
+	private long dataOffset;
+	private long storedSize;
+	private long size;
+	private int method;
+
+	/**
+	 * Construct an archive entry.
+	 *
+	 * @param name
+	 *            the entry's path inside the archive
+	 * @param indexOffset
+	 *            offset of the entry in the archive's index (the zip central
+	 *            directory record or the first tar header of the entry)
+	 * @param dataOffset
+	 *            offset of the entry's data (the zip local header or the tar
+	 *            file data)
+	 * @param storedSize
+	 *            number of bytes the entry takes in the archive
+	 * @param size
+	 *            number of bytes of the entry after extraction
+	 * @param method
+	 *            zip compression method of the entry
+	 */
+	public ArchiveEntry(String name, long indexOffset, long dataOffset,
+			long storedSize, long size, int method) {
+		this.name = name;
+		this.indexOffset = indexOffset;
+		this.dataOffset = dataOffset;
+		this.storedSize = storedSize;
+		this.size = size;
+		this.method = method;
+	}
+
+	// getters:
+	public String getName() {
+		return name;
+	}
+
+	public long getIndexOffset() {
+		return indexOffset;
+	}
+
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	public long getStoredSize() {
+		return storedSize;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public int getMethod() {
+		return method;
+	}
+}
@@ -0,0 +1,168 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Iterates over the file entries of a range of a trips archive's index and
+ * reads their data. The index of a zip archive is its central directory, the
+ * index of a tar archive is the chain of its headers.
+ */
+public abstract class ArchiveEntryIterator implements Closeable {
+	private static final String ZIP_ENDING = ".zip";
+	private static final String TAR_ENDING = ".tar";
+	protected final FSDataInputStream in;
+	protected final long start;
+	protected final long end;
+
+	/**
+	 * Construct an iterator over a range of the archive's index.
+	 *
+	 * @param in
+	 *            the opened archive
+	 * @param start
+	 *            offset of the first entry in the index
+	 * @param end
+	 *            offset where the range of the index ends
+	 */
+	protected ArchiveEntryIterator(FSDataInputStream in, long start, long end) {
+		this.in = in;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Get the next file entry in the range.
+	 *
+	 * @return the next entry or null if there are no more entries
+	 * @throws IOException
+	 */
+	public abstract ArchiveEntry next() throws IOException;
+
+	/**
+	 * Read the (extracted) data of an entry.
+	 *
+	 * @param entry
+	 *            the entry to read
+	 * @return the entry's bytes
+	 * @throws IOException
+	 */
+	public abstract byte[] read(ArchiveEntry entry) throws IOException;
+
+	/**
+	 * Get the offset in the index of the next entry to iterate.
+	 *
+	 * @return the current index offset
+	 */
+	public abstract long getPos();
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Checks whether the path is a supported trips archive.
+	 *
+	 * @param path
+	 *            path to check
+	 * @return true if it's a zip or a tar archive
+	 */
+	public static boolean isArchive(String path) {
+		return path.endsWith(ZIP_ENDING) || path.endsWith(TAR_ENDING);
+	}
+
+	/**
+	 * Gets the range of the archive's index.
+	 *
+	 * @param fs
+	 *            the archive's file system
+	 * @param archive
+	 *            the archive's status
+	 * @return the index start and end offsets
+	 * @throws IOException
+	 */
+	public static long[] getIndexRange(FileSystem fs, FileStatus archive)
+			throws IOException {
+		if (!archive.getPath().getName().endsWith(ZIP_ENDING)) {
+			return new long[] { 0, archive.getLen() }; // headers are all over
+		}
+
+		FSDataInputStream in = fs.open(archive.getPath());
+		try {
+			return ZipEntryIterator.getCentralDirectory(in, archive.getLen());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Opens an iterator over a range of the archive's index.
+	 *
+	 * @param fs
+	 *            the archive's file system
+	 * @param archive
+	 *            path to the archive
+	 * @param start
+	 *            offset of the first entry in the index
+	 * @param end
+	 *            offset where the range of the index ends
+	 * @return the entries iterator
+	 * @throws IOException
+	 */
+	public static ArchiveEntryIterator open(FileSystem fs, Path archive,
+			long start, long end) throws IOException {
+		if (!isArchive(archive.getName())) {
+			throw new IOException("Not a trips archive: " + archive);
+		}
+
+		FSDataInputStream in = fs.open(archive);
+		if (archive.getName().endsWith(ZIP_ENDING)) {
+			return new ZipEntryIterator(in, start, end);
+		}
+		return new TarEntryIterator(in, start, end);
+	}
+
+	/**
+	 * Read bytes from a given offset of the archive.
+	 *
+	 * @param pos
+	 *            offset to read from
+	 * @param buffer
+	 *            buffer to fill
+	 * @throws IOException
+	 */
+	protected void readAt(long pos, byte[] buffer) throws IOException {
+		// Avoid seeking when reading sequentially
+		if (in.getPos() != pos) {
+			in.seek(pos);
+		}
+		in.readFully(buffer);
+	}
+
+	/**
+	 * Get a little endian unsigned 16 bit number from the buffer.
+	 */
+	protected static int getUInt16(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8);
+	}
+
+	/**
+	 * Get a little endian unsigned 32 bit number from the buffer.
+	 */
+	protected static long getUInt32(byte[] buffer, int offset) {
+		return getUInt16(buffer, offset)
+				| ((long) getUInt16(buffer, offset + 2) << 16);
+	}
+
+	/**
+	 * Get a little endian 64 bit number from the buffer.
+	 */
+	protected static long getUInt64(byte[] buffer, int offset) {
+		return getUInt32(buffer, offset)
+				| (getUInt32(buffer, offset + 4) << 32);
+	}
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * Hadoop's format for reading the trips straight out of a zip or a tar archive
+ * of the drivers' folders. Splits are ranges of the archive's entries, cut on
+ * drivers' boundaries where possible.
+ */
+public class ArchiveTripInputFormat extends
+		FileInputFormat<TripIdWritable, BytesWritable> {
+	private static final double MAX_SPLIT_SLOP = 2.0;
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return false; // splits are planned by the archive's entries
+	}
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+		long maxSize = getMaxSplitSize(job);
+
+		for (FileStatus archive : listStatus(job)) {
+			if (!ArchiveEntryIterator.isArchive(archive.getPath().getName())) {
+				continue;
+			}
+			long splitSize = computeSplitSize(archive.getBlockSize(), minSize,
+					maxSize);
+			splits.addAll(getArchiveSplits(job, archive, splitSize));
+		}
+		return splits;
+	}
+
+	/**
+	 * Index the archive and cut its entries to splits.
+	 *
+	 * @param job
+	 *            the job's context
+	 * @param archive
+	 *            the archive's status
+	 * @param splitSize
+	 *            the wanted split size in bytes
+	 * @return the archive's splits
+	 * @throws IOException
+	 */
+	private List<InputSplit> getArchiveSplits(JobContext job,
+			FileStatus archive, long splitSize) throws IOException {
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		Path path = archive.getPath();
+		FileSystem fs = path.getFileSystem(job.getConfiguration());
+		long[] indexRange = ArchiveEntryIterator.getIndexRange(fs, archive);
+
+		ArchiveEntryIterator entries = ArchiveEntryIterator.open(fs, path,
+				indexRange[0], indexRange[1]);
+		try {
+			TripIdWritable tripId = new TripIdWritable();
+			String lastDriver = null;
+			long splitStart = indexRange[0];
+			long dataStart = -1;
+			long bytes = 0;
+
+			for (ArchiveEntry entry = entries.next(); entry != null; entry = entries
+					.next()) {
+				if (!tripId.set(entry.getName())) {
+					continue; // not a trip
+				}
+
+				// Cut when the split is full and a new driver starts, or when a
+				// single driver is way too big for one split
+				String driver = tripId.getDriverID().toString();
+				if ((bytes >= splitSize && !driver.equals(lastDriver))
+						|| bytes >= splitSize * MAX_SPLIT_SLOP) {
+					splits.add(makeSplit(fs, archive, splitStart,
+							entry.getIndexOffset(), dataStart, bytes));
+					splitStart = entry.getIndexOffset();
+					dataStart = -1;
+					bytes = 0;
+				}
+
+				if (dataStart < 0) {
+					dataStart = entry.getDataOffset();
+				}
+				bytes += entry.getStoredSize();
+				lastDriver = driver;
+			}
+
+			// Add the last split
+			if (dataStart >= 0) {
+				splits.add(makeSplit(fs, archive, splitStart, indexRange[1],
+						dataStart, bytes));
+			}
+		} finally {
+			entries.close();
+		}
+		return splits;
+	}
+
+	/**
+	 * Create a split located by its first entry's data.
+	 *
+	 * @param fs
+	 *            the archive's file system
+	 * @param archive
+	 *            the archive's status
+	 * @param start
+	 *            offset of the first entry in the archive's index
+	 * @param end
+	 *            offset where the range of entries ends
+	 * @param dataStart
+	 *            offset of the first entry's data
+	 * @param length
+	 *            number of archive bytes the entries take
+	 * @return the split
+	 * @throws IOException
+	 */
+	private ArchiveTripSplit makeSplit(FileSystem fs, FileStatus archive,
+			long start, long end, long dataStart, long length)
+			throws IOException {
+		BlockLocation[] blocks = fs.getFileBlockLocations(archive, dataStart,
+				Math.max(1, length));
+		String[] hosts = new String[0];
+		if (blocks != null && blocks.length > 0) {
+			hosts = blocks[0].getHosts();
+		}
+		return new ArchiveTripSplit(archive.getPath(), start, end, length,
+				hosts);
+	}
+
+	@Override
+	public RecordReader<TripIdWritable, BytesWritable> createRecordReader(
+			InputSplit inputSplit, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		return new ArchiveTripRecordReader(); // initialized by the framework
+	}
+}
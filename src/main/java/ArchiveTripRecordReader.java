@@ -0,0 +1,77 @@
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Hadoop's trips archive record reader. Reads the split's trip entries one
+ * after the other from the archive.
+ */
+public class ArchiveTripRecordReader extends
+		RecordReader<TripIdWritable, BytesWritable> {
+
+	private ArchiveTripSplit split;
+	private ArchiveEntryIterator entries;
+
+	private final TripIdWritable currKey = new TripIdWritable();
+	private final BytesWritable currValue = new BytesWritable();
+
+	@Override
+	public void initialize(InputSplit split, TaskAttemptContext context)
+			throws IOException, InterruptedException {
+		this.split = (ArchiveTripSplit) split;
+		FileSystem fs = this.split.getPath().getFileSystem(
+				context.getConfiguration());
+		entries = ArchiveEntryIterator.open(fs, this.split.getPath(),
+				this.split.getStart(), this.split.getEnd());
+	}
+
+	@Override
+	public boolean nextKeyValue() throws IOException, InterruptedException {
+		ArchiveEntry entry = entries.next();
+
+		// Skip the entries which aren't trips
+		while (entry != null && !currKey.set(entry.getName())) {
+			entry = entries.next();
+		}
+		if (entry == null) {
+			return false;
+		}
+
+		byte[] data = entries.read(entry);
+		currValue.set(data, 0, data.length);
+		return true;
+	}
+
+	@Override
+	public TripIdWritable getCurrentKey() throws IOException,
+			InterruptedException {
+		return currKey;
+	}
+
+	@Override
+	public BytesWritable getCurrentValue() throws IOException,
+			InterruptedException {
+		return currValue;
+	}
+
+	@Override
+	public float getProgress() throws IOException, InterruptedException {
+		long range = split.getEnd() - split.getStart();
+		if (range == 0) {
+			return 1;
+		}
+		return Math.min(1.0f, (entries.getPos() - split.getStart())
+				/ (float) range);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (entries != null) {
+			entries.close();
+		}
+	}
+}
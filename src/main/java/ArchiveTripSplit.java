@@ -0,0 +1,94 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * Hadoop's split of a trips archive - a range of the archive's index entries.
+ */
+public class ArchiveTripSplit extends InputSplit implements Writable {
+	private Path path;
+	private long start;
+	private long end;
+	private long length;
+	private String[] hosts;
+
+	public ArchiveTripSplit() {
+		super();
+	}
+
+	/**
+	 * Construct a split of a range of the archive's entries.
+	 *
+	 * @param path
+	 *            path to the archive
+	 * @param start
+	 *            offset of the first entry in the archive's index
+	 * @param end
+	 *            offset where the range of entries ends
+	 * @param length
+	 *            number of archive bytes the entries take
+	 * @param hosts
+	 *            hosts where the entries' data is stored
+	 */
+	public ArchiveTripSplit(Path path, long start, long end, long length,
+			String[] hosts) {
+		this.path = path;
+		this.start = start;
+		this.end = end;
+		this.length = length;
+		this.hosts = hosts;
+	}
+
+	// getters:
+	public Path getPath() {
+		return path;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	@Override
+	public long getLength() {
+		return length;
+	}
+
+	@Override
+	public String[] getLocations() {
+		if (hosts == null) {
+			return new String[0];
+		}
+		return hosts;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		path = new Path(Text.readString(in));
+		start = in.readLong();
+		end = in.readLong();
+		length = in.readLong();
+		hosts = null; // locations are only needed by the job client
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		Text.writeString(out, path.toString());
+		out.writeLong(start);
+		out.writeLong(end);
+		out.writeLong(length);
+	}
+
+	@Override
+	public String toString() {
+		return path + ":" + start + "-" + end;
+	}
+}
@@ -0,0 +1,116 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Hadoop's writable profile of a driver for a single behavior check: the
+ * centroids of the check's trip categories, which of the categories are
+ * suspected, and the check's voting weight. A trip belongs to the category of
+ * its closest centroid, by the rules of SuspicionsReduce.
+ */
+public class CheckProfileWritable implements Writable {
+	public static final int CATEGORIES_NO = 3;
+	private double[] centroids = new double[CATEGORIES_NO];
+	private boolean[] suspected = new boolean[CATEGORIES_NO];
+	private int weight = 0;
+
+	public CheckProfileWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * Set a category of the profile.
+	 * 
+	 * @param category
+	 *            the category's index
+	 * @param centroid
+	 *            the category's average data, NaN for an empty category
+	 * @param isSuspected
+	 *            whether the category's trips are suspected
+	 */
+	public void setCategory(int category, double centroid, boolean isSuspected) {
+		centroids[category] = centroid;
+		suspected[category] = isSuspected;
+	}
+
+	/**
+	 * Find the category of a trip's data.
+	 * 
+	 * @param data
+	 *            the trip's data
+	 * @return the category's index
+	 */
+	public int getCategory(double data) {
+		return getClosestCategory(centroids, data);
+	}
+
+	/**
+	 * Find the category with the closest centroid to a trip's data. Takes the
+	 * later category on ties and never an empty (NaN) one, like the
+	 * categorizing has always done.
+	 * 
+	 * @param centroids
+	 *            the categories' centroids
+	 * @param data
+	 *            the trip's data
+	 * @return the category's index
+	 */
+	public static int getClosestCategory(double[] centroids, double data) {
+		int closest = 0;
+		double closestDist = Math.abs(centroids[0] - data);
+		for (int category = 1; category < centroids.length; category++) {
+			double dist = Math.abs(centroids[category] - data);
+			if (Double.compare(dist, closestDist) <= 0) {
+				closest = category;
+				closestDist = dist;
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * Checks whether a trip with the data is suspected by the check.
+	 * 
+	 * @param data
+	 *            the trip's data
+	 * @return true if the trip's category is suspected
+	 */
+	public boolean isSuspected(double data) {
+		return suspected[getCategory(data)];
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		for (int category = 0; category < CATEGORIES_NO; category++) {
+			centroids[category] = in.readDouble();
+			suspected[category] = in.readBoolean();
+		}
+		weight = in.readInt();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		for (int category = 0; category < CATEGORIES_NO; category++) {
+			out.writeDouble(centroids[category]);
+			out.writeBoolean(suspected[category]);
+		}
+		out.writeInt(weight);
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(centroids) + Arrays.toString(suspected) + weight;
+	}
+}
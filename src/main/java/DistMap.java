@@ -1,75 +1,71 @@
 import java.io.IOException;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 /**
  * Mapper for hadoop. Gets distance of each trip.
  */
 public class DistMap extends
-		Mapper<NullWritable, BytesWritable, Text, TripDataWritable> {
-	private static final String POINTS_DELIM = "\n";
-	private static final String ENCODING = "UTF-8";
+		Mapper<TripIdWritable, BytesWritable, DriverValueWritable, TripDataWritable> {
+	public static final int TAIL_BYTES = 256;
+	private TripDataWritable tripData = new TripDataWritable();
+	private DriverValueWritable outKey = new DriverValueWritable();
 
 	@Override
 	protected void map(
-			NullWritable key,
+			TripIdWritable key,
 			BytesWritable tripFile,
-			Mapper<NullWritable, BytesWritable, Text, TripDataWritable>.Context context)
+			Mapper<TripIdWritable, BytesWritable, DriverValueWritable, TripDataWritable>.Context context)
 			throws IOException, InterruptedException {
-		Path filePath = ((FileSplit) context.getInputSplit()).getPath();
-
-		// Get the trip id & the driver id from the filename
-		Text driverId = new Text(filePath.getParent().getName());
-		Integer tripId = getTripId(filePath);
+		// Get the trip id & the driver id of the trip
+		Text driverId = key.getDriverID();
+		Integer tripId = key.getTripID();
 
 		// Get distance of the trip
 		Double tripDist = getDestinationPoint(tripFile).getDistance();
 
 		// Write results
-		TripDataWritable tripData = new TripDataWritable();
 		tripData.set(tripId, tripDist);
-		context.write(driverId, tripData);
+		outKey.set(driverId, tripData.getData()); // sorts the trips by value
+		context.write(outKey, tripData);
 	}
 
 	/**
-	 * Get the trip's final point.
+	 * Get the trip's final point - the last complete line of the file. Only
+	 * the end of the file is scanned, so the file may be given as its tail
+	 * only (see WholeFileInputFormat.setTailBytes).
 	 * 
 	 * @param fileBytes
-	 *            trip data file
+	 *            trip data file, or its tail
 	 * @return the final point of the trip
 	 * 
 	 * @throws IOException
 	 */
-	private TripPoint getDestinationPoint(BytesWritable fileBytes)
+	static TripPoint getDestinationPoint(BytesWritable fileBytes)
 			throws IOException {
-		String tripString = IOUtils.toString(fileBytes.getBytes(), ENCODING);
-		String[] strPoints = tripString.split(POINTS_DELIM);
-		TripPoint destinationPoint;
-		try {
-			destinationPoint = new TripPoint(strPoints[strPoints.length - 2]);
-		} catch (Exception e) {
-			return null;
-		}
-		return destinationPoint;
+		return TripPoint.parseLastPoint(fileBytes.getBytes(),
+				fileBytes.getLength(), true);
 	}
 
 	/**
-	 * Get trip ID from the filename.
-	 * 
-	 * @param filePath
-	 *            path to the trip file
-	 * @return the trip ID
+	 * Mapper for hadoop. Gets the distance of every simplified trip, from its
+	 * kept final point.
 	 */
-	private Integer getTripId(Path filePath) {
-		String tripFileName = filePath.getName(); // get file name
-		int filenameEnding = tripFileName.indexOf("."); // remove ending
-		String strTripId = tripFileName.substring(0, filenameEnding);
-		return Integer.parseInt(strTripId);
+	public static class Simplified
+			extends
+			Mapper<TripIdWritable, SimplifiedTripWritable, DriverValueWritable, TripDataWritable> {
+		private TripDataWritable tripData = new TripDataWritable();
+		private DriverValueWritable outKey = new DriverValueWritable();
+
+		@Override
+		protected void map(TripIdWritable key, SimplifiedTripWritable trip,
+				Context context) throws IOException, InterruptedException {
+			tripData.set(key.getTripID(),
+					TripFeatures.compute(CheckType.distance, key, trip));
+			outKey.set(key.getDriverID(), tripData.getData());
+			context.write(outKey, tripData);
+		}
 	}
 }
\ No newline at end of file
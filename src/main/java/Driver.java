@@ -1,15 +1,44 @@
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineSequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.join.CompositeInputFormat;
+import org.apache.hadoop.mapreduce.lib.map.MultithreadedMapper;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.StringUtils;
 
 /**
  * Driver for hadoop. Analyzes drivers' behavior and finds fake trips.
@@ -21,55 +50,752 @@ public class Driver {
 	private static final String TIME_PATH = CheckType.time.toString();
 	private static final String ACCELR_PATH = CheckType.acceleration.toString();
 	private static final String DIST_PATH = CheckType.distance.toString();
+	public static final String MAP_THREADS = "trips.map.threads";
+	public static final String REDUCE_THREADS = "trips.reduce.threads";
+	public static final String PARTITIONS = "trips.partitions";
+	public static final String PROFILES_DIR = "trips.profiles.dir";
+	public static final String SKETCH_CHECKS = "trips.sketch.checks";
+	private static final String SKETCH_ENDING = "-sketch";
+	static final String REFERENCE_PATH = "reference";
+	public static final String ROUTES = "trips.routes";
+	static final String ROUTES_PATH = "routes";
+	private static final String FINGERPRINTS_ENDING = "-fingerprints";
+	public static final String HISTOGRAMS = "trips.histograms";
+	static final String HISTOGRAMS_PATH = "histograms";
+	private static final String TOP_PATH = "top";
+	private static final String SCORES_ENDING = "-scores";
+	private static final String PARTITIONS_ENDING = "-partitions";
+	private static final String TOP_ENDING = "-top.csv";
+	private static final String RANKING_ENDING = "-ranking";
+	private static final String TOP_HEADER = "driver_trip,score\n";
+	private static final double RANKING_SAMPLE_FREQ = 0.1;
+	private static final int RANKING_SAMPLES = 10000;
+	private static final int RANKING_SAMPLED_SPLITS = 10;
+	private static final String SIMPLIFIED_PATH = "simplified";
+	private static final String CHUNKED_PATH = "chunked";
+	private static final String MANIFEST_PATH = "manifest";
+	private static final String DATASETS_DELIM = ",";
+	private static final String CSV_ENDING = ".csv";
+	private static final String SAMPLES_ENDING = "-samples";
+	private static final String PARTS_GLOB = "part-*";
+	private static final String ENCODING = "UTF-8";
+	private static final String VERDICTS_STAGE = "verdicts";
+	private static final String JOIN_OP = "outer";
+	private static final String CLUSTER_VARIANT = "cluster";
+	private static final String SKETCH_VARIANT = "sketch";
+	private static final int VERDICTS_INDEX_INTERVAL = 16;
+	private static final long LABEL_SPLIT_SIZE = 128 * 1024 * 1024;
 	private static final int INPUT_ARG = 0;
 	private static final int OUTPUT_ARG = 1;
+	private static final String USAGE = "Usage: Driver [-D option=value ...] <input> <output>\n"
+			+ "  <input>   drivers' folder, their zip/tar archive, a packed folder,\n"
+			+ "            or comma separated drivers' folders, judged in one\n"
+			+ "            pipeline to a <output> folder of a dataset.csv per folder\n"
+			+ "  <output>  verdicts' csv file, or a folder with trips.output.sparse\n"
+			+ "Options:\n"
+			+ "  trips.map.threads, trips.reduce.threads  threads per task\n"
+			+ "  trips.partitions          reducers of the results' jobs\n"
+			+ "  trips.output.sparse=true  sparse verdicts (see SparseVerdictExpander)\n"
+			+ "  trips.output.index=DIR    index the verdicts by driver (VerdictIndex)\n"
+			+ "  trips.profiles.dir=DIR    export the drivers' profiles (TripScorer)\n"
+			+ "  trips.sketch.checks=time,...  suspect these checks by sketches\n"
+			+ "  trips.reference.samples=N judge against other drivers' trips\n"
+			+ "  trips.routes=true         trust trips on repeated routes more\n"
+			+ "  trips.histograms=true     judge by speed/acceleration histograms\n"
+			+ "  trips.simplify.tolerance=M  geometry checks read simplified trips\n"
+			+ "  trips.input.chunk.bytes=N read the trips in chunks, merged\n"
+			+ "  trips.smooth.window=N     smooth the speeds (trips.smooth.filter=\n"
+			+ "                            median or exponential)\n"
+			+ "  trips.top.k=N             write the N most suspicious trips to\n"
+			+ "                            <output>-top.csv (trips.top.ranking=true\n"
+			+ "                            ranks all to <output>-ranking)\n"
+			+ "  trips.run.dir=DIR         keep the stages there and resume reruns\n"
+			+ "                            (trips.run.force=time,... or all)\n"
+			+ "  mapreduce.input.fileinputformat.list-status.num-threads=N\n"
+			+ "                            threads listing the drivers' folders";
+	private static Configuration userConf = new Configuration();
+	private static RunCheckpoints checkpoints = null;
+	private static InputManifest inputManifest = null;
+	private static String manifestInput = null;
+	private static String simplifiedInput = null;
+	private static String chunkedInput = null;
 
 	/**
-	 * Finds fake trips for every driver.
+	 * Finds fake trips for every driver. The options are hadoop's generic
+	 * options, see USAGE for the program's own.
 	 * 
 	 * @param args
-	 *            input path and output path
+	 *            generic options, input path (drivers' folder, their zip/tar
+	 *            archive, a packed folder, or a comma separated batch of
+	 *            drivers' folders) and output path
 	 * @throws Exception
 	 */
 	public static void main(String[] args) throws Exception {
-		// Get input/output paths
-		String input = args[INPUT_ARG] + ALL_CHILDREN;
+		// Get the user's settings and input/output paths
+		args = parseArgs(args);
+		if (args.length <= OUTPUT_ARG) {
+			System.err.println(USAGE);
+			System.exit(-1);
+		}
+		String input = args[INPUT_ARG];
 		String outFile = args[OUTPUT_ARG];
+		String[] datasets = null;
+		if (isBatchInput(input)) {
+			datasets = getDatasets(input);
+		}
 
 		// Analyze the driver's behavior
-		analyzeBehavior(input, AccelrMap.class, ACCELR_PATH); // acceleration
-		analyzeBehavior(input, TimeMap.class, TIME_PATH); // trip times
-		analyzeBehavior(input, DistMap.class, DIST_PATH); // trip distances
+		analyzeBehavior(input, CheckType.acceleration);
+		analyzeBehavior(input, CheckType.time);
+		analyzeBehavior(input, CheckType.distance);
+		if (isReferenceOn()) {
+			compareWithOthers(input);
+		}
+		if (isRoutesOn()) {
+			findRepeatedRoutes(input);
+		}
+		if (isHistogramsOn()) {
+			compareHistograms(input);
+		}
+		if (isTopOn()) {
+			pickTopTrips(input, outFile);
+		}
+
+		pickFalseTrips(outFile, datasets); // Pick the false trips
+	}
+
+	/**
+	 * Checks whether the input is a batch of datasets' drivers' folders.
+	 * 
+	 * @param input
+	 *            the input path
+	 * @return true if the input is a comma separated list of folders
+	 */
+	static boolean isBatchInput(String input) {
+		return input.contains(DATASETS_DELIM);
+	}
+
+	/**
+	 * Get the names of a batch's datasets: their folders' names. The stages
+	 * which compare trips across drivers would mix the datasets, so they
+	 * can't run on a batch.
+	 * 
+	 * @param input
+	 *            the comma separated datasets' folders
+	 * @return the datasets' names, in the input's order
+	 * @throws IOException
+	 */
+	static String[] getDatasets(String input) throws IOException {
+		if (isReferenceOn() || isTopOn()
+				|| userConf.get(PROFILES_DIR) != null) {
+			throw new IllegalArgumentException(
+					"A batch of datasets can't be compared with other drivers,"
+							+ " ranked or exported to profiles");
+		}
+
+		String[] folders = StringUtils.getTrimmedStrings(input);
+		String[] datasets = new String[folders.length];
+		Set<String> names = new HashSet<String>();
+		for (int i = 0; i < folders.length; i++) {
+			if (ArchiveEntryIterator.isArchive(folders[i])
+					|| PackedTripInputFormat.isPacked(userConf, new Path(
+							folders[i]))) {
+				throw new IllegalArgumentException("The dataset " + folders[i]
+						+ " isn't a drivers' folder");
+			}
+			datasets[i] = new Path(folders[i]).getName();
+			if (!names.add(datasets[i])) {
+				throw new IllegalArgumentException("Two datasets are named "
+						+ datasets[i]);
+			}
+		}
+		return datasets;
+	}
+
+	/**
+	 * Keeps hadoop's generic options for the jobs.
+	 * 
+	 * @param args
+	 *            the program's arguments
+	 * @return the arguments which aren't generic options
+	 * @throws IOException
+	 */
+	static String[] parseArgs(String[] args) throws IOException {
+		String[] remaining = new GenericOptionsParser(userConf, args)
+				.getRemainingArgs();
+		checkpoints = null; // the settings changed
+		inputManifest = null;
+		simplifiedInput = null;
+		chunkedInput = null;
+		return remaining;
+	}
 
-		pickFalseTrips(outFile); // Pick the false trips
+	/**
+	 * Get the run's checkpoints, by the user's settings.
+	 * 
+	 * @return the run's checkpoints
+	 */
+	static RunCheckpoints getCheckpoints() {
+		if (checkpoints == null) {
+			checkpoints = new RunCheckpoints(userConf);
+		}
+		return checkpoints;
+	}
+
+	/**
+	 * Get the manifest of a drivers' folder, listing the folder once for all
+	 * the run's jobs and stages' fingerprints. The manifest's file is kept
+	 * with the stages' outputs, for the later runs if the run keeps them.
+	 * 
+	 * @param input
+	 *            the drivers' folder
+	 * @return the folder's manifest, with its files listed
+	 * @throws IOException
+	 */
+	static InputManifest getInputManifest(String input) throws IOException {
+		if (inputManifest == null || !input.equals(manifestInput)) {
+			InputManifest manifest = new InputManifest(userConf, input,
+					getStagePath(MANIFEST_PATH));
+			getCheckpoints().setInputFiles(input, manifest.getFiles());
+			inputManifest = manifest;
+			manifestInput = input;
+		}
+		return inputManifest;
 	}
 
 	/**
-	 * Clears hadoop's unnecessary generated files and renames the result file
-	 * as needed.
+	 * Get the fingerprint of the trips' input, from its manifest if it's a
+	 * drivers' folder.
+	 * 
+	 * @param input
+	 *            the input path
+	 * @return the input's fingerprint
+	 * @throws IOException
+	 */
+	private static String getInputFingerprint(String input)
+			throws IOException {
+		if (isFolderInput(input)) {
+			getInputManifest(input);
+		}
+		return getCheckpoints().getInputFingerprint(input);
+	}
+
+	/**
+	 * Checks whether the trips' input is a drivers' folder, rather than
+	 * their archive or a packed folder.
+	 * 
+	 * @param input
+	 *            the input path
+	 * @return true if the input is a drivers' folder
+	 * @throws IOException
+	 */
+	private static boolean isFolderInput(String input) throws IOException {
+		if (isBatchInput(input)) {
+			return true; // every dataset is a drivers' folder
+		}
+		return !ArchiveEntryIterator.isArchive(input)
+				&& !PackedTripInputFormat.isPacked(userConf, new Path(input));
+	}
+
+	/**
+	 * Get the path of a stage's output, in the run folder if there's one.
+	 * 
+	 * @param stage
+	 *            the stage's folder name
+	 * @return the stage's output path
+	 */
+	static Path getStagePath(String stage) {
+		return getCheckpoints().getPath(stage);
+	}
+
+	/**
+	 * Performs a behavior check's job.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @param check
+	 *            the check to perform
+	 * @return the completed job
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job analyzeBehavior(String inPath, CheckType check)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		return analyzeBehavior(inPath, check, isSketchCheck(check));
+	}
+
+	/**
+	 * Performs a behavior check's jobs, by clustering or by sketches.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @param check
+	 *            the check to perform
+	 * @param isSketch
+	 *            whether to suspect trips by the drivers' sketches
+	 * @return the completed (last) job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job analyzeBehavior(String inPath, CheckType check, boolean isSketch)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(check.toString());
+		String variant = CLUSTER_VARIANT;
+		if (isSketch) {
+			variant = SKETCH_VARIANT;
+		}
+		String fingerprint = run.getFingerprint(check.toString(),
+				getInputFingerprint(inPath), variant);
+		if (run.isDone(check.toString(), output, fingerprint)) {
+			return null;
+		}
+		run.prepare(output, getStagePath(check + SKETCH_ENDING));
+		if (check == CheckType.acceleration) {
+			// The routes' fingerprints, if any, come with the check's results
+			deleteStage(ROUTES_PATH + FINGERPRINTS_ENDING);
+		}
+
+		Job job;
+		if (isSketch) {
+			job = sketchBehavior(inPath, check, output);
+		} else {
+			switch (check) {
+			case acceleration:
+				job = analyzeBehavior(inPath, AccelrMap.class, null, check,
+						output);
+				break;
+			case time:
+				job = analyzeBehavior(inPath, TimeMap.class,
+						TimeMap.Simplified.class, check, output);
+				break;
+			case distance:
+				job = analyzeBehavior(inPath, DistMap.class,
+						DistMap.Simplified.class, check, output);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown check " + check);
+			}
+		}
+
+		if (job.isSuccessful()) {
+			run.commit(output, fingerprint);
+		}
+		return job;
+	}
+
+	/**
+	 * Checks whether the user chose to suspect a check's trips by sketches.
+	 * 
+	 * @param check
+	 *            the check
+	 * @return true if the check is in trips.sketch.checks
+	 */
+	private static boolean isSketchCheck(CheckType check) {
+		for (String sketchCheck : userConf.getTrimmedStrings(SKETCH_CHECKS)) {
+			if (sketchCheck.equals(check.toString())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the user chose to judge the trips against other drivers'
+	 * trips.
+	 * 
+	 * @return true if trips.reference.samples is positive
+	 */
+	private static boolean isReferenceOn() {
+		return userConf.getInt(ReferenceSampleMap.SAMPLES, 0) > 0;
+	}
+
+	/**
+	 * Checks whether the user chose to find the drivers' repeated routes.
+	 * 
+	 * @return true if trips.routes is set
+	 */
+	private static boolean isRoutesOn() {
+		return userConf.getBoolean(ROUTES, false);
+	}
+
+	/**
+	 * Checks whether the user chose to judge the trips by their drivers'
+	 * speed and acceleration histograms.
+	 * 
+	 * @return true if trips.histograms is set
+	 */
+	private static boolean isHistogramsOn() {
+		return userConf.getBoolean(HISTOGRAMS, false);
+	}
+
+	/**
+	 * Checks whether the user chose to rank the most suspicious trips of all
+	 * the drivers.
+	 * 
+	 * @return true if trips.top.k is positive
+	 */
+	private static boolean isTopOn() {
+		return userConf.getInt(TripScoreReduce.TOP_K, 0) > 0;
+	}
+
+	/**
+	 * Reads only the parts of the trips the check needs, where the input
+	 * allows it.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param check
+	 *            the job's check
+	 */
+	private static void setCheckReading(Job job, CheckType check) {
+		if (check == CheckType.distance) {
+			// Only the trip's end is needed for its distance
+			WholeFileInputFormat.setTailBytes(job, DistMap.TAIL_BYTES);
+		} else if (check == CheckType.time) {
+			// Only the trip's lines are needed for its length
+			WholeFileInputFormat.setLinesOnly(job, true);
+		}
+	}
+
+	/**
+	 * Sets the trips as the job's input, choosing the format by the way they
+	 * are stored.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param input
+	 *            the drivers' folder, their zip/tar archive, a folder packed
+	 *            by PackTrips or a batch of datasets' drivers' folders
+	 * @throws IOException
+	 */
+	static void setTripsInput(Job job, String input) throws IOException {
+		Path inPath = new Path(input);
+		if (isBatchInput(input)) {
+			job.setInputFormatClass(WholeFileInputFormat.class);
+			setFolderInput(job, input);
+			return;
+		} else if (ArchiveEntryIterator.isArchive(input)) {
+			job.setInputFormatClass(ArchiveTripInputFormat.class);
+		} else if (PackedTripInputFormat.isPacked(job.getConfiguration(),
+				inPath)) {
+			job.setInputFormatClass(PackedTripInputFormat.class);
+		} else {
+			job.setInputFormatClass(WholeFileInputFormat.class);
+			setFolderInput(job, input);
+			return;
+		}
+		FileInputFormat.addInputPath(job, inPath);
+	}
+
+	/**
+	 * Sets the trip files of a drivers' folder, or of a batch of datasets'
+	 * drivers' folders, as the job's input, listed by the input's manifest.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param input
+	 *            the drivers' folder, or the comma separated folders
+	 * @throws IOException
+	 */
+	private static void setFolderInput(Job job, String input)
+			throws IOException {
+		for (String folder : StringUtils.getTrimmedStrings(input)) {
+			FileInputFormat.addInputPath(job, new Path(folder + ALL_CHILDREN));
+		}
+		InputManifest.setInput(job, getInputManifest(input));
+		if (isBatchInput(input)) {
+			job.getConfiguration().setBoolean(TripIdWritable.DATASETS, true);
+		}
+	}
+
+	/**
+	 * Sets the trips as a check's job's input. The acceleration check needs
+	 * every second's speed, so it always reads the original trips.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param input
+	 *            the input path
+	 * @param check
+	 *            the job's check
+	 * @return true if the job reads simplified trips
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	private static boolean setCheckInput(Job job, String input,
+			CheckType check) throws IOException, InterruptedException,
+			ClassNotFoundException {
+		if (check == CheckType.acceleration) {
+			setTripsInput(job, input);
+			return false;
+		}
+		return setGeometryInput(job, input);
+	}
+
+	/**
+	 * Sets the trips as the input of a job which needs only their geometry.
+	 * If the user chose a simplification tolerance, the job reads the
+	 * simplified trips, simplifying them first if no job of this run has yet
+	 * (or, in a run folder, if the run hasn't them done). Without a run
+	 * folder, simplified trips left by an earlier run are deleted, as they
+	 * may be of another input or tolerance. The simplified trips are read as
+	 * SimplifiedTripWritable values, so the job needs a mapper of them.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param input
+	 *            the input path
+	 * @return true if the job reads simplified trips
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	private static boolean setGeometryInput(Job job, String input)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		if (userConf.getDouble(SimplifyMap.TOLERANCE, 0) <= 0) {
+			setTripsInput(job, input);
+			return false;
+		}
+
+		Path simplified = getStagePath(SIMPLIFIED_PATH);
+		boolean isCheckpointing = getCheckpoints().isCheckpointing();
+		if (isCheckpointing || !input.equals(simplifiedInput)) {
+			if (!isCheckpointing) {
+				deleteStage(SIMPLIFIED_PATH);
+			}
+			Job simplifyJob = simplifyTrips(input);
+			if (simplifyJob != null && !simplifyJob.isSuccessful()) {
+				throw new IOException("Simplifying the trips failed");
+			}
+			simplifiedInput = input;
+		}
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		FileInputFormat.addInputPath(job, simplified);
+		return true;
+	}
+
+	/**
+	 * Performs the job which simplifies the trips, to block compressed
+	 * sequence files of their kept points.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @return the completed job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job simplifyTrips(String inPath) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(SIMPLIFIED_PATH);
+		String fingerprint = run.getFingerprint(SIMPLIFIED_PATH,
+				getInputFingerprint(inPath));
+		if (run.isDone(SIMPLIFIED_PATH, output, fingerprint)) {
+			return null;
+		}
+		run.prepare(output);
+
+		// Configure new job
+		Configuration conf = new Configuration(userConf);
+		Job simplifyJob = new Job(conf, "Simplify drivers' trips");
+		simplifyJob.setJarByClass(Driver.class);
+
+		// Mapper settings - no reducers, the trips stay in their splits:
+		simplifyJob.setMapperClass(SimplifyMap.class);
+		setTripsInput(simplifyJob, inPath);
+		simplifyJob.setNumReduceTasks(0);
+		simplifyJob.setOutputKeyClass(TripIdWritable.class);
+		simplifyJob.setOutputValueClass(SimplifiedTripWritable.class);
+		simplifyJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileOutputFormat.setCompressOutput(simplifyJob, true);
+		SequenceFileOutputFormat.setOutputCompressionType(simplifyJob,
+				CompressionType.BLOCK);
+		FileOutputFormat.setOutputPath(simplifyJob, output);
+
+		if (simplifyJob.waitForCompletion(true)) {
+			run.commit(output, fingerprint);
+		}
+		return simplifyJob;
+	}
+
+	/**
+	 * Checks whether the user chose to read the trips in chunks for a check.
+	 * Only a drivers' folder is read in chunks, as the archives' and the
+	 * packed folders' trips are read whole from their containers. Smoothed
+	 * speeds depend on the speeds before them, so the acceleration check
+	 * reads whole trips if the user chose to smooth them.
+	 * 
+	 * @param input
+	 *            the input path
+	 * @param check
+	 *            the check
+	 * @return true if trips.input.chunk.bytes is positive and the input is
+	 *         a drivers' folder
+	 * @throws IOException
+	 */
+	private static boolean isChunkedInput(String input, CheckType check)
+			throws IOException {
+		if (check == CheckType.acceleration
+				&& SpeedSmoother.create(userConf) != null) {
+			return false;
+		}
+		return userConf.getLong(TripChunkInputFormat.CHUNK_BYTES, 0) > 0
+				&& isFolderInput(input);
+	}
+
+	/**
+	 * Sets the trips' features merged from their chunks as a check's job's
+	 * input, merging them first if no job of this run has yet (or, in a run
+	 * folder, if the run hasn't them done). Without a run folder, features
+	 * left by an earlier run are deleted, as they may be of another input.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param input
+	 *            the input path
+	 * @param check
+	 *            the job's check
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	private static void setChunkedInput(Job job, String input, CheckType check)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		Path chunked = getStagePath(CHUNKED_PATH);
+		boolean isCheckpointing = getCheckpoints().isCheckpointing();
+		if (isCheckpointing || !input.equals(chunkedInput)) {
+			if (!isCheckpointing) {
+				deleteStage(CHUNKED_PATH);
+			}
+			Job mergeJob = mergeChunks(input);
+			if (mergeJob != null && !mergeJob.isSuccessful()) {
+				throw new IOException("Merging the trips' chunks failed");
+			}
+			chunkedInput = input;
+		}
+		job.setMapperClass(TripFeaturesMap.class);
+		job.getConfiguration().set(TripFeaturesMap.CHECK, check.toString());
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		FileInputFormat.addInputPath(job, chunked);
+	}
+
+	/**
+	 * Performs the job which reads the trips in chunks and merges the
+	 * chunks' partial features to every trip's features, to block compressed
+	 * sequence files.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @return the completed job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job mergeChunks(String inPath) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(CHUNKED_PATH);
+		String fingerprint = run.getFingerprint(CHUNKED_PATH,
+				getInputFingerprint(inPath));
+		if (run.isDone(CHUNKED_PATH, output, fingerprint)) {
+			return null;
+		}
+		run.prepare(output);
+
+		// Configure new job
+		Configuration conf = new Configuration(userConf);
+		Job mergeJob = new Job(conf, "Merge trips' chunks");
+		mergeJob.setJarByClass(Driver.class);
+
+		// Mapper settings - a split per chunk:
+		mergeJob.setMapperClass(TripChunkMap.class);
+		mergeJob.setInputFormatClass(TripChunkInputFormat.class);
+		setFolderInput(mergeJob, inPath);
+		FileInputFormat.setMaxInputSplitSize(mergeJob,
+				conf.getLong(TripChunkInputFormat.CHUNK_BYTES, 0));
+		mergeJob.setMapOutputKeyClass(TripIdWritable.class);
+		mergeJob.setMapOutputValueClass(TripPartialWritable.class);
+
+		// Reducer settings:
+		mergeJob.setReducerClass(TripChunkReduce.class);
+		mergeJob.setOutputKeyClass(TripIdWritable.class);
+		mergeJob.setOutputValueClass(TripVectorWritable.class);
+		mergeJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileOutputFormat.setCompressOutput(mergeJob, true);
+		SequenceFileOutputFormat.setOutputCompressionType(mergeJob,
+				CompressionType.BLOCK);
+		FileOutputFormat.setOutputPath(mergeJob, output);
+
+		if (mergeJob.waitForCompletion(true)) {
+			run.commit(output, fingerprint);
+		}
+		return mergeJob;
+	}
+
+	/**
+	 * Gets the result files, in order and under the header, to the output
+	 * file. In a run folder the results are kept, otherwise they're deleted.
 	 * 
 	 * @param outFile
-	 *            the output directory
+	 *            the output file
+	 * @throws IOException
 	 */
-	private static void outputToFile(String outFile) {
-		File outputFolder = new File(OUT_FOLDER);
-		File[] generatedFiles = outputFolder.listFiles();
+	private static void outputToFile(String outFile) throws IOException {
+		outputToFile(getStagePath(OUT_FOLDER), FalseTripsMap.HEADER, outFile);
+	}
 
-		// Go over the files in the output directory
-		for (File file : generatedFiles) {
-			String filename = file.getName();
+	/**
+	 * Gets a stage's result files, in order and under a header, to a file.
+	 * A stage's output without results may have no folder, which gives a file
+	 * of only the header. In a run folder the results are kept, otherwise
+	 * they're deleted.
+	 * 
+	 * @param output
+	 *            the stage's output folder
+	 * @param header
+	 *            the file's header
+	 * @param outFile
+	 *            the file
+	 * @throws IOException
+	 */
+	private static void outputToFile(Path output, String header,
+			String outFile) throws IOException {
+		FileSystem fs = output.getFileSystem(userConf);
+		FileStatus[] parts = fs.globStatus(new Path(output, PARTS_GLOB));
+		if (parts == null) {
+			parts = new FileStatus[0]; // no folder, as no results
+		}
+		Arrays.sort(parts, new Comparator<FileStatus>() {
+			@Override
+			public int compare(FileStatus first, FileStatus second) {
+				// by path, so by partition
+				return first.getPath().compareTo(second.getPath());
+			}
+		});
 
-			// Delete all the unnecessary generated files
-			if (filename.startsWith(".") || filename.startsWith("_")) {
-				file.delete();
-			} else {
-				// Rename the result file
-				file.renameTo(new File(outFile));
+		OutputStream out = new FileOutputStream(outFile);
+		try {
+			out.write(header.getBytes(ENCODING));
+			for (FileStatus part : parts) {
+				FSDataInputStream in = fs.open(part.getPath());
+				try {
+					IOUtils.copyBytes(in, out, userConf, false);
+				} finally {
+					in.close();
+				}
 			}
+		} finally {
+			out.close();
+		}
+
+		if (!getCheckpoints().isCheckpointing()) {
+			fs.delete(output, true);
 		}
-		
-		// Delete the directory
-		outputFolder.delete();
 	}
 
 	/**
@@ -77,10 +803,33 @@ public class Driver {
 	 * 
 	 * @throws IOException
 	 */
-	private static void removeTempFiles() throws IOException {
-		FileUtils.deleteDirectory(new File(TIME_PATH));
-		FileUtils.deleteDirectory(new File(ACCELR_PATH));
-		FileUtils.deleteDirectory(new File(DIST_PATH));
+	static void removeTempFiles() throws IOException {
+		String[] stages = { TIME_PATH, ACCELR_PATH, DIST_PATH, REFERENCE_PATH,
+				REFERENCE_PATH + SAMPLES_ENDING, ROUTES_PATH,
+				ROUTES_PATH + FINGERPRINTS_ENDING, SIMPLIFIED_PATH,
+				CHUNKED_PATH, HISTOGRAMS_PATH,
+				HISTOGRAMS_PATH + SCORES_ENDING, TOP_PATH,
+				TOP_PATH + SCORES_ENDING, TOP_PATH + PARTITIONS_ENDING,
+				MANIFEST_PATH };
+		for (String stage : stages) {
+			deleteStage(stage);
+		}
+		for (CheckType check : CheckType.values()) {
+			deleteStage(check + SKETCH_ENDING);
+		}
+		inputManifest = null; // its file is gone
+	}
+
+	/**
+	 * Delete a stage's output.
+	 * 
+	 * @param stage
+	 *            the stage's folder name
+	 * @throws IOException
+	 */
+	private static void deleteStage(String stage) throws IOException {
+		Path output = getStagePath(stage);
+		output.getFileSystem(userConf).delete(output, true);
 	}
 
 	/**
@@ -90,71 +839,879 @@ public class Driver {
 	 *            input path
 	 * @param mapper
 	 *            mapper class
+	 * @param simplifiedMapper
+	 *            mapper class of simplified trips, or null if the check
+	 *            always reads the original trips
+	 * @param check
+	 *            the check to perform
 	 * @param outPath
 	 *            path to save the operation results
+	 * @return the completed job
 	 * 
 	 * @throws IOException
 	 * @throws InterruptedException
 	 * @throws ClassNotFoundException
 	 */
-	private static void analyzeBehavior(String inPath,
-			Class<? extends Mapper<?, ?, ?, ?>> mapper, String outPath)
-			throws IOException, InterruptedException, ClassNotFoundException {
+	private static Job analyzeBehavior(
+			String inPath,
+			Class<? extends Mapper<TripIdWritable, BytesWritable, DriverValueWritable, TripDataWritable>> mapper,
+			Class<? extends Mapper<TripIdWritable, SimplifiedTripWritable, DriverValueWritable, TripDataWritable>> simplifiedMapper,
+			CheckType check, Path outPath) throws IOException,
+			InterruptedException, ClassNotFoundException {
 		// Configure new job
-		Configuration conf = new Configuration();
+		Configuration conf = new Configuration(userConf);
 		Job analyzerJob = new Job(conf, "Analyze driver's bhavior");
 		analyzerJob.setJarByClass(Driver.class);
 
 		// Mapper settings:
-		analyzerJob.setMapperClass(mapper);
-		analyzerJob.setInputFormatClass(WholeFileInputFormat.class);
-		analyzerJob.setMapOutputKeyClass(Text.class);
+		if (isChunkedInput(inPath, check)) {
+			setChunkedInput(analyzerJob, inPath, check);
+		} else {
+			if (setCheckInput(analyzerJob, inPath, check)) {
+				setMapper(analyzerJob, simplifiedMapper);
+			} else {
+				setMapper(analyzerJob, mapper);
+				setCheckReading(analyzerJob, check);
+			}
+		}
+		analyzerJob.setMapOutputKeyClass(DriverValueWritable.class);
 		analyzerJob.setMapOutputValueClass(TripDataWritable.class);
-		WholeFileInputFormat.addInputPath(analyzerJob, new Path(inPath));
+		setSecondarySort(analyzerJob);
+
+		// Fingerprint the routes from the acceleration check's parse, if it
+		// parses whole trips on a single thread
+		boolean isRoutes = check == CheckType.acceleration && isRoutesOn()
+				&& !isChunkedInput(inPath, check)
+				&& conf.getInt(MAP_THREADS, 1) <= 1;
+		if (isRoutes) {
+			analyzerJob.getConfiguration().setBoolean(AccelrMap.ROUTES_ASKED,
+					true);
+			MultipleOutputs.addNamedOutput(analyzerJob,
+					AccelrMap.ROUTES_OUTPUT, SequenceFileOutputFormat.class,
+					Text.class, RouteFingerprintWritable.class);
+		}
 
 		// Reducer settings:
 		analyzerJob.setReducerClass(SuspicionsReduce.class);
-		analyzerJob.setOutputKeyClass(Text.class);
-		analyzerJob.setOutputValueClass(TripDataArrayWritable.class);
-		FileOutputFormat.setOutputPath(analyzerJob, new Path(outPath));
+		setReduceCores(analyzerJob);
+		setSuspicionsOutput(analyzerJob, outPath);
+
+		// Export the drivers' profiles for the check, if asked
+		String profilesDir = conf.get(PROFILES_DIR);
+		if (profilesDir != null) {
+			analyzerJob.getConfiguration().set(SuspicionsReduce.PROFILE_CHECK,
+					check.toString());
+			MultipleOutputs.addNamedOutput(analyzerJob,
+					SuspicionsReduce.PROFILE_OUTPUT, MapFileOutputFormat.class,
+					Text.class, CheckProfileWritable.class);
+		}
 
 		analyzerJob.waitForCompletion(true);
+
+		if (profilesDir != null) {
+			moveProfiles(conf, check, outPath, profilesDir);
+		}
+		if (isRoutes && analyzerJob.isSuccessful()) {
+			moveRouteFingerprints(conf, outPath);
+		}
+		return analyzerJob;
+	}
+
+	/**
+	 * Performs a behavior check by sketches. The first job sketches every
+	 * driver's values, merging the sketches map-side, and keeps the trips'
+	 * values aside. The second job labels the kept values by the drivers'
+	 * bounds, and writes the check's results like the clustering job does.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @param check
+	 *            the check to perform
+	 * @param outPath
+	 *            path to save the check's results
+	 * @return the completed labeling job
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	private static Job sketchBehavior(String inPath, CheckType check,
+			Path outPath) throws IOException, InterruptedException,
+			ClassNotFoundException {
+		Path sketchPath = getStagePath(check + SKETCH_ENDING);
+
+		// Configure the sketching job
+		Configuration conf = new Configuration(userConf);
+		conf.set(SketchMap.CHECK, check.toString());
+		Job sketchJob = new Job(conf, "Sketch driver's behavior");
+		sketchJob.setJarByClass(Driver.class);
+
+		// Mapper settings:
+		sketchJob.setMapperClass(SketchMap.class);
+		sketchJob.setMapOutputKeyClass(Text.class);
+		sketchJob.setMapOutputValueClass(DriverSketchWritable.class);
+		setCheckInput(sketchJob, inPath, check);
+		setCheckReading(sketchJob, check);
+		MultipleOutputs.addNamedOutput(sketchJob, SketchMap.FEATURES_OUTPUT,
+				SequenceFileOutputFormat.class, TripIdWritable.class,
+				DoubleWritable.class);
+
+		// Reducer settings:
+		sketchJob.setCombinerClass(SketchCombiner.class);
+		sketchJob.setReducerClass(SketchReduce.class);
+		sketchJob.setOutputKeyClass(Text.class);
+		sketchJob.setOutputValueClass(Text.class);
+		FileOutputFormat.setOutputPath(sketchJob, sketchPath);
+
+		if (!sketchJob.waitForCompletion(true)) {
+			return sketchJob;
+		}
+
+		// Configure the labeling job
+		conf = new Configuration(userConf);
+		conf.set(SketchLabelMap.BOUNDS_DIR, sketchPath.toString());
+		Job labelJob = new Job(conf, "Label driver's behavior");
+		labelJob.setJarByClass(Driver.class);
+
+		// Mapper settings - the kept values' files are small, read together:
+		labelJob.setMapperClass(SketchLabelMap.class);
+		labelJob.setInputFormatClass(CombineSequenceFileInputFormat.class);
+		CombineSequenceFileInputFormat.addInputPath(labelJob, new Path(
+				sketchPath, SketchMap.FEATURES_OUTPUT + "-*"));
+		CombineSequenceFileInputFormat.setMaxInputSplitSize(labelJob,
+				LABEL_SPLIT_SIZE);
+		labelJob.setMapOutputKeyClass(Text.class);
+		labelJob.setMapOutputValueClass(SuspicionsWritable.class);
+
+		// Reducer settings:
+		labelJob.setCombinerClass(SketchLabelReduce.class);
+		labelJob.setReducerClass(SketchLabelReduce.class);
+		setSuspicionsOutput(labelJob, outPath);
+
+		labelJob.waitForCompletion(true);
+
+		// Sketches have no profiles; don't leave a previous run's behind
+		String profilesDir = conf.get(PROFILES_DIR);
+		if (profilesDir != null) {
+			Path checkProfiles = new Path(profilesDir, check.toString());
+			checkProfiles.getFileSystem(conf).delete(checkProfiles, true);
+		}
+		return labelJob;
+	}
+
+	/**
+	 * Judges the trips against other drivers' trips. The first job samples
+	 * every driver's trips' vectors, merging the samples map-side, and keeps
+	 * the vectors aside. The second job gets the samples through the
+	 * distributed cache, and judges each driver's kept vectors against a
+	 * fixed-size reference set of them, writing the results like the checks'
+	 * jobs do.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @return the completed judging job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job compareWithOthers(String inPath) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(REFERENCE_PATH);
+		Path samplesPath = getStagePath(REFERENCE_PATH + SAMPLES_ENDING);
+		String fingerprint = run.getFingerprint(REFERENCE_PATH,
+				getInputFingerprint(inPath));
+		if (run.isDone(REFERENCE_PATH, output, fingerprint)) {
+			return null;
+		}
+		run.prepare(output, samplesPath);
+
+		// Configure the sampling job
+		Configuration conf = new Configuration(userConf);
+		Job sampleJob = new Job(conf, "Sample drivers' trips");
+		sampleJob.setJarByClass(Driver.class);
+
+		// Mapper settings:
+		sampleJob.setMapperClass(ReferenceSampleMap.class);
+		sampleJob.setMapOutputKeyClass(Text.class);
+		sampleJob.setMapOutputValueClass(ReservoirWritable.class);
+		setTripsInput(sampleJob, inPath);
+		MultipleOutputs.addNamedOutput(sampleJob,
+				ReferenceSampleMap.VECTORS_OUTPUT,
+				SequenceFileOutputFormat.class, Text.class,
+				TripVectorWritable.class);
+
+		// Reducer settings:
+		sampleJob.setCombinerClass(ReferenceSampleReduce.class);
+		sampleJob.setReducerClass(ReferenceSampleReduce.class);
+		sampleJob.setOutputKeyClass(Text.class);
+		sampleJob.setOutputValueClass(ReservoirWritable.class);
+		sampleJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileOutputFormat.setOutputPath(sampleJob, samplesPath);
+
+		if (!sampleJob.waitForCompletion(true)) {
+			return sampleJob;
+		}
+
+		// Configure the judging job
+		conf = new Configuration(userConf);
+		Job judgeJob = new Job(conf, "Judge drivers' trips by others'");
+		judgeJob.setJarByClass(Driver.class);
+
+		// Mapper settings - the kept vectors go as is to their drivers:
+		judgeJob.setInputFormatClass(CombineSequenceFileInputFormat.class);
+		CombineSequenceFileInputFormat.addInputPath(judgeJob, new Path(
+				samplesPath, ReferenceSampleMap.VECTORS_OUTPUT + "-*"));
+		CombineSequenceFileInputFormat.setMaxInputSplitSize(judgeJob,
+				LABEL_SPLIT_SIZE);
+		judgeJob.setMapOutputKeyClass(Text.class);
+		judgeJob.setMapOutputValueClass(TripVectorWritable.class);
+
+		// Broadcast the drivers' samples to the reducers
+		FileSystem fs = samplesPath.getFileSystem(conf);
+		for (FileStatus part : fs.globStatus(new Path(samplesPath,
+				PARTS_GLOB))) {
+			judgeJob.addCacheFile(part.getPath().toUri());
+		}
+
+		// Reducer settings:
+		judgeJob.setReducerClass(ReferenceScoreReduce.class);
+		setSuspicionsOutput(judgeJob, output);
+
+		if (judgeJob.waitForCompletion(true)) {
+			run.commit(output, fingerprint);
+		}
+		return judgeJob;
+	}
+
+	/**
+	 * Judges the trips by their drivers' histograms of speeds and
+	 * accelerations. The first job counts every trip's seconds in fixed
+	 * bins, sends the trips' histograms along with their merged drivers'
+	 * ones, sorted before the trips by driver, and scores every trip by its
+	 * divergence from its driver's other trips. The second job clusters the
+	 * scores like the checks' jobs do.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @return the completed scoring job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job compareHistograms(String inPath) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(HISTOGRAMS_PATH);
+		Path scoresPath = getStagePath(HISTOGRAMS_PATH + SCORES_ENDING);
+		String fingerprint = run.getFingerprint(HISTOGRAMS_PATH,
+				getInputFingerprint(inPath));
+		if (run.isDone(HISTOGRAMS_PATH, output, fingerprint)) {
+			return null;
+		}
+		run.prepare(output, scoresPath);
+
+		// Configure the counting job
+		Configuration conf = new Configuration(userConf);
+		Job countJob = new Job(conf, "Count drivers' speeds");
+		countJob.setJarByClass(Driver.class);
+
+		// Mapper settings - every second's speed is needed:
+		countJob.setMapperClass(HistogramMap.class);
+		countJob.setMapOutputKeyClass(TripIdWritable.class);
+		countJob.setMapOutputValueClass(HistogramWritable.class);
+		setTripsInput(countJob, inPath);
+
+		// Reducer settings - a driver's trips go to one reducer:
+		countJob.setCombinerClass(HistogramReduce.class);
+		countJob.setPartitionerClass(TripDriverPartitioner.class);
+		countJob.setReducerClass(HistogramScoreReduce.class);
+		countJob.setOutputKeyClass(DriverValueWritable.class);
+		countJob.setOutputValueClass(TripDataWritable.class);
+		countJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileOutputFormat.setOutputPath(countJob, scoresPath);
+
+		if (!countJob.waitForCompletion(true)) {
+			return countJob;
+		}
+
+		// Configure the clustering job
+		conf = new Configuration(userConf);
+		Job scoreJob = new Job(conf, "Score drivers' trips by histograms");
+		scoreJob.setJarByClass(Driver.class);
+
+		// Mapper settings - the scores go as is, and their files are small:
+		scoreJob.setMapperClass(Mapper.class);
+		scoreJob.setInputFormatClass(CombineSequenceFileInputFormat.class);
+		CombineSequenceFileInputFormat.addInputPath(scoreJob, new Path(
+				scoresPath, PARTS_GLOB));
+		CombineSequenceFileInputFormat.setMaxInputSplitSize(scoreJob,
+				LABEL_SPLIT_SIZE);
+		scoreJob.setMapOutputKeyClass(DriverValueWritable.class);
+		scoreJob.setMapOutputValueClass(TripDataWritable.class);
+		setSecondarySort(scoreJob);
+
+		// Reducer settings:
+		scoreJob.setReducerClass(SuspicionsReduce.class);
+		setReduceCores(scoreJob);
+		setSuspicionsOutput(scoreJob, output);
+
+		if (scoreJob.waitForCompletion(true)) {
+			run.commit(output, fingerprint);
+		}
+		return scoreJob;
+	}
+
+	/**
+	 * Ranks the most suspicious trips of all the drivers. The first job
+	 * scores every trip by its distance from its driver's dominant
+	 * categories, and every reducer keeps only its most suspicious trips.
+	 * The second job merges them in a single reducer, to the output's
+	 * -top.csv file. With trips.top.ranking, all the trips are also ranked.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @param outFile
+	 *            the verdicts' output file, next to which the ranking is
+	 *            written
+	 * @return the completed (last) job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job pickTopTrips(String inPath, String outFile) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(TOP_PATH);
+		Path scoresPath = getStagePath(TOP_PATH + SCORES_ENDING);
+		String fingerprint = run.getFingerprint(TOP_PATH,
+				getInputFingerprint(inPath));
+		boolean isRanking = userConf.getBoolean(TripScoreReduce.RANKING,
+				false);
+		if (run.isDone(TOP_PATH, output, fingerprint)) {
+			outputToFile(output, TOP_HEADER, outFile + TOP_ENDING);
+			if (isRanking) {
+				return rankTrips(scoresPath, outFile + RANKING_ENDING);
+			}
+			return null;
+		}
+		run.prepare(output, scoresPath);
+
+		// Configure the scoring job
+		Configuration conf = new Configuration(userConf);
+		Job scoreJob = new Job(conf, "Score drivers' trips");
+		scoreJob.setJarByClass(Driver.class);
+
+		// Mapper settings:
+		scoreJob.setMapperClass(TripScoreMap.class);
+		scoreJob.setMapOutputKeyClass(Text.class);
+		scoreJob.setMapOutputValueClass(TripVectorWritable.class);
+		setTripsInput(scoreJob, inPath);
+
+		// Reducer settings - each keeps its most suspicious trips:
+		scoreJob.setReducerClass(TripScoreReduce.class);
+		scoreJob.setOutputKeyClass(SuspiciousTripWritable.class);
+		scoreJob.setOutputValueClass(NullWritable.class);
+		scoreJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+		if (isRanking) {
+			MultipleOutputs.addNamedOutput(scoreJob,
+					TripScoreReduce.ALL_OUTPUT, SequenceFileOutputFormat.class,
+					SuspiciousTripWritable.class, NullWritable.class);
+		}
+		FileOutputFormat.setOutputPath(scoreJob, scoresPath);
+
+		if (!scoreJob.waitForCompletion(true)) {
+			return scoreJob;
+		}
+
+		// Configure the merging job
+		conf = new Configuration(userConf);
+		Job topJob = new Job(conf, "Pick the most suspicious trips");
+		topJob.setJarByClass(Driver.class);
+
+		// Mapper settings - the kept trips go as is, sorted, to one reducer:
+		topJob.setInputFormatClass(SequenceFileInputFormat.class);
+		FileInputFormat.addInputPath(topJob,
+				new Path(scoresPath, PARTS_GLOB));
+		topJob.setMapOutputKeyClass(SuspiciousTripWritable.class);
+		topJob.setMapOutputValueClass(NullWritable.class);
+
+		// Reducer settings:
+		topJob.setReducerClass(TopTripsReduce.class);
+		topJob.setNumReduceTasks(1);
+		topJob.setOutputKeyClass(SuspiciousTripWritable.class);
+		topJob.setOutputValueClass(NullWritable.class);
+		FileOutputFormat.setOutputPath(topJob, output);
+
+		if (!topJob.waitForCompletion(true)) {
+			return topJob;
+		}
+		run.commit(output, fingerprint);
+		outputToFile(output, TOP_HEADER, outFile + TOP_ENDING);
+
+		if (isRanking) {
+			return rankTrips(scoresPath, outFile + RANKING_ENDING);
+		}
+		return topJob;
+	}
+
+	/**
+	 * Performs the job which ranks all the scored trips. The reducers get
+	 * ranges of the scores, by a sample of them, so the ranking is spread
+	 * over the reducers (trips.partitions) and their outputs are in order.
+	 * 
+	 * @param scoresPath
+	 *            the scoring job's output
+	 * @param outFolder
+	 *            the ranking's output folder
+	 * @return the completed job
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	private static Job rankTrips(Path scoresPath, String outFolder)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		Path output = new Path(outFolder);
+		output.getFileSystem(userConf).delete(output, true);
+
+		// Configure new job
+		Configuration conf = new Configuration(userConf);
+		Job rankJob = new Job(conf, "Rank drivers' trips");
+		rankJob.setJarByClass(Driver.class);
+
+		// Mapper settings - the scored trips go as is:
+		rankJob.setInputFormatClass(SequenceFileInputFormat.class);
+		FileInputFormat.addInputPath(rankJob, new Path(scoresPath,
+				TripScoreReduce.ALL_OUTPUT + "-*"));
+		rankJob.setMapOutputKeyClass(SuspiciousTripWritable.class);
+		rankJob.setMapOutputValueClass(NullWritable.class);
+
+		// Partition by sampled score ranges:
+		rankJob.setNumReduceTasks(conf.getInt(PARTITIONS, 1));
+		rankJob.setPartitionerClass(TotalOrderPartitioner.class);
+		Path partitionFile = getStagePath(TOP_PATH + PARTITIONS_ENDING);
+		TotalOrderPartitioner.setPartitionFile(rankJob.getConfiguration(),
+				partitionFile);
+		InputSampler.writePartitionFile(rankJob,
+				new InputSampler.RandomSampler<SuspiciousTripWritable, NullWritable>(
+						RANKING_SAMPLE_FREQ, RANKING_SAMPLES,
+						RANKING_SAMPLED_SPLITS));
+
+		// Reducer settings:
+		rankJob.setOutputKeyClass(SuspiciousTripWritable.class);
+		rankJob.setOutputValueClass(NullWritable.class);
+		FileOutputFormat.setOutputPath(rankJob, output);
+
+		rankJob.waitForCompletion(true);
+		return rankJob;
+	}
+
+	/**
+	 * Finds every driver's trips along repeated routes, by the trips' route
+	 * fingerprints, and writes them like the checks' jobs do. The
+	 * fingerprints are read from the acceleration check's parse of the trips.
+	 * If that check didn't parse whole trips on a single thread (it sketched
+	 * them, read them in chunks or ran on several map threads), this job
+	 * reads and parses every trip again to fingerprint it.
+	 * 
+	 * @param inPath
+	 *            input path
+	 * @return the completed job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job findRepeatedRoutes(String inPath) throws IOException,
+			InterruptedException, ClassNotFoundException {
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(ROUTES_PATH);
+		String fingerprint = run.getFingerprint(ROUTES_PATH,
+				getInputFingerprint(inPath));
+		if (run.isDone(ROUTES_PATH, output, fingerprint)) {
+			return null;
+		}
+		run.prepare(output);
+
+		// Configure new job
+		Configuration conf = new Configuration(userConf);
+		Job routesJob = new Job(conf, "Find driver's repeated routes");
+		routesJob.setJarByClass(Driver.class);
+
+		// Mapper settings - the kept fingerprints' files are small:
+		Path fingerprints = getStagePath(ROUTES_PATH + FINGERPRINTS_ENDING);
+		if (fingerprints.getFileSystem(conf).exists(fingerprints)) {
+			routesJob.setMapperClass(Mapper.class);
+			routesJob.setInputFormatClass(CombineSequenceFileInputFormat.class);
+			CombineSequenceFileInputFormat.addInputPath(routesJob, new Path(
+					fingerprints, AccelrMap.ROUTES_OUTPUT + "-*"));
+			CombineSequenceFileInputFormat.setMaxInputSplitSize(routesJob,
+					LABEL_SPLIT_SIZE);
+		} else if (setGeometryInput(routesJob, inPath)) {
+			routesJob.setMapperClass(RouteMap.Simplified.class);
+		} else {
+			routesJob.setMapperClass(RouteMap.class);
+		}
+		routesJob.setMapOutputKeyClass(Text.class);
+		routesJob.setMapOutputValueClass(RouteFingerprintWritable.class);
+
+		// Reducer settings:
+		routesJob.setReducerClass(RouteReduce.class);
+		setSuspicionsOutput(routesJob, output);
+
+		if (routesJob.waitForCompletion(true)) {
+			run.commit(output, fingerprint);
+		}
+		return routesJob;
+	}
+
+	/**
+	 * Moves the check's profiles from the check's output to the profiles'
+	 * folder, replacing the previous ones.
+	 * 
+	 * @param conf
+	 *            the configuration
+	 * @param check
+	 *            the check
+	 * @param checkPath
+	 *            the check's output path
+	 * @param profilesDir
+	 *            the profiles' folder
+	 * @throws IOException
+	 */
+	private static void moveProfiles(Configuration conf, CheckType check,
+			Path checkPath, String profilesDir) throws IOException {
+		Path checkProfiles = new Path(profilesDir, check.toString());
+		FileSystem fs = checkProfiles.getFileSystem(conf);
+		fs.delete(checkProfiles, true);
+		fs.mkdirs(checkProfiles);
+
+		// Move every reducer's profiles map file
+		FileStatus[] parts = fs.globStatus(new Path(checkPath,
+				SuspicionsReduce.PROFILE_OUTPUT + "-*"));
+		for (FileStatus part : parts) {
+			fs.rename(part.getPath(), new Path(checkProfiles, part.getPath()
+					.getName()));
+		}
+	}
+
+	/**
+	 * Moves the routes' fingerprints from the acceleration check's output,
+	 * where the join would read them as results, to their own folder.
+	 * 
+	 * @param conf
+	 *            the configuration
+	 * @param checkPath
+	 *            the acceleration check's output folder
+	 * @throws IOException
+	 */
+	private static void moveRouteFingerprints(Configuration conf,
+			Path checkPath) throws IOException {
+		Path fingerprints = getStagePath(ROUTES_PATH + FINGERPRINTS_ENDING);
+		FileSystem fs = fingerprints.getFileSystem(conf);
+		fs.mkdirs(fingerprints);
+
+		// Move every mapper's fingerprints file
+		FileStatus[] parts = fs.globStatus(new Path(checkPath,
+				AccelrMap.ROUTES_OUTPUT + "-*"));
+		for (FileStatus part : parts) {
+			Path target = new Path(fingerprints, part.getPath().getName());
+			if (!fs.rename(part.getPath(), target)) {
+				throw new IOException("Can't move " + part.getPath() + " to "
+						+ target);
+			}
+		}
+	}
+
+	/**
+	 * Sets a job's per-driver results as its output: binary, in the same
+	 * number of partitions by driver as every other results' job, each sorted
+	 * by driver. The verdicts' job joins them map-side.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param outPath
+	 *            path to save the results
+	 */
+	private static void setSuspicionsOutput(Job job, Path outPath) {
+		job.setNumReduceTasks(userConf.getInt(PARTITIONS, 1));
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(SuspicionsWritable.class);
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		FileOutputFormat.setOutputPath(job, outPath);
+	}
+
+	/**
+	 * Sorts every driver's trips by value, and groups them to a single reduce
+	 * call.
+	 * 
+	 * @param job
+	 *            the job to set
+	 */
+	private static void setSecondarySort(Job job) {
+		job.setPartitionerClass(DriverValuePartitioner.class);
+		job.setSortComparatorClass(DriverValueWritable.Comparator.class);
+		job.setGroupingComparatorClass(DriverValueWritable.DriverComparator.class);
+	}
+
+	/**
+	 * Sets the behavior mapper. If more than one map thread is configured,
+	 * every map task runs a mapper per thread on the task's trips, using the
+	 * container's cores instead of more containers.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param mapper
+	 *            mapper class
+	 */
+	private static <V> void setMapper(
+			Job job,
+			Class<? extends Mapper<TripIdWritable, V, DriverValueWritable, TripDataWritable>> mapper) {
+		int mapThreads = job.getConfiguration().getInt(MAP_THREADS, 1);
+		if (mapThreads <= 1) {
+			job.setMapperClass(mapper);
+			return;
+		}
+
+		job.setMapperClass(MultithreadedMapper.class);
+		MultithreadedMapper.setMapperClass(job, mapper);
+		MultithreadedMapper.setNumberOfThreads(job, mapThreads);
+		job.getConfiguration().setInt(MRJobConfig.MAP_CPU_VCORES, mapThreads);
+	}
+
+	/**
+	 * Asks for a core per reduce thread, if the reducers are configured to
+	 * work on more than one thread.
+	 * 
+	 * @param job
+	 *            the job to set
+	 */
+	private static void setReduceCores(Job job) {
+		int reduceThreads = job.getConfiguration().getInt(REDUCE_THREADS, 1);
+		if (reduceThreads > 1) {
+			job.getConfiguration().setInt(MRJobConfig.REDUCE_CPU_VCORES,
+					reduceThreads);
+		}
 	}
 
 	/**
-	 * Performs the job which picks the false trips.
+	 * Performs the job which picks the false trips. In sparse mode the false
+	 * trips are saved as block compressed sequence files in the output folder.
+	 * In a run folder, the job is skipped if no stage before it has run and
+	 * its inputs' fingerprints are the same.
 	 * 
-	 * @param outFile the file to save output into
+	 * @param outFile the file (or sparse mode's folder) to save output into
+	 * @return the completed job, or null if the run has it done
 	 * 
 	 * @throws IOException
 	 * @throws InterruptedException
 	 * @throws ClassNotFoundException
 	 */
-	private static void pickFalseTrips(String outFile) throws IOException,
+	static Job pickFalseTrips(String outFile) throws IOException,
 			InterruptedException, ClassNotFoundException {
+		return pickFalseTrips(outFile, null);
+	}
+
+	/**
+	 * Performs the job which picks the false trips, of a single input or of
+	 * a batch of datasets. A batch's verdicts are written per dataset, to the
+	 * output folder's dataset.csv files (or in sparse mode to its dataset
+	 * folders).
+	 * 
+	 * @param outFile
+	 *            the file (or the batch's or sparse mode's folder) to save
+	 *            output into
+	 * @param datasets
+	 *            the batch's datasets' names, or null for a single input
+	 * @return the completed job, or null if the run has it done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	static Job pickFalseTrips(String outFile, String[] datasets)
+			throws IOException, InterruptedException, ClassNotFoundException {
+		boolean isSparse = userConf.getBoolean(FalseTripsMap.SPARSE_OUTPUT,
+				false);
+		RunCheckpoints run = getCheckpoints();
+		Path output = getStagePath(OUT_FOLDER);
+		if (isSparse) {
+			output = new Path(outFile);
+		}
+
+		// The verdicts depend on the outputs of all the stages they read
+		Path[] inputs = getVerdictsInputs();
+		String[] inputParts = new String[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			inputParts[i] = run.readFingerprint(inputs[i]);
+		}
+		String fingerprint = run.getFingerprint(VERDICTS_STAGE, inputParts);
+		String indexDir = userConf.get(FalseTripsMap.INDEX_DIR);
+		boolean isIndexMissing = indexDir != null
+				&& !new Path(indexDir).getFileSystem(userConf).exists(
+						new Path(indexDir));
+		if (!run.hasStageRun() && !isIndexMissing
+				&& run.isDone(VERDICTS_STAGE, output, fingerprint)) {
+			if (!isSparse) {
+				outputToFiles(outFile, datasets);
+			}
+			return null;
+		}
+		run.prepare(output);
+
 		// Configure new job
-		Configuration conf = new Configuration();
+		Configuration conf = new Configuration(userConf);
 		conf.set(SET_SEPARATOR, "");
 		Job sJob = new Job(conf, "Get false trips");
 		sJob.setJarByClass(Driver.class);
 
-		// Mapper settings:
+		// Mapper settings - join the results by driver, partition by partition:
 		sJob.setMapperClass(FalseTripsMap.class);
-		sJob.setInputFormatClass(TextInputFormat.class);
-		TextInputFormat.addInputPaths(sJob, ACCELR_PATH + "," + TIME_PATH + ","
-				+ DIST_PATH);
-		sJob.setMapOutputValueClass(TripDataArrayWritable.class);
+		sJob.setInputFormatClass(CompositeInputFormat.class);
+		sJob.getConfiguration().set(CompositeInputFormat.JOIN_EXPR,
+				CompositeInputFormat.compose(JOIN_OP,
+						SuspicionsInputFormat.class, inputs));
+		String[] sources = new String[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			sources[i] = inputs[i].getName();
+		}
+		sJob.getConfiguration().setStrings(FalseTripsMap.SOURCES, sources);
 
-		// Reducer settings:
-		sJob.setReducerClass(FalseTripsReduce.class);
+		// No reducers, the verdicts are written by the mappers:
+		sJob.setNumReduceTasks(0);
 		sJob.setOutputKeyClass(Text.class);
-		sJob.setOutputValueClass(NullWritable.class);
-		FileOutputFormat.setOutputPath(sJob, new Path(OUT_FOLDER));
+		if (isSparse) {
+			sJob.setOutputValueClass(SparseVerdictWritable.class);
+			sJob.setOutputFormatClass(SequenceFileOutputFormat.class);
+			FileOutputFormat.setCompressOutput(sJob, true);
+			SequenceFileOutputFormat.setOutputCompressionType(sJob,
+					CompressionType.BLOCK);
+		} else {
+			sJob.setOutputValueClass(NullWritable.class);
+			sJob.setOutputFormatClass(TextOutputFormat.class);
+		}
+		if (datasets != null) {
+			// Every dataset's verdicts go to its own folder
+			sJob.getConfiguration().setBoolean(TripIdWritable.DATASETS, true);
+			LazyOutputFormat.setOutputFormatClass(sJob,
+					sJob.getOutputFormatClass());
+		}
+		FileOutputFormat.setOutputPath(sJob, output);
 
-		sJob.waitForCompletion(true);
+		// Index the verdicts by driver, if asked
+		if (indexDir != null) {
+			MultipleOutputs.addNamedOutput(sJob, FalseTripsMap.INDEX_OUTPUT,
+					MapFileOutputFormat.class, Text.class,
+					DriverVerdictWritable.class);
+			MapFile.Writer.setIndexInterval(sJob.getConfiguration(),
+					VERDICTS_INDEX_INTERVAL);
+		}
 
-		removeTempFiles(); // Clear the program's doodles
+		if (sJob.waitForCompletion(true)) {
+			run.commit(output, fingerprint);
+			if (indexDir != null) {
+				moveVerdictIndex(conf, output, indexDir, sources);
+			}
+		}
 
-		outputToFile(outFile); // get the output to spec. file
+		// Clear the program's doodles, unless the run keeps them
+		if (!run.isCheckpointing()) {
+			removeTempFiles();
+		}
+
+		if (!isSparse) {
+			outputToFiles(outFile, datasets); // get the output to spec. file
+		}
+		return sJob;
+	}
+
+	/**
+	 * Moves the verdicts' index from the verdicts' output to the index's
+	 * folder, replacing the previous one, with the index's info.
+	 * 
+	 * @param conf
+	 *            the configuration
+	 * @param output
+	 *            the verdicts' output path
+	 * @param indexDir
+	 *            the index's folder
+	 * @param sources
+	 *            the names of the verdicts' sources, in their order
+	 * @throws IOException
+	 */
+	private static void moveVerdictIndex(Configuration conf, Path output,
+			String indexDir, String[] sources) throws IOException {
+		Path index = new Path(indexDir);
+		FileSystem fs = index.getFileSystem(conf);
+		fs.delete(index, true);
+		fs.mkdirs(index);
+
+		// Move every partition's map file, before the info tells it's whole
+		Path indexOutput = new Path(output, FalseTripsMap.INDEX_OUTPUT);
+		FileSystem outFs = output.getFileSystem(conf);
+		FileStatus[] parts = outFs.globStatus(new Path(indexOutput, "*"));
+		if (parts == null) {
+			parts = new FileStatus[0]; // no drivers
+		}
+		for (FileStatus part : parts) {
+			Path target = new Path(index, part.getPath().getName());
+			if (!outFs.rename(part.getPath(), target)) {
+				throw new IOException("Can't move " + part.getPath() + " to "
+						+ target);
+			}
+		}
+		outFs.delete(indexOutput, true);
+		VerdictIndex.writeInfo(conf, index, conf.getInt(PARTITIONS, 1),
+				sources);
+	}
+
+	/**
+	 * Gets the verdicts to the output file, or a batch's verdicts to a file
+	 * per dataset in the output folder.
+	 * 
+	 * @param outFile
+	 *            the output file, or the batch's output folder
+	 * @param datasets
+	 *            the batch's datasets' names, or null for a single input
+	 * @throws IOException
+	 */
+	private static void outputToFiles(String outFile, String[] datasets)
+			throws IOException {
+		if (datasets == null) {
+			outputToFile(outFile);
+			return;
+		}
+
+		Path output = getStagePath(OUT_FOLDER);
+		File outFolder = new File(outFile);
+		if (!outFolder.isDirectory() && !outFolder.mkdirs()) {
+			throw new IOException("Can't create the output folder " + outFile);
+		}
+		for (String dataset : datasets) {
+			outputToFile(new Path(output, dataset), FalseTripsMap.HEADER,
+					new File(outFolder, dataset + CSV_ENDING).getPath());
+		}
+		if (!getCheckpoints().isCheckpointing()) {
+			output.getFileSystem(userConf).delete(output, true);
+		}
+	}
+
+	/**
+	 * Get the outputs of the stages which the verdicts read.
+	 * 
+	 * @return the stages' output paths
+	 */
+	private static Path[] getVerdictsInputs() {
+		List<Path> inputs = new ArrayList<Path>();
+		inputs.add(getStagePath(ACCELR_PATH));
+		inputs.add(getStagePath(TIME_PATH));
+		inputs.add(getStagePath(DIST_PATH));
+		if (isReferenceOn()) {
+			inputs.add(getStagePath(REFERENCE_PATH));
+		}
+		if (isRoutesOn()) {
+			inputs.add(getStagePath(ROUTES_PATH));
+		}
+		if (isHistogramsOn()) {
+			inputs.add(getStagePath(HISTOGRAMS_PATH));
+		}
+		return inputs.toArray(new Path[inputs.size()]);
 	}
 }
@@ -0,0 +1,17 @@
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Hadoop partitioner which sends all the trips of a driver to the same
+ * reducer.
+ *
+ * @param <V>
+ *            the map output value type
+ */
+public class DriverPartitioner<V> extends Partitioner<TripIdWritable, V> {
+
+	@Override
+	public int getPartition(TripIdWritable tripId, V value, int numPartitions) {
+		return (tripId.getDriverID().hashCode() & Integer.MAX_VALUE)
+				% numPartitions;
+	}
+}
@@ -0,0 +1,126 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+
+/**
+ * The drivers' profiles exported by Driver. Looks a driver's profiles up in
+ * the checks' map files when first asked, and keeps the recently used drivers
+ * in a bounded cache. Safe for use by several threads.
+ */
+public class DriverProfiles implements Closeable {
+	private static final float LOAD_FACTOR = 0.75f;
+	private final Configuration conf;
+	private final Path profilesDir;
+	private final Map<CheckType, MapFile.Reader[]> readers = new EnumMap<CheckType, MapFile.Reader[]>(
+			CheckType.class);
+	private final HashPartitioner<Text, CheckProfileWritable> partitioner = new HashPartitioner<Text, CheckProfileWritable>();
+	private final Map<String, Map<CheckType, CheckProfileWritable>> cache;
+
+	/**
+	 * Open the profiles.
+	 * 
+	 * @param conf
+	 *            the configuration
+	 * @param profilesDir
+	 *            the profiles' folder, as given to Driver
+	 * @param cacheSize
+	 *            the maximal number of cached drivers
+	 */
+	public DriverProfiles(Configuration conf, Path profilesDir,
+			final int cacheSize) {
+		this.conf = conf;
+		this.profilesDir = profilesDir;
+
+		// Access ordered, so the eldest entry is the least recently used
+		cache = new LinkedHashMap<String, Map<CheckType, CheckProfileWritable>>(
+				cacheSize, LOAD_FACTOR, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, Map<CheckType, CheckProfileWritable>> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Get a driver's profiles.
+	 * 
+	 * @param driverId
+	 *            the driver id
+	 * @return map of checks and the driver's profile for them, or null if
+	 *         there's no such driver
+	 * @throws IOException
+	 */
+	public synchronized Map<CheckType, CheckProfileWritable> get(String driverId)
+			throws IOException {
+		Map<CheckType, CheckProfileWritable> profiles = cache.get(driverId);
+		if (profiles != null) {
+			return profiles;
+		}
+
+		// Look the driver up in every check's profiles
+		Text key = new Text(driverId);
+		profiles = new EnumMap<CheckType, CheckProfileWritable>(CheckType.class);
+		for (CheckType check : CheckType.values()) {
+			MapFile.Reader[] checkReaders = getReaders(check);
+			if (checkReaders.length == 0) {
+				continue; // the check wasn't clustered
+			}
+			CheckProfileWritable profile = new CheckProfileWritable();
+			if (MapFileOutputFormat.getEntry(checkReaders, partitioner, key,
+					profile) != null) {
+				profiles.put(check, profile);
+			}
+		}
+		if (profiles.isEmpty()) {
+			return null; // unknown driver
+		}
+
+		cache.put(driverId, profiles);
+		return profiles;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (MapFile.Reader[] checkReaders : readers.values()) {
+			for (MapFile.Reader reader : checkReaders) {
+				reader.close();
+			}
+		}
+		readers.clear();
+		cache.clear();
+	}
+
+	/**
+	 * Get the readers of a check's profiles, opening them if needed.
+	 * 
+	 * @param check
+	 *            the check
+	 * @return a reader per reducer of the check's job, none if the check has
+	 *         no profiles
+	 * @throws IOException
+	 */
+	private MapFile.Reader[] getReaders(CheckType check) throws IOException {
+		MapFile.Reader[] checkReaders = readers.get(check);
+		if (checkReaders == null) {
+			Path checkDir = new Path(profilesDir, check.toString());
+			checkReaders = new MapFile.Reader[0];
+			if (checkDir.getFileSystem(conf).exists(checkDir)) {
+				checkReaders = MapFileOutputFormat.getReaders(checkDir, conf);
+			}
+			readers.put(check, checkReaders);
+		}
+		return checkReaders;
+	}
+}
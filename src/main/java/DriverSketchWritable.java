@@ -0,0 +1,83 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable summary of a driver's trips for a behavior check: a
+ * quantile sketch of the trips' values and the driver's last trip ID.
+ */
+public class DriverSketchWritable implements Writable {
+	private int lastTripID = 0;
+	private QuantileSketchWritable sketch = new QuantileSketchWritable();
+
+	public DriverSketchWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int getLastTripID() {
+		return lastTripID;
+	}
+
+	public QuantileSketchWritable getSketch() {
+		return sketch;
+	}
+
+	/**
+	 * Set the summary to a single trip.
+	 * 
+	 * @param tripID
+	 *            the trip id
+	 * @param value
+	 *            the trip's value
+	 * @param k
+	 *            the sketch's accuracy
+	 */
+	public void set(int tripID, double value, int k) {
+		lastTripID = tripID;
+		sketch.clear(k);
+		sketch.add(value);
+	}
+
+	/**
+	 * Empty the summary.
+	 * 
+	 * @param k
+	 *            the sketch's accuracy
+	 */
+	public void clear(int k) {
+		lastTripID = 0;
+		sketch.clear(k);
+	}
+
+	/**
+	 * Add the trips of another summary to this one.
+	 * 
+	 * @param other
+	 *            the summary to merge
+	 */
+	public void merge(DriverSketchWritable other) {
+		lastTripID = Math.max(lastTripID, other.lastTripID);
+		sketch.merge(other.sketch);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		lastTripID = WritableUtils.readVInt(in);
+		sketch.readFields(in);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, lastTripID);
+		sketch.write(out);
+	}
+
+	@Override
+	public String toString() {
+		return lastTripID + ":" + sketch;
+	}
+}
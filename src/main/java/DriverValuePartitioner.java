@@ -0,0 +1,18 @@
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Hadoop partitioner which sends all the values of a driver to the same
+ * reducer, whatever the values are.
+ *
+ * @param <V>
+ *            the map output value type
+ */
+public class DriverValuePartitioner<V> extends
+		Partitioner<DriverValueWritable, V> {
+
+	@Override
+	public int getPartition(DriverValueWritable key, V value, int numPartitions) {
+		return (key.getDriverID().hashCode() & Integer.MAX_VALUE)
+				% numPartitions;
+	}
+}
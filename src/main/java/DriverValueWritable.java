@@ -0,0 +1,181 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable key of a trip's value for a behavior check: the driver
+ * and the value. Sorts by driver, then by value, so with the DriverComparator
+ * grouping a reducer gets each driver's trips in ascending value order.
+ */
+public class DriverValueWritable implements
+		WritableComparable<DriverValueWritable> {
+	private Text driverID = new Text();
+	private double value = 0;
+
+	static {
+		WritableComparator.define(DriverValueWritable.class, new Comparator());
+	}
+
+	public DriverValueWritable() {
+		super();
+	}
+
+	// Java getters:
+	public Text getDriverID() {
+		return driverID;
+	}
+
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * Set the key using java's variables.
+	 * 
+	 * @param driverID
+	 *            the driver id to set
+	 * @param value
+	 *            the trip's value to set
+	 */
+	public void set(Text driverID, double value) {
+		this.driverID.set(driverID);
+		this.value = value;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		driverID.readFields(in);
+		value = in.readDouble();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		driverID.write(out);
+		out.writeDouble(value);
+	}
+
+	@Override
+	public int compareTo(DriverValueWritable other) {
+		int cmp = driverID.compareTo(other.driverID);
+		if (cmp != 0) {
+			return cmp;
+		}
+		return Double.compare(value, other.value); // NaN is the largest
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof DriverValueWritable)) {
+			return false;
+		}
+		return compareTo((DriverValueWritable) other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return driverID.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return driverID.toString() + ":" + value;
+	}
+
+	/**
+	 * Compare the serialized driver ids at the start of two keys, by their
+	 * bytes like Text does.
+	 * 
+	 * @param b1
+	 *            the first key's bytes
+	 * @param s1
+	 *            the first key's start
+	 * @param b2
+	 *            the second key's bytes
+	 * @param s2
+	 *            the second key's start
+	 * @return the driver ids' comparison
+	 * @throws IOException
+	 */
+	private static int compareDrivers(byte[] b1, int s1, byte[] b2, int s2)
+			throws IOException {
+		int prefix1 = WritableUtils.decodeVIntSize(b1[s1]);
+		int prefix2 = WritableUtils.decodeVIntSize(b2[s2]);
+		return WritableComparator.compareBytes(b1, s1 + prefix1,
+				WritableComparator.readVInt(b1, s1), b2, s2 + prefix2,
+				WritableComparator.readVInt(b2, s2));
+	}
+
+	/**
+	 * Get the length of the serialized driver id at the start of a key.
+	 * 
+	 * @param bytes
+	 *            the serialized keys
+	 * @param start
+	 *            the key's start
+	 * @return the driver id's length, with its length prefix
+	 * @throws IOException
+	 */
+	private static int getDriverLength(byte[] bytes, int start)
+			throws IOException {
+		return WritableUtils.decodeVIntSize(bytes[start])
+				+ WritableComparator.readVInt(bytes, start);
+	}
+
+	/**
+	 * Compares serialized keys by driver, then by value, without
+	 * deserializing them.
+	 */
+	public static class Comparator extends WritableComparator {
+
+		public Comparator() {
+			super(DriverValueWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				int cmp = compareDrivers(b1, s1, b2, s2);
+				if (cmp != 0) {
+					return cmp;
+				}
+				return Double.compare(readDouble(b1, s1
+						+ getDriverLength(b1, s1)), readDouble(b2, s2
+						+ getDriverLength(b2, s2)));
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+
+	/**
+	 * Compares serialized keys by driver only, to group a driver's trips in a
+	 * single reduce call.
+	 */
+	public static class DriverComparator extends WritableComparator {
+
+		public DriverComparator() {
+			super(DriverValueWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			try {
+				return compareDrivers(b1, s1, b2, s2);
+			} catch (IOException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public int compare(WritableComparable a, WritableComparable b) {
+			return ((DriverValueWritable) a).driverID
+					.compareTo(((DriverValueWritable) b).driverID);
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable verdicts of a driver for the verdict index: the false
+ * trips, like SparseVerdictWritable, and the trips every source of results
+ * suspected, in the order of the index's sources. Every trip list is written
+ * as varints of its length and the gaps between its sorted trips.
+ */
+public class DriverVerdictWritable implements Writable {
+	private int lastTripID = 0;
+	private int[] falseTrips = new int[0];
+	private int[][] suspects = new int[0][];
+
+	public DriverVerdictWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int getLastTripID() {
+		return lastTripID;
+	}
+
+	public int[] getFalseTrips() {
+		return falseTrips;
+	}
+
+	public int getSourcesCount() {
+		return suspects.length;
+	}
+
+	/**
+	 * Set the verdicts using java's variables.
+	 *
+	 * @param lastTripID
+	 *            the driver's last trip id
+	 * @param falseTrips
+	 *            the driver's false trips
+	 * @param suspects
+	 *            every source's suspected trips, by the sources' order
+	 */
+	public void set(int lastTripID, Collection<Integer> falseTrips,
+			int[][] suspects) {
+		this.lastTripID = lastTripID;
+		this.falseTrips = new int[falseTrips.size()];
+		int i = 0;
+		for (Integer tripId : falseTrips) {
+			this.falseTrips[i] = tripId;
+			i++;
+		}
+		Arrays.sort(this.falseTrips);
+		this.suspects = new int[suspects.length][];
+		for (int source = 0; source < suspects.length; source++) {
+			this.suspects[source] = suspects[source].clone();
+			Arrays.sort(this.suspects[source]); // for short varints
+		}
+	}
+
+	/**
+	 * Set the verdicts to a copy of other verdicts.
+	 *
+	 * @param other
+	 *            the verdicts to copy
+	 */
+	public void set(DriverVerdictWritable other) {
+		lastTripID = other.lastTripID;
+		falseTrips = other.falseTrips.clone();
+		suspects = new int[other.suspects.length][];
+		for (int source = 0; source < suspects.length; source++) {
+			suspects[source] = other.suspects[source].clone();
+		}
+	}
+
+	/**
+	 * Check whether a trip is false.
+	 *
+	 * @param tripId
+	 *            the trip id
+	 * @return true if the trip is false
+	 */
+	public boolean isFalse(int tripId) {
+		return Arrays.binarySearch(falseTrips, tripId) >= 0;
+	}
+
+	/**
+	 * Check whether a source suspected a trip.
+	 *
+	 * @param source
+	 *            the source's index, in the index's sources
+	 * @param tripId
+	 *            the trip id
+	 * @return true if the source suspected the trip
+	 */
+	public boolean isSuspected(int source, int tripId) {
+		return Arrays.binarySearch(suspects[source], tripId) >= 0;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		lastTripID = WritableUtils.readVInt(in);
+		falseTrips = readTrips(in);
+		suspects = new int[WritableUtils.readVInt(in)][];
+		for (int source = 0; source < suspects.length; source++) {
+			suspects[source] = readTrips(in);
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, lastTripID);
+		writeTrips(out, falseTrips);
+		WritableUtils.writeVInt(out, suspects.length);
+		for (int[] sourceSuspects : suspects) {
+			writeTrips(out, sourceSuspects);
+		}
+	}
+
+	/**
+	 * Read a sorted trip list, written by writeTrips.
+	 *
+	 * @param in
+	 *            the input
+	 * @return the trips
+	 * @throws IOException
+	 */
+	private static int[] readTrips(DataInput in) throws IOException {
+		int[] trips = new int[WritableUtils.readVInt(in)];
+		int prevTrip = 0;
+		for (int i = 0; i < trips.length; i++) {
+			prevTrip += WritableUtils.readVInt(in);
+			trips[i] = prevTrip;
+		}
+		return trips;
+	}
+
+	/**
+	 * Write a sorted trip list: its length and the gaps between its trips.
+	 *
+	 * @param out
+	 *            the output
+	 * @param trips
+	 *            the sorted trips
+	 * @throws IOException
+	 */
+	private static void writeTrips(DataOutput out, int[] trips)
+			throws IOException {
+		WritableUtils.writeVInt(out, trips.length);
+		int prevTrip = 0;
+		for (int tripId : trips) {
+			WritableUtils.writeVInt(out, tripId - prevTrip);
+			prevTrip = tripId;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return lastTripID + ":" + Arrays.toString(falseTrips) + " "
+				+ Arrays.deepToString(suspects);
+	}
+}
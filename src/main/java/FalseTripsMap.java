@@ -1,93 +1,354 @@
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.join.TupleWritable;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
 
 /**
- * Hadoop mapper. Receives a driver's suspected trips and adds weight for the
- * check.
+ * Hadoop mapper. Receives a driver's results of every check, joined map-side
+ * from the checks' identically partitioned and sorted outputs, adds each
+ * check's weight to its suspected trips and says which trips are fake. In
+ * sparse mode writes only the driver's false trips, as a
+ * SparseVerdictWritable keyed by the driver id. In a batch of datasets the
+ * verdicts are written to their dataset's folder, with the drivers' own ids.
+ * With an index folder the verdicts and every source's suspected trips are
+ * also written to the INDEX_OUTPUT named output, a map file per partition
+ * (see VerdictIndex).
  */
-public class FalseTripsMap extends
-		Mapper<LongWritable, Text, Text, TripDataArrayWritable> {
-	private static final String ENTRY_DELIM = "\t";
+public class FalseTripsMap extends Mapper<Text, TupleWritable, Text, Writable> {
+	public static final String SPARSE_OUTPUT = "trips.output.sparse";
+	public static final String INDEX_DIR = "trips.output.index";
+	static final String INDEX_OUTPUT = "index";
+	static final String SOURCES = "trips.verdicts.sources";
+	static final String HEADER = "driver_trip,prob\n";
+	private static final char TRIPS_DELIM = '\n';
+	private static final String SOLUTION_DELIM = ",";
+	private static final String DRIVER_TRIP_DELIM = "_";
+	private static final String DATASET_PART = "/part";
+	private static final String FALSE_TRIP_SIGN = "0";
+	private static final String TRUE_TRIP_SIGN = "1";
+	static final int FALSE_MIN_WEIGHT = 3;
 	private static final int ACCLR_WEIGHT = 2;
 	private static final int TIME_WEIGHT = 1;
 	private static final int DIST_WEIGHT = 1;
+	private static final int REFERENCE_WEIGHT = 1;
+	private static final int ROUTES_WEIGHT = -1; // repeated routes are trusted
+	private static final int HISTOGRAMS_WEIGHT = 1;
+	private boolean isSparse = false;
+	private int[] sourceWeights;
+	private Text result = new Text();
+	private SparseVerdictWritable sparseResult = new SparseVerdictWritable();
+	private Text datasetDriverId = new Text();
+	private boolean isBatch = false;
+	private boolean isIndexed = false;
+	private int partitions;
+	private HashPartitioner<Text, Writable> partitioner = new HashPartitioner<Text, Writable>();
+	private DriverVerdictWritable indexedResult = new DriverVerdictWritable();
+	private MultipleOutputs<Text, Writable> namedOutputs = null;
 
 	@Override
-	protected void map(
-			LongWritable key,
-			Text line,
-			Mapper<LongWritable, Text, Text, TripDataArrayWritable>.Context context)
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		isSparse = context.getConfiguration().getBoolean(SPARSE_OUTPUT, false);
+
+		// The joined results are in the order of the sources' names
+		String[] sources = context.getConfiguration().getTrimmedStrings(
+				SOURCES);
+		sourceWeights = new int[sources.length];
+		for (int i = 0; i < sources.length; i++) {
+			sourceWeights[i] = getSourceWeight(sources[i]);
+		}
+
+		isBatch = context.getConfiguration().getBoolean(
+				TripIdWritable.DATASETS, false);
+		isIndexed = context.getConfiguration().get(INDEX_DIR) != null;
+		partitions = context.getConfiguration().getInt(Driver.PARTITIONS, 1);
+		if (isBatch || isIndexed) {
+			namedOutputs = new MultipleOutputs<Text, Writable>(context);
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		if (namedOutputs != null) {
+			namedOutputs.close();
+		}
+	}
+
+	@Override
+	protected void map(Text driverId, TupleWritable results, Context context)
 			throws IOException, InterruptedException {
-		// Get the current check's weight
-		Integer weight = getCheckWeight((FileSplit) context.getInputSplit());
+		// Get the driver's last trip
+		int lastTripID = 0;
+		for (int i = 0; i < results.size(); i++) {
+			if (results.has(i)) {
+				lastTripID = Math.max(lastTripID,
+						((SuspicionsWritable) results.get(i)).getLastTripID());
+			}
+		}
 
-		// Get the driver ID
-		String[] split = line.toString().split(ENTRY_DELIM);
-		String driverId = split[0];
+		List<Integer> falseTrips = getFalseTrips(parseSuspicionWeights(
+				results, lastTripID));
+		if (isIndexed) {
+			// The map files are named by partition, for the lookups
+			indexedResult.set(lastTripID, falseTrips, getSuspects(results));
+			namedOutputs.write(INDEX_OUTPUT, driverId, indexedResult,
+					INDEX_OUTPUT + "/" + VerdictIndex.getPartitionName(
+							partitioner.getPartition(driverId, null,
+									partitions)));
+		}
 
-		// Parse suspected trips to TripData
-		TripDataArrayWritable tripsData = parseTripDataArray(weight, split[1]);
+		// A batch's driver is written by its own id, in its dataset's folder
+		String dataset = null;
+		Text outDriverId = driverId;
+		if (isBatch) {
+			dataset = TripIdWritable.getDataset(driverId.toString());
+			datasetDriverId.set(TripIdWritable.getDatasetDriver(driverId
+					.toString()));
+			outDriverId = datasetDriverId;
+		}
 
-		// Write result
-		context.write(new Text(driverId), tripsData);
+		// Write the driver's verdicts
+		if (isSparse) {
+			// Write only the false trips, the rest are true
+			sparseResult.set(lastTripID, falseTrips);
+			write(outDriverId, sparseResult, dataset, context);
+		} else {
+			result.set(buildResultString(outDriverId.toString(), lastTripID,
+					falseTrips));
+			write(result, NullWritable.get(), dataset, context);
+		}
 	}
 
 	/**
-	 * Parses the string of suspected trips to an array of trips and weight of
-	 * check.
-	 * 
-	 * @param weight
-	 *            the weight of current check
-	 * @param unparsed
-	 *            the string of trips as read from file
-	 * @return writable array of suspected trips and weight
+	 * Write a verdict to the job's output, or to its dataset's folder.
+	 *
+	 * @param key
+	 *            the output key
+	 * @param value
+	 *            the output value
+	 * @param dataset
+	 *            the driver's dataset, or null if it's not in a batch
+	 * @param context
+	 *            the mapper's context
+	 * @throws IOException
+	 * @throws InterruptedException
 	 */
-	private TripDataArrayWritable parseTripDataArray(Integer weight,
-			String unparsed) {
-		List<TripDataWritable> tripsData = new LinkedList<TripDataWritable>();
+	private void write(Text key, Writable value, String dataset,
+			Context context) throws IOException, InterruptedException {
+		if (dataset == null) {
+			context.write(key, value);
+		} else {
+			namedOutputs.write(key, value, dataset + DATASET_PART);
+		}
+	}
 
-		// Parse trips from string
-		List<Integer> trips = IntegerArrayWritable.parseFromWritten(unparsed);
+	/**
+	 * Sums the checks' suspicions to every trip's total suspicion weight, in a
+	 * primitive array by trip id.
+	 *
+	 * @param results
+	 *            the driver's results of every source
+	 * @param lastTripID
+	 *            the driver's last trip id
+	 * @return the trips' suspicion weights, by trip id
+	 */
+	private int[] parseSuspicionWeights(TupleWritable results, int lastTripID) {
+		// The trips are 1..lastTripID, checked by the sources' jobs
+		int[] tripsSuspicionWeights = new int[lastTripID + 1];
 
-		// Add weight for every trip
-		TripDataWritable tripData = new TripDataWritable();
-		for (Integer trip : trips) {
-			tripData.set(trip, weight);
-			tripsData.add(tripData);
+		// For each check's suspected trip - add the check's weight
+		for (int i = 0; i < results.size(); i++) {
+			if (!results.has(i)) {
+				continue;
+			}
+			SuspicionsWritable suspicions = (SuspicionsWritable) results.get(i);
+			for (Writable suspect : suspicions.getSuspects().get()) {
+				int tripID = ((IntWritable) suspect).get();
+				if (tripID >= 0 && tripID <= lastTripID) {
+					tripsSuspicionWeights[tripID] += sourceWeights[i];
+				}
+			}
 		}
+		return tripsSuspicionWeights;
+	}
 
-		// Return an array of writable trips
-		return new TripDataArrayWritable(tripsData);
+	/**
+	 * Get every source's suspected trips.
+	 *
+	 * @param results
+	 *            the driver's results of every source
+	 * @return the suspected trips, by source, empty if the source has no
+	 *         results for the driver
+	 */
+	private static int[][] getSuspects(TupleWritable results) {
+		int[][] suspects = new int[results.size()][];
+		for (int i = 0; i < results.size(); i++) {
+			suspects[i] = new int[0];
+			if (results.has(i)) {
+				Writable[] sourceSuspects = ((SuspicionsWritable) results
+						.get(i)).getSuspects().get();
+				suspects[i] = new int[sourceSuspects.length];
+				for (int j = 0; j < sourceSuspects.length; j++) {
+					suspects[i][j] = ((IntWritable) sourceSuspects[j]).get();
+				}
+			}
+		}
+		return suspects;
 	}
 
 	/**
-	 * Get the weight of the current check from the filename containing the
-	 * check's name.
-	 * 
-	 * @param file
-	 *            the current file
-	 * @return the weight of the check
+	 * Get the weight of a source of results by its name: the check's name, or
+	 * the other drivers' comparison's, the repeated routes' or the
+	 * histograms' name.
+	 *
+	 * @param source
+	 *            the source's folder name
+	 * @return the weight of the source
 	 */
-	private Integer getCheckWeight(FileSplit file) {
-		Path folder = file.getPath().getParent();
-		CheckType checkType = CheckType.valueOf(folder.getName());
+	private static int getSourceWeight(String source) {
+		if (source.equals(Driver.REFERENCE_PATH)) {
+			return REFERENCE_WEIGHT;
+		}
+		if (source.equals(Driver.ROUTES_PATH)) {
+			return ROUTES_WEIGHT;
+		}
+		if (source.equals(Driver.HISTOGRAMS_PATH)) {
+			return HISTOGRAMS_WEIGHT;
+		}
+		return getCheckWeight(CheckType.valueOf(source));
+	}
 
+	/**
+	 * Get the weight of a check in the false trips voting.
+	 *
+	 * @param checkType
+	 *            the check
+	 * @return the weight of the check
+	 */
+	static Integer getCheckWeight(CheckType checkType) {
 		// Create map from check type to it's weight
 		Map<CheckType, Integer> weights = new HashMap<CheckType, Integer>();
 		weights.put(CheckType.acceleration, ACCLR_WEIGHT);
 		weights.put(CheckType.time, TIME_WEIGHT);
 		weights.put(CheckType.distance, DIST_WEIGHT);
 
-		// Get current check's weight
+		// Get the check's weight
 		return weights.get(checkType);
 	}
+
+	/**
+	 * Gets list of suspected trips and returns list of false trips, considering
+	 * each trip's suspicion weight.
+	 *
+	 * @param suspTripsWeights
+	 *            map of suspected trips and their suspicion weights
+	 * @return list of false trips
+	 */
+	static List<Integer> getFalseTrips(Map<Integer, Integer> suspTripsWeights) {
+		List<Integer> falseTrips = new LinkedList<Integer>();
+
+		// Add all the suspected trips with high enough weight of suspicion
+		for (Map.Entry<Integer, Integer> entry : suspTripsWeights.entrySet()) {
+			if (entry.getValue() >= FALSE_MIN_WEIGHT) {
+				falseTrips.add(entry.getKey());
+			}
+		}
+		return falseTrips;
+	}
+
+	/**
+	 * Gets the trips' suspicion weights and returns list of false trips.
+	 *
+	 * @param suspTripsWeights
+	 *            every trip's suspicion weight, by trip id
+	 * @return list of false trips, sorted
+	 */
+	private static List<Integer> getFalseTrips(int[] suspTripsWeights) {
+		List<Integer> falseTrips = new LinkedList<Integer>();
+		for (int tripID = 0; tripID < suspTripsWeights.length; tripID++) {
+			if (suspTripsWeights[tripID] >= FALSE_MIN_WEIGHT) {
+				falseTrips.add(tripID);
+			}
+		}
+		return falseTrips;
+	}
+
+	/**
+	 * Builds a string of all driver's trips and their analysis results.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @param lastTripID
+	 *            the driver's last trip id
+	 * @param falseTrips
+	 *            list of driver's false trips
+	 * @return string to be printed to file
+	 */
+	private static String buildResultString(String driverId, int lastTripID,
+			List<Integer> falseTrips) {
+		StringBuilder builder = new StringBuilder();
+		appendTripRows(builder, driverId, lastTripID, falseTrips);
+		if (builder.length() > 0) {
+			builder.deleteCharAt(builder.length() - 1);
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the rows of all the driver's trips, numbered from 1 to the last
+	 * trip id, each with its line end.
+	 *
+	 * @param builder
+	 *            the builder to append to
+	 * @param driverId
+	 *            the driver id
+	 * @param lastTripID
+	 *            the driver's last trip id
+	 * @param falseTrips
+	 *            the driver's false trips
+	 */
+	static void appendTripRows(StringBuilder builder, String driverId,
+			int lastTripID, Collection<Integer> falseTrips) {
+		Set<Integer> falseSet = new HashSet<Integer>(falseTrips);
+
+		// For every trip - add decision
+		for (Integer tripId = 1; tripId <= lastTripID; tripId++) {
+			builder.append(buildTripRow(driverId, tripId,
+					falseSet.contains(tripId)));
+			builder.append(TRIPS_DELIM);
+		}
+	}
+
+	/**
+	 * Builds the result row of a single trip.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @param tripId
+	 *            the trip id
+	 * @param isFalse
+	 *            whether it's a false trip
+	 * @return the trip's row, without line end
+	 */
+	static String buildTripRow(String driverId, Integer tripId, boolean isFalse) {
+		String sign = TRUE_TRIP_SIGN;
+		if (isFalse) {
+			sign = FALSE_TRIP_SIGN;
+		}
+		return driverId + DRIVER_TRIP_DELIM + tripId + SOLUTION_DELIM + sign;
+	}
 }
@@ -0,0 +1,89 @@
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Mapper for hadoop. Counts every trip's speeds and accelerations, a second
+ * at a time, in fixed bins. The trip's histograms are sent under the trip's
+ * key for scoring, and under its driver's key (the trip id DRIVER_TRIP_ID,
+ * sorted before the driver's trips) to be merged by driver.
+ */
+public class HistogramMap extends
+		Mapper<TripIdWritable, BytesWritable, TripIdWritable, HistogramWritable> {
+	public static final String BINS = "trips.histograms.bins";
+	public static final String MAX_SPEED = "trips.histograms.speed.max";
+	public static final String MAX_ACCELERATION = "trips.histograms.acceleration.max";
+	public static final int DRIVER_TRIP_ID = 0;
+	static final int DEFAULT_BINS = 32;
+	private static final double DEFAULT_MAX_SPEED = 40; // m/s
+	private static final double DEFAULT_MAX_ACCELERATION = 4; // m/s^2
+	private int bins;
+	private double maxSpeed;
+	private double maxAcceleration;
+	private SpeedSmoother smoother;
+	private HistogramWritable tripHistogram = new HistogramWritable();
+	private TripIdWritable driverKey = new TripIdWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		Configuration conf = context.getConfiguration();
+		bins = conf.getInt(BINS, DEFAULT_BINS);
+		maxSpeed = conf.getDouble(MAX_SPEED, DEFAULT_MAX_SPEED);
+		maxAcceleration = conf.getDouble(MAX_ACCELERATION,
+				DEFAULT_MAX_ACCELERATION);
+		smoother = SpeedSmoother.create(conf);
+	}
+
+	@Override
+	protected void map(TripIdWritable key, BytesWritable tripFile,
+			Context context) throws IOException, InterruptedException {
+		tripHistogram.set(key.getTripID(), bins);
+		List<TripPoint> trip = AccelrMap.parseTrip(tripFile);
+		if (smoother != null) {
+			smoother.reset(); // a new trip
+		}
+
+		// Velocity = distance/1sec, acceleration = velocity change/1sec
+		double lastVelocity = 0;
+		for (int i = 1; i < trip.size(); i++) {
+			double velocity = trip.get(i - 1).getDistFrom(trip.get(i));
+			if (smoother != null) {
+				velocity = smoother.smooth(velocity);
+			}
+			tripHistogram.addSpeed(getBin(velocity, 0, maxSpeed, bins));
+			if (i > 1) {
+				tripHistogram.addAcceleration(getBin(velocity - lastVelocity,
+						-maxAcceleration, maxAcceleration, bins));
+			}
+			lastVelocity = velocity;
+		}
+
+		// Send the trip's histograms for scoring, and count them for the driver
+		context.write(key, tripHistogram);
+		driverKey.set(key.getDriverID().toString(), DRIVER_TRIP_ID);
+		context.write(driverKey, tripHistogram);
+	}
+
+	/**
+	 * Get the bin of a value. Values out of the range are counted in the
+	 * edge bins.
+	 *
+	 * @param value
+	 *            the value
+	 * @param min
+	 *            the range's minimum
+	 * @param max
+	 *            the range's maximum
+	 * @param bins
+	 *            number of bins in the range
+	 * @return the value's bin
+	 */
+	static int getBin(double value, double min, double max, int bins) {
+		int bin = (int) Math.floor((value - min) / (max - min) * bins);
+		return Math.max(0, Math.min(bins - 1, bin));
+	}
+}
@@ -0,0 +1,26 @@
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Combiner for hadoop. Merges the histograms sent under a driver's key (see
+ * HistogramMap) to the driver's histograms, so only a few KB per driver are
+ * shuffled besides the trips' own. A trip's key has only the trip's
+ * histograms, which are kept as they are.
+ */
+public class HistogramReduce extends
+		Reducer<TripIdWritable, HistogramWritable, TripIdWritable, HistogramWritable> {
+	private HistogramWritable driverHistogram = new HistogramWritable();
+
+	@Override
+	public void reduce(TripIdWritable driverId,
+			Iterable<HistogramWritable> histograms, Context context)
+			throws IOException, InterruptedException {
+		driverHistogram.clear(context.getConfiguration().getInt(
+				HistogramMap.BINS, HistogramMap.DEFAULT_BINS));
+		for (HistogramWritable histogram : histograms) {
+			driverHistogram.merge(histogram);
+		}
+		context.write(driverId, driverHistogram);
+	}
+}
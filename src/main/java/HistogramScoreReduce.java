@@ -0,0 +1,124 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Scores every trip by the divergence of its histograms
+ * from the histograms of the driver's other trips. A driver's merged
+ * histograms come first, under the driver's key (see HistogramMap), and its
+ * trips' histograms after them, so only one driver's histograms are held at
+ * a time. The scores go to the clustering like a behavior check's values.
+ */
+public class HistogramScoreReduce extends
+		Reducer<TripIdWritable, HistogramWritable, DriverValueWritable, TripDataWritable> {
+	public static final String DIVERGENCE = "trips.histograms.divergence";
+	public static final String DIVERGENCE_WASSERSTEIN = "wasserstein";
+	public static final String DIVERGENCE_KL = "kl";
+	// Added to every bin's count, so empty bins don't make KL infinite
+	private static final double PSEUDO_COUNT = 0.5;
+	private boolean isKL;
+	private int bins;
+	private Text driverId = new Text();
+	private boolean hasDriver = false;
+	private HistogramWritable driver = new HistogramWritable();
+	private TripDataWritable tripData = new TripDataWritable();
+	private DriverValueWritable outKey = new DriverValueWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		Configuration conf = context.getConfiguration();
+		String divergence = conf.get(DIVERGENCE, DIVERGENCE_WASSERSTEIN);
+		if (DIVERGENCE_KL.equals(divergence)) {
+			isKL = true;
+		} else if (!DIVERGENCE_WASSERSTEIN.equals(divergence)) {
+			throw new IllegalArgumentException("Unknown divergence "
+					+ divergence);
+		}
+		bins = conf.getInt(HistogramMap.BINS, HistogramMap.DEFAULT_BINS);
+	}
+
+	@Override
+	public void reduce(TripIdWritable key,
+			Iterable<HistogramWritable> histograms, Context context)
+			throws IOException, InterruptedException {
+		// Merge the driver's histograms, which come before its trips'
+		if (key.getTripID() == HistogramMap.DRIVER_TRIP_ID) {
+			driver.clear(bins);
+			for (HistogramWritable histogram : histograms) {
+				driver.merge(histogram);
+			}
+			driverId.set(key.getDriverID());
+			hasDriver = true;
+			return;
+		}
+		if (!hasDriver || !driverId.equals(key.getDriverID())) {
+			throw new IOException("No histograms of driver "
+					+ key.getDriverID() + " before its trip " + key);
+		}
+
+		// Score the trip by both its histograms
+		for (HistogramWritable trip : histograms) {
+			double score = getDivergence(trip.getSpeeds(), driver.getSpeeds(),
+					isKL)
+					+ getDivergence(trip.getAccelerations(),
+							driver.getAccelerations(), isKL);
+
+			// Write the score by trip id
+			tripData.set(key.getTripID(), score);
+			outKey.set(driverId, tripData.getData()); // sorts the trips by value
+			context.write(outKey, tripData);
+		}
+	}
+
+	/**
+	 * Get the divergence of a trip's histogram from the histogram of the
+	 * driver's other trips: the Wasserstein distance, in bins, or the
+	 * Kullback-Leibler divergence.
+	 *
+	 * @param trip
+	 *            the trip's histogram
+	 * @param driver
+	 *            the driver's histogram, with the trip's counts
+	 * @param isKL
+	 *            true for KL, false for Wasserstein
+	 * @return the divergence, 0 if the trip or the other trips have no
+	 *         counts
+	 */
+	static double getDivergence(long[] trip, long[] driver, boolean isKL) {
+		long tripTotal = 0;
+		long othersTotal = 0;
+		for (int i = 0; i < trip.length; i++) {
+			tripTotal += trip[i];
+			othersTotal += driver[i] - trip[i];
+		}
+		if (tripTotal == 0 || othersTotal == 0) {
+			return 0;
+		}
+
+		double divergence = 0;
+		if (isKL) {
+			double tripSmoothed = tripTotal + PSEUDO_COUNT * trip.length;
+			double othersSmoothed = othersTotal + PSEUDO_COUNT * trip.length;
+			for (int i = 0; i < trip.length; i++) {
+				double p = (trip[i] + PSEUDO_COUNT) / tripSmoothed;
+				double q = (driver[i] - trip[i] + PSEUDO_COUNT)
+						/ othersSmoothed;
+				divergence += p * Math.log(p / q);
+			}
+		} else {
+			// The area between the distributions' cumulative functions
+			long tripCount = 0;
+			long othersCount = 0;
+			for (int i = 0; i < trip.length; i++) {
+				tripCount += trip[i];
+				othersCount += driver[i] - trip[i];
+				divergence += Math.abs((double) tripCount / tripTotal
+						- (double) othersCount / othersTotal);
+			}
+		}
+		return divergence;
+	}
+}
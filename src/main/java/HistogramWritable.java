@@ -0,0 +1,138 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable histograms of trips' motion: the counts of the seconds'
+ * speeds and accelerations in fixed bins, in primitive arrays, and the last
+ * trip ID of the trips counted. A trip's histograms are merged to its
+ * driver's by adding up the counts.
+ */
+public class HistogramWritable implements Writable {
+	private int lastTripID = 0;
+	private long[] speeds = new long[0];
+	private long[] accelerations = new long[0];
+
+	public HistogramWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int getLastTripID() {
+		return lastTripID;
+	}
+
+	public long[] getSpeeds() {
+		return speeds;
+	}
+
+	public long[] getAccelerations() {
+		return accelerations;
+	}
+
+	/**
+	 * Empty the histograms.
+	 *
+	 * @param bins
+	 *            number of bins of every histogram
+	 */
+	public void clear(int bins) {
+		lastTripID = 0;
+		if (speeds.length != bins) {
+			speeds = new long[bins];
+			accelerations = new long[bins];
+		} else {
+			Arrays.fill(speeds, 0);
+			Arrays.fill(accelerations, 0);
+		}
+	}
+
+	/**
+	 * Set the histograms to a trip's.
+	 *
+	 * @param tripID
+	 *            the trip id
+	 * @param bins
+	 *            number of bins of every histogram
+	 */
+	public void set(int tripID, int bins) {
+		clear(bins);
+		lastTripID = tripID;
+	}
+
+	/**
+	 * Count a second's speed.
+	 *
+	 * @param bin
+	 *            the speed's bin
+	 */
+	public void addSpeed(int bin) {
+		speeds[bin]++;
+	}
+
+	/**
+	 * Count a second's acceleration.
+	 *
+	 * @param bin
+	 *            the acceleration's bin
+	 */
+	public void addAcceleration(int bin) {
+		accelerations[bin]++;
+	}
+
+	/**
+	 * Add the counts of other histograms to these.
+	 *
+	 * @param other
+	 *            the histograms to merge, with the same bins
+	 */
+	public void merge(HistogramWritable other) {
+		if (other.speeds.length != speeds.length) {
+			throw new IllegalArgumentException("Can't merge histograms of "
+					+ other.speeds.length + " bins to " + speeds.length);
+		}
+		lastTripID = Math.max(lastTripID, other.lastTripID);
+		for (int i = 0; i < speeds.length; i++) {
+			speeds[i] += other.speeds[i];
+			accelerations[i] += other.accelerations[i];
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		lastTripID = WritableUtils.readVInt(in);
+		int bins = WritableUtils.readVInt(in);
+		if (speeds.length != bins) {
+			speeds = new long[bins];
+			accelerations = new long[bins];
+		}
+		for (int i = 0; i < bins; i++) {
+			speeds[i] = WritableUtils.readVLong(in);
+		}
+		for (int i = 0; i < bins; i++) {
+			accelerations[i] = WritableUtils.readVLong(in);
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, lastTripID);
+		WritableUtils.writeVInt(out, speeds.length);
+		for (long count : speeds) {
+			WritableUtils.writeVLong(out, count);
+		}
+		for (long count : accelerations) {
+			WritableUtils.writeVLong(out, count);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return lastTripID + ": " + Arrays.toString(speeds) + " "
+				+ Arrays.toString(accelerations);
+	}
+}
@@ -0,0 +1,416 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Manifest of a drivers' folder's trip files, with their lengths and blocks,
+ * or of a batch of datasets' drivers' folders (comma separated). The
+ * drivers' folders are listed in parallel (-D
+ * mapreduce.input.fileinputformat.list-status.num-threads=..., 8 by default)
+ * once, and the manifest is kept in a file which every job of the run reads
+ * instead of globbing the folder again. A later run reuses the file, with its
+ * blocks, while the input's entries and their modification times haven't
+ * changed: a trip added to or removed from a driver's folder changes the
+ * folder's time. A trip rewritten in place doesn't, so after rewriting trips
+ * in place delete the manifest (or the run folder) to have them listed again.
+ */
+public class InputManifest {
+	public static final String MANIFEST = "trips.input.manifest";
+	private static final int DEFAULT_LIST_THREADS = 8;
+	private static final String ROOT_TYPE = "R";
+	private static final String FILE_TYPE = "F";
+	private static final String FIELDS_DELIM = "\t";
+	private static final String FOLDERS_DELIM = ",";
+	private static final String BLOCKS_DELIM = ";";
+	private static final String BLOCK_FIELDS_DELIM = ":";
+	private static final String HOSTS_DELIM = ",";
+	private static final String TEMP_ENDING = ".tmp";
+	private static final String ENCODING = "UTF-8";
+	private final Configuration conf;
+	private final Path[] inputs;
+	private final String input;
+	private final Path file;
+	private List<FileStatus> files = null;
+
+	/**
+	 * Construct the manifest of a drivers' folder, or of a batch of them.
+	 *
+	 * @param conf
+	 *            the user's configuration
+	 * @param input
+	 *            the drivers' folder, or the comma separated folders
+	 * @param file
+	 *            the manifest's file
+	 * @throws IOException
+	 */
+	public InputManifest(Configuration conf, String input, Path file)
+			throws IOException {
+		this.conf = conf;
+		String[] folders = StringUtils.getTrimmedStrings(input);
+		inputs = new Path[folders.length];
+		for (int i = 0; i < folders.length; i++) {
+			Path inPath = new Path(folders[i]);
+			inputs[i] = inPath.getFileSystem(conf).makeQualified(inPath);
+		}
+		this.input = StringUtils.join(FOLDERS_DELIM, Arrays.asList(inputs));
+		this.file = file;
+	}
+
+	// Java getters:
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Get the input's trip files, reading the manifest's file if it's still
+	 * valid, or listing the drivers' folders and writing it otherwise.
+	 *
+	 * @return the trip files, sorted by path
+	 * @throws IOException
+	 */
+	public List<FileStatus> getFiles() throws IOException {
+		if (files != null) {
+			return files;
+		}
+
+		// The input's own entries tell whether the manifest is still valid
+		List<FileStatus> roots = new ArrayList<FileStatus>();
+		for (Path folder : inputs) {
+			for (FileStatus root : folder.getFileSystem(conf).listStatus(
+					folder)) {
+				if (!isHidden(root.getPath())) {
+					roots.add(root);
+				}
+			}
+		}
+		Map<String, String> rootTimes = getTimes(roots);
+		files = read(conf, file, input, rootTimes);
+		if (files != null) {
+			return files;
+		}
+
+		files = list(roots);
+		write(rootTimes);
+		return files;
+	}
+
+	/**
+	 * Set a job to read its input's files from a manifest instead of listing
+	 * them, with WholeFileInputFormat or TripChunkInputFormat.
+	 *
+	 * @param job
+	 *            the job to set
+	 * @param manifest
+	 *            the input's manifest, written by getFiles
+	 */
+	public static void setInput(Job job, InputManifest manifest) {
+		job.getConfiguration().set(MANIFEST, manifest.getFile().toString());
+	}
+
+	/**
+	 * Get a job's input files from its manifest, for an input format's
+	 * listStatus.
+	 *
+	 * @param job
+	 *            the job
+	 * @return the input files, or null if the job has no manifest
+	 * @throws IOException
+	 */
+	public static List<FileStatus> listStatus(JobContext job)
+			throws IOException {
+		String manifest = job.getConfiguration().get(MANIFEST);
+		if (manifest == null) {
+			return null;
+		}
+		List<FileStatus> files = read(job.getConfiguration(), new Path(
+				manifest), null, null);
+		if (files == null) {
+			throw new IOException("Can't read the input's manifest "
+					+ manifest);
+		}
+		return files;
+	}
+
+	/**
+	 * List the drivers' folders in parallel.
+	 *
+	 * @param roots
+	 *            the input's entries: the drivers' folders, and files
+	 * @return the trip files, sorted by path
+	 * @throws IOException
+	 */
+	private List<FileStatus> list(List<FileStatus> roots) throws IOException {
+		List<FileStatus> listed = new ArrayList<FileStatus>();
+		List<Future<List<FileStatus>>> folders = new ArrayList<Future<List<FileStatus>>>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+				conf.getInt(FileInputFormat.LIST_STATUS_NUM_THREADS,
+						DEFAULT_LIST_THREADS)));
+		try {
+			for (final FileStatus root : roots) {
+				final FileSystem fs = root.getPath().getFileSystem(conf);
+				if (!root.isDirectory()) {
+					listed.add(locate(fs, root));
+					continue;
+				}
+				folders.add(executor.submit(new Callable<List<FileStatus>>() {
+					@Override
+					public List<FileStatus> call() throws IOException {
+						List<FileStatus> trips = new ArrayList<FileStatus>();
+						RemoteIterator<LocatedFileStatus> iter = fs
+								.listLocatedStatus(root.getPath());
+						while (iter.hasNext()) {
+							LocatedFileStatus trip = iter.next();
+							if (trip.isFile() && !isHidden(trip.getPath())) {
+								trips.add(trip);
+							}
+						}
+						return trips;
+					}
+				}));
+			}
+			for (Future<List<FileStatus>> folder : folders) {
+				listed.addAll(folder.get());
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Listing the input was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Can't list the input " + input,
+					e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Collections.sort(listed, new Comparator<FileStatus>() {
+			@Override
+			public int compare(FileStatus first, FileStatus second) {
+				return first.getPath().compareTo(second.getPath());
+			}
+		});
+		return listed;
+	}
+
+	/**
+	 * Get a file's status with its blocks.
+	 *
+	 * @param fs
+	 *            the file's system
+	 * @param status
+	 *            the file's status
+	 * @return the located status
+	 * @throws IOException
+	 */
+	private static LocatedFileStatus locate(FileSystem fs, FileStatus status)
+			throws IOException {
+		if (status instanceof LocatedFileStatus) {
+			return (LocatedFileStatus) status;
+		}
+		return new LocatedFileStatus(status, fs.getFileBlockLocations(status,
+				0, status.getLen()));
+	}
+
+	/**
+	 * Write the manifest's file: the input, its entries' times and the trip
+	 * files. It's written aside and renamed, so a failed run leaves no half
+	 * manifest.
+	 *
+	 * @param rootTimes
+	 *            the input's entries' modification times, by path
+	 * @throws IOException
+	 */
+	private void write(Map<String, String> rootTimes) throws IOException {
+		FileSystem fs = file.getFileSystem(conf);
+		Path temp = file.suffix(TEMP_ENDING);
+		Writer writer = new BufferedWriter(new OutputStreamWriter(fs.create(
+				temp, true), ENCODING));
+		try {
+			writer.write(input + "\n");
+			for (Map.Entry<String, String> root : rootTimes.entrySet()) {
+				writer.write(ROOT_TYPE + FIELDS_DELIM + root.getKey()
+						+ FIELDS_DELIM + root.getValue() + "\n");
+			}
+			for (FileStatus trip : files) {
+				writer.write(toLine(trip) + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		fs.delete(file, false);
+		if (!fs.rename(temp, file)) {
+			throw new IOException("Can't write the input's manifest " + file);
+		}
+	}
+
+	/**
+	 * Read a manifest's file.
+	 *
+	 * @param conf
+	 *            the configuration
+	 * @param file
+	 *            the manifest's file
+	 * @param input
+	 *            the qualified input it must be of, or null for any
+	 * @param rootTimes
+	 *            the times its input's entries must have, or null for any
+	 * @return the trip files, or null if there's no valid manifest
+	 * @throws IOException
+	 */
+	private static List<FileStatus> read(Configuration conf, Path file,
+			String input, Map<String, String> rootTimes) throws IOException {
+		FileSystem fs = file.getFileSystem(conf);
+		if (!fs.exists(file)) {
+			return null;
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				fs.open(file), ENCODING));
+		try {
+			String line = reader.readLine();
+			if (line == null
+					|| (input != null && !line.equals(input))) {
+				return null;
+			}
+
+			List<FileStatus> trips = new ArrayList<FileStatus>();
+			Map<String, String> times = new TreeMap<String, String>();
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(FIELDS_DELIM, -1);
+				if (ROOT_TYPE.equals(fields[0])) {
+					times.put(fields[1], fields[2]);
+				} else {
+					trips.add(fromLine(fields));
+				}
+			}
+			if (rootTimes != null && !rootTimes.equals(times)) {
+				return null; // the input changed
+			}
+			return trips;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Get a trip file's manifest line: its path, length, time, block size and
+	 * blocks (offset:length:hosts;...).
+	 *
+	 * @param trip
+	 *            the trip file, with its blocks
+	 * @return the line
+	 */
+	private static String toLine(FileStatus trip) {
+		StringBuilder line = new StringBuilder(FILE_TYPE);
+		line.append(FIELDS_DELIM).append(trip.getPath())
+				.append(FIELDS_DELIM).append(trip.getLen())
+				.append(FIELDS_DELIM).append(trip.getModificationTime())
+				.append(FIELDS_DELIM).append(trip.getBlockSize())
+				.append(FIELDS_DELIM);
+		BlockLocation[] blocks = ((LocatedFileStatus) trip)
+				.getBlockLocations();
+		for (int i = 0; i < blocks.length; i++) {
+			if (i > 0) {
+				line.append(BLOCKS_DELIM);
+			}
+			line.append(blocks[i].getOffset()).append(BLOCK_FIELDS_DELIM)
+					.append(blocks[i].getLength())
+					.append(BLOCK_FIELDS_DELIM);
+			try {
+				String[] hosts = blocks[i].getHosts();
+				for (int j = 0; j < hosts.length; j++) {
+					if (j > 0) {
+						line.append(HOSTS_DELIM);
+					}
+					line.append(hosts[j]);
+				}
+			} catch (IOException e) {
+				// No hosts, the splits lose only their locality
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Get a trip file from its manifest line's fields.
+	 *
+	 * @param fields
+	 *            the line's fields
+	 * @return the trip file, with its blocks
+	 */
+	private static FileStatus fromLine(String[] fields) {
+		Path path = new Path(fields[1]);
+		long length = Long.parseLong(fields[2]);
+		long time = Long.parseLong(fields[3]);
+		long blockSize = Long.parseLong(fields[4]);
+		List<BlockLocation> blocks = new ArrayList<BlockLocation>();
+		if (!fields[5].isEmpty()) {
+			for (String block : fields[5].split(BLOCKS_DELIM)) {
+				String[] blockFields = block.split(BLOCK_FIELDS_DELIM, -1);
+				String[] hosts = new String[0];
+				if (!blockFields[2].isEmpty()) {
+					hosts = blockFields[2].split(HOSTS_DELIM);
+				}
+				blocks.add(new BlockLocation(null, hosts, Long
+						.parseLong(blockFields[0]), Long
+						.parseLong(blockFields[1])));
+			}
+		}
+		return new LocatedFileStatus(length, false, 0, blockSize, time, 0,
+				null, null, null, null, path,
+				blocks.toArray(new BlockLocation[blocks.size()]));
+	}
+
+	/**
+	 * Get the input's entries' modification times.
+	 *
+	 * @param roots
+	 *            the input's entries
+	 * @return their times, by path
+	 */
+	private static Map<String, String> getTimes(List<FileStatus> roots) {
+		Map<String, String> times = new TreeMap<String, String>();
+		for (FileStatus root : roots) {
+			times.put(root.getPath().toString(),
+					Long.toString(root.getModificationTime()));
+		}
+		return times;
+	}
+
+	/**
+	 * Check whether a file is hidden from the jobs, like FileInputFormat's
+	 * hidden files.
+	 *
+	 * @param path
+	 *            the file's path
+	 * @return true if its name starts with _ or .
+	 */
+	private static boolean isHidden(Path path) {
+		String name = path.getName();
+		return name.startsWith("_") || name.startsWith(".");
+	}
+}
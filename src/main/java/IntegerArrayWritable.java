@@ -25,7 +25,9 @@ public class IntegerArrayWritable extends ArrayWritable {
 		}
 
 		// Remove the last delimiter
-		builder.deleteCharAt(builder.length() - 1);
+		if (builder.length() > 0) {
+			builder.deleteCharAt(builder.length() - 1);
+		}
 		return builder.toString();
 	}
 
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs a reducer's work on a pool of threads, while the reducer keeps reading
+ * its input, and emits the results in the order the work was submitted. The
+ * results wait in a bounded reorder buffer: once it's full, submitting waits
+ * for the oldest work, so the pending work's memory is capped. The workers
+ * are daemon threads, so a task which fails before shutting the pool down
+ * still exits.
+ *
+ * @param <R>
+ *            the type of the work's results
+ */
+public class OrderedWorkPool<R> {
+	private final ExecutorService workers;
+	private final int maxPending;
+	private final Emitter<R> emitter;
+	private final Queue<Future<R>> pending = new LinkedList<Future<R>>();
+
+	/**
+	 * Emits the results, on the thread which submits the work.
+	 *
+	 * @param <R>
+	 *            the type of the results
+	 */
+	public interface Emitter<R> {
+		void emit(R result) throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Construct a pool.
+	 *
+	 * @param threads
+	 *            number of worker threads
+	 * @param maxPending
+	 *            the maximal number of unemitted results
+	 * @param emitter
+	 *            the results' emitter
+	 */
+	public OrderedWorkPool(int threads, int maxPending, Emitter<R> emitter) {
+		this.workers = Executors.newFixedThreadPool(threads,
+				new DaemonThreadFactory());
+		this.maxPending = maxPending;
+		this.emitter = emitter;
+	}
+
+	/**
+	 * Submit work, first emitting the finished results in order. Waits while
+	 * the reorder buffer is full.
+	 *
+	 * @param work
+	 *            the work to run
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void submit(Callable<R> work) throws IOException,
+			InterruptedException {
+		while (!pending.isEmpty()
+				&& (pending.size() >= maxPending || pending.peek().isDone())) {
+			emitNext();
+		}
+		pending.add(workers.submit(work));
+	}
+
+	/**
+	 * Emit all the remaining results and stop the workers.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public void finish() throws IOException, InterruptedException {
+		try {
+			while (!pending.isEmpty()) {
+				emitNext();
+			}
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Stop the workers, dropping the work which hasn't been emitted. Callers
+	 * call it in a finally block, for when the work fails before finish.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Wait for the oldest work and emit its result.
+	 *
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private void emitNext() throws IOException, InterruptedException {
+		try {
+			emitter.emit(pending.poll().get());
+		} catch (ExecutionException e) {
+			shutdown(); // the reducer fails, nothing else is needed
+			throw new IOException("Reduce work failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Creates the workers as daemon threads.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final ThreadFactory threads = Executors.defaultThreadFactory();
+
+		@Override
+		public Thread newThread(Runnable work) {
+			Thread thread = threads.newThread(work);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
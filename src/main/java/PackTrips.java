@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Packs the drivers' trips into sharded block compressed sequence files sorted
+ * by driver, with a manifest of every driver's shard and offset. The packed
+ * folder can be given to Driver instead of the drivers' folder.
+ */
+public class PackTrips {
+	private static final int INPUT_ARG = 0;
+	private static final int OUTPUT_ARG = 1;
+	private static final int SHARDS_ARG = 2;
+
+	/**
+	 * Packs the trips.
+	 *
+	 * @param args
+	 *            input path (drivers' folder or their archive), output path
+	 *            and number of shards
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Path packed = new Path(args[OUTPUT_ARG]);
+		int shards = Integer.parseInt(args[SHARDS_ARG]);
+
+		// Configure new job
+		Configuration conf = new Configuration();
+		Job packJob = new Job(conf, "Pack drivers' trips");
+		packJob.setJarByClass(PackTrips.class);
+
+		// Mapper settings - trips pass as they are:
+		packJob.setMapperClass(Mapper.class);
+		packJob.setMapOutputKeyClass(TripIdWritable.class);
+		packJob.setMapOutputValueClass(BytesWritable.class);
+		Driver.setTripsInput(packJob, args[INPUT_ARG]);
+
+		// Reducer settings - a shard per reducer, drivers sorted in it:
+		packJob.setPartitionerClass(DriverPartitioner.class);
+		packJob.setNumReduceTasks(shards);
+		packJob.setReducerClass(Reducer.class);
+		packJob.setOutputKeyClass(TripIdWritable.class);
+		packJob.setOutputValueClass(BytesWritable.class);
+		packJob.setOutputFormatClass(PackedTripOutputFormat.class);
+		FileOutputFormat.setCompressOutput(packJob, true);
+		FileOutputFormat.setOutputPath(packJob, packed);
+
+		if (!packJob.waitForCompletion(true)) {
+			System.exit(1);
+		}
+
+		mergeManifest(conf, packed); // one manifest for all the shards
+	}
+
+	/**
+	 * Merges the shards' manifest parts to the packed folder's manifest.
+	 *
+	 * @param conf
+	 *            the configuration
+	 * @param packed
+	 *            the packed folder
+	 * @throws IOException
+	 */
+	private static void mergeManifest(Configuration conf, Path packed)
+			throws IOException {
+		FileSystem fs = packed.getFileSystem(conf);
+		FileStatus[] parts = fs.listStatus(packed);
+		Arrays.sort(parts);
+
+		FSDataOutputStream manifest = fs.create(new Path(packed,
+				PackedTripOutputFormat.MANIFEST));
+		try {
+			// Append every part and delete it
+			for (FileStatus part : parts) {
+				if (!part.getPath().getName().endsWith(
+						PackedTripOutputFormat.MANIFEST_PART_ENDING)) {
+					continue;
+				}
+				FSDataInputStream in = fs.open(part.getPath());
+				try {
+					IOUtils.copyBytes(in, manifest, conf, false);
+				} finally {
+					in.close();
+				}
+				fs.delete(part.getPath(), false);
+			}
+		} finally {
+			manifest.close();
+		}
+	}
+}
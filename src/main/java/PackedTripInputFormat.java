@@ -0,0 +1,144 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+
+/**
+ * Hadoop's format for reading trips packed by PackTrips. Splits are planned
+ * from the packed folder's manifest: each split is a run of whole drivers of
+ * one shard.
+ */
+public class PackedTripInputFormat extends
+		SequenceFileInputFormat<TripIdWritable, BytesWritable> {
+	private static final String ENCODING = "UTF-8";
+	private static final int SHARD_FIELD = 1;
+	private static final int OFFSET_FIELD = 2;
+
+	/**
+	 * Checks whether the input is a folder of packed trips.
+	 *
+	 * @param conf
+	 *            the job's configuration
+	 * @param input
+	 *            the input path
+	 * @return true if the input has a packing manifest
+	 * @throws IOException
+	 */
+	public static boolean isPacked(Configuration conf, Path input)
+			throws IOException {
+		Path manifest = new Path(input, PackedTripOutputFormat.MANIFEST);
+		return manifest.getFileSystem(conf).exists(manifest);
+	}
+
+	@Override
+	public List<InputSplit> getSplits(JobContext job) throws IOException {
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+		long maxSize = getMaxSplitSize(job);
+
+		for (Path packed : getInputPaths(job)) {
+			FileSystem fs = packed.getFileSystem(job.getConfiguration());
+
+			// Cut each shard to runs of drivers
+			Map<String, SortedSet<Long>> shardsOffsets = readManifest(fs,
+					packed);
+			for (Map.Entry<String, SortedSet<Long>> entry : shardsOffsets
+					.entrySet()) {
+				FileStatus shard = fs.getFileStatus(new Path(packed, entry
+						.getKey()));
+				long splitSize = computeSplitSize(shard.getBlockSize(),
+						minSize, maxSize);
+				splits.addAll(getShardSplits(fs, shard, entry.getValue(),
+						splitSize));
+			}
+		}
+		return splits;
+	}
+
+	/**
+	 * Cut the shard to splits of whole drivers.
+	 *
+	 * @param fs
+	 *            the shard's file system
+	 * @param shard
+	 *            the shard's status
+	 * @param offsets
+	 *            the offsets of the shard's drivers
+	 * @param splitSize
+	 *            the wanted split size in bytes
+	 * @return the shard's splits
+	 * @throws IOException
+	 */
+	private List<InputSplit> getShardSplits(FileSystem fs, FileStatus shard,
+			SortedSet<Long> offsets, long splitSize) throws IOException {
+		List<InputSplit> splits = new ArrayList<InputSplit>();
+		BlockLocation[] blocks = fs.getFileBlockLocations(shard, 0,
+				shard.getLen());
+
+		// The shard's end is where the last driver ends
+		List<Long> bounds = new ArrayList<Long>(offsets);
+		bounds.add(shard.getLen());
+
+		long splitStart = bounds.get(0);
+		for (int i = 1; i < bounds.size(); i++) {
+			long driverEnd = bounds.get(i);
+			if (driverEnd - splitStart >= splitSize || i == bounds.size() - 1) {
+				String[] hosts = blocks[getBlockIndex(blocks, splitStart)]
+						.getHosts();
+				splits.add(makeSplit(shard.getPath(), splitStart, driverEnd
+						- splitStart, hosts));
+				splitStart = driverEnd;
+			}
+		}
+		return splits;
+	}
+
+	/**
+	 * Read the packing manifest to the offsets of the drivers in each shard.
+	 *
+	 * @param fs
+	 *            the packed folder's file system
+	 * @param packed
+	 *            the packed folder
+	 * @return map of shard names and their drivers' offsets
+	 * @throws IOException
+	 */
+	private Map<String, SortedSet<Long>> readManifest(FileSystem fs,
+			Path packed) throws IOException {
+		Map<String, SortedSet<Long>> shardsOffsets = new TreeMap<String, SortedSet<Long>>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				fs.open(new Path(packed, PackedTripOutputFormat.MANIFEST)),
+				ENCODING));
+		try {
+			// Every line is: driver, shard, offset, trips
+			for (String line = reader.readLine(); line != null; line = reader
+					.readLine()) {
+				String[] fields = line.split(PackedTripOutputFormat.MANIFEST_DELIM);
+				SortedSet<Long> offsets = shardsOffsets.get(fields[SHARD_FIELD]);
+				if (offsets == null) {
+					offsets = new TreeSet<Long>();
+					shardsOffsets.put(fields[SHARD_FIELD], offsets);
+				}
+				offsets.add(Long.parseLong(fields[OFFSET_FIELD]));
+			}
+		} finally {
+			reader.close();
+		}
+		return shardsOffsets;
+	}
+}
@@ -0,0 +1,118 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Hadoop's output format of packed trips. Writes a block compressed sequence
+ * file shard of trips sorted by driver, and a manifest part with each driver's
+ * offset in the shard. Every driver starts at a new block, so a shard can be
+ * read from any driver's offset. Every trip's key keeps its number of lines.
+ */
+public class PackedTripOutputFormat extends
+		FileOutputFormat<TripIdWritable, BytesWritable> {
+	public static final String MANIFEST = "_manifest";
+	public static final String MANIFEST_PART_ENDING = ".manifest";
+	public static final String MANIFEST_DELIM = "\t";
+	private static final String HIDDEN_PREFIX = "_";
+	private static final String LINES_DELIM = "\n";
+	private static final String ENCODING = "UTF-8";
+
+	@Override
+	public RecordWriter<TripIdWritable, BytesWritable> getRecordWriter(
+			TaskAttemptContext context) throws IOException,
+			InterruptedException {
+		Configuration conf = context.getConfiguration();
+		Path shard = getDefaultWorkFile(context, "");
+		Path manifestPart = new Path(shard.getParent(), HIDDEN_PREFIX
+				+ shard.getName() + MANIFEST_PART_ENDING);
+		FileSystem fs = shard.getFileSystem(conf);
+
+		// Block compress the shard with the job's codec
+		CompressionCodec codec = ReflectionUtils.newInstance(
+				getOutputCompressorClass(context, DefaultCodec.class), conf);
+		SequenceFile.Writer writer = SequenceFile.createWriter(conf,
+				SequenceFile.Writer.file(shard),
+				SequenceFile.Writer.keyClass(TripIdWritable.class),
+				SequenceFile.Writer.valueClass(BytesWritable.class),
+				SequenceFile.Writer.compression(CompressionType.BLOCK, codec));
+
+		return new PackedTripRecordWriter(writer, fs.create(manifestPart,
+				false), shard.getName());
+	}
+
+	/**
+	 * Writes the trips to the shard and the drivers' offsets to the manifest
+	 * part.
+	 */
+	private static class PackedTripRecordWriter extends
+			RecordWriter<TripIdWritable, BytesWritable> {
+		private SequenceFile.Writer writer;
+		private FSDataOutputStream manifest;
+		private String shardName;
+		private Text currDriver = new Text();
+		private long currOffset = -1;
+		private int currTrips = 0;
+
+		public PackedTripRecordWriter(SequenceFile.Writer writer,
+				FSDataOutputStream manifest, String shardName) {
+			this.writer = writer;
+			this.manifest = manifest;
+			this.shardName = shardName;
+		}
+
+		@Override
+		public void write(TripIdWritable tripId, BytesWritable trip)
+				throws IOException, InterruptedException {
+			// Start a new block for every driver
+			if (currOffset < 0 || !currDriver.equals(tripId.getDriverID())) {
+				writeManifestLine();
+				writer.sync();
+				currDriver.set(tripId.getDriverID());
+				currOffset = writer.getLength();
+				currTrips = 0;
+			}
+
+			// Index the trip's lines in its key, for checks which need no more
+			tripId.setLines(TimeMap.countLines(trip.getBytes(), 0,
+					trip.getLength()));
+			writer.append(tripId, trip);
+			currTrips++;
+		}
+
+		@Override
+		public void close(TaskAttemptContext context) throws IOException,
+				InterruptedException {
+			writeManifestLine();
+			writer.close();
+			manifest.close();
+		}
+
+		/**
+		 * Write the current driver's manifest line.
+		 *
+		 * @throws IOException
+		 */
+		private void writeManifestLine() throws IOException {
+			if (currOffset < 0) {
+				return; // no driver yet
+			}
+			String line = currDriver + MANIFEST_DELIM + shardName
+					+ MANIFEST_DELIM + currOffset + MANIFEST_DELIM + currTrips
+					+ LINES_DELIM;
+			manifest.write(line.getBytes(ENCODING));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+import java.io.File;
+
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+
+/**
+ * Runs the whole pipeline on hadoop's local job runner over generated drivers'
+ * folders of growing scale, and prints every stage's wall time, records per
+ * second and shuffled bytes as CSV rows. Every scale's drivers are generated
+ * by TripGenerator once, and kept for later runs.
+ */
+public class PipelineBenchmark {
+	private static final String[] LOCAL_RUNNER = { "-D",
+			"mapreduce.framework.name=local", "-D",
+			RunCheckpoints.FORCE + "=all" }; // time every stage
+	private static final int WORK_ARG = 0;
+	private static final int TRIPS_ARG = 1;
+	private static final int SEED_ARG = 2;
+	private static final int FIRST_SCALE_ARG = 3;
+	private static final double FOREIGN_RATIO = 0.05;
+	private static final String DRIVERS_PREFIX = "drivers-";
+	private static final String VERDICTS_PREFIX = "verdicts-";
+	private static final String VERDICTS_ENDING = ".csv";
+	private static final String HEADER = "drivers,stage,millis,records,records_per_sec,shuffle_bytes";
+	private static final String DELIM = ",";
+	private static final double MILLIS_IN_SEC = 1000.0;
+	private static final String FALSE_TRIPS_STAGE = "false_trips";
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            hadoop's generic options, work folder, trips per driver, seed
+	 *            and the numbers of drivers to run with (e.g. 10 100 1000)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		// Always run on the local job runner
+		String[] allArgs = new String[LOCAL_RUNNER.length + args.length];
+		System.arraycopy(LOCAL_RUNNER, 0, allArgs, 0, LOCAL_RUNNER.length);
+		System.arraycopy(args, 0, allArgs, LOCAL_RUNNER.length, args.length);
+		args = Driver.parseArgs(allArgs);
+
+		File workFolder = new File(args[WORK_ARG]);
+		int trips = Integer.parseInt(args[TRIPS_ARG]);
+		TripGenerator generator = new TripGenerator(
+				Long.parseLong(args[SEED_ARG]), FOREIGN_RATIO);
+
+		StringBuilder report = new StringBuilder(HEADER);
+		for (int i = FIRST_SCALE_ARG; i < args.length; i++) {
+			int drivers = Integer.parseInt(args[i]);
+
+			// Generate the scale's drivers once
+			File driversFolder = new File(workFolder, DRIVERS_PREFIX + drivers);
+			if (!driversFolder.exists()) {
+				generator.generate(driversFolder, drivers, trips);
+			}
+
+			String input = driversFolder.getPath();
+			for (CheckType check : CheckType.values()) {
+				long start = System.currentTimeMillis();
+				Job job = Driver.analyzeBehavior(input, check);
+				report.append('\n').append(
+						buildRow(drivers, check.toString(), job, start));
+			}
+			long start = System.currentTimeMillis();
+			Job job = Driver.pickFalseTrips(new File(workFolder,
+					VERDICTS_PREFIX + drivers + VERDICTS_ENDING).getPath());
+			report.append('\n').append(
+					buildRow(drivers, FALSE_TRIPS_STAGE, job, start));
+		}
+
+		// Print once done, so the jobs' logs don't mix with the report
+		System.out.println(report);
+	}
+
+	/**
+	 * Builds the report row of a stage.
+	 *
+	 * @param drivers
+	 *            number of drivers
+	 * @param stage
+	 *            the stage's name
+	 * @param job
+	 *            the stage's completed job
+	 * @param start
+	 *            the stage's start time in millis
+	 * @return the report row
+	 * @throws Exception
+	 */
+	private static String buildRow(int drivers, String stage, Job job,
+			long start) throws Exception {
+		long millis = System.currentTimeMillis() - start;
+		if (!job.isSuccessful()) {
+			throw new IllegalStateException("Stage " + stage + " failed with "
+					+ drivers + " drivers");
+		}
+
+		long records = job.getCounters()
+				.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+		long shuffleBytes = job.getCounters()
+				.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue();
+		long recordsPerSec = Math.round(records / (millis / MILLIS_IN_SEC));
+		return drivers + DELIM + stage + DELIM + millis + DELIM + records
+				+ DELIM + recordsPerSec + DELIM + shuffleBytes;
+	}
+}
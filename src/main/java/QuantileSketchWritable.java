@@ -0,0 +1,297 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable mergeable quantile sketch of values, in the KLL way:
+ * levels of values where every value of level h stands for 2^h values. When
+ * the levels are full, the lowest full level is sorted and every other value
+ * of it moves up a level. Up to about k values the sketch is exact, and its
+ * size stays about 3k values however many are added.
+ */
+public class QuantileSketchWritable implements Writable {
+	public static final int DEFAULT_K = 200;
+	private static final double CAPACITY_RATIO = 2.0 / 3.0;
+	private static final int MIN_CAPACITY = 2;
+	private static final int INITIAL_LEVEL_SIZE = 8;
+	private int k = DEFAULT_K;
+	private long count = 0;
+	private int height = 0;
+	private double[][] levels = new double[0][];
+	private int[] sizes = new int[0];
+	private boolean isOddCompaction = false;
+
+	public QuantileSketchWritable() {
+		super();
+	}
+
+	// Java getters:
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Empty the sketch and set its accuracy.
+	 *
+	 * @param k
+	 *            size of the top level; larger is more accurate
+	 */
+	public void clear(int k) {
+		this.k = k;
+		count = 0;
+		height = 0;
+	}
+
+	/**
+	 * Add a value to the sketch.
+	 *
+	 * @param value
+	 *            the value
+	 */
+	public void add(double value) {
+		append(0, value);
+		count++;
+		compress();
+	}
+
+	/**
+	 * Add all the values of another sketch to this one.
+	 *
+	 * @param other
+	 *            the sketch to merge
+	 */
+	public void merge(QuantileSketchWritable other) {
+		for (int level = 0; level < other.height; level++) {
+			for (int i = 0; i < other.sizes[level]; i++) {
+				append(level, other.levels[level][i]);
+			}
+		}
+		count += other.count;
+		compress();
+	}
+
+	/**
+	 * Get the approximate quantile of the values.
+	 *
+	 * @param quantile
+	 *            the quantile, from 0 to 1
+	 * @return the value at the quantile, NaN if the sketch is empty
+	 */
+	public double getQuantile(double quantile) {
+		double[][] items = getWeightedItems(0, false);
+		return getWeightedQuantile(items, quantile);
+	}
+
+	/**
+	 * Get the approximate median absolute deviation of the values, from the
+	 * sketch's values and weights.
+	 *
+	 * @param median
+	 *            the values' median
+	 * @return the median of the values' distances from the median
+	 */
+	public double getMedianDeviation(double median) {
+		double[][] items = getWeightedItems(median, true);
+		return getWeightedQuantile(items, 0.5);
+	}
+
+	/**
+	 * Get the sketch's values with their weights, sorted by value.
+	 *
+	 * @param center
+	 *            the center to measure deviations from
+	 * @param isDeviation
+	 *            whether to get the values' absolute deviations from the
+	 *            center instead of the values
+	 * @return array of {value, weight} pairs
+	 */
+	private double[][] getWeightedItems(double center, boolean isDeviation) {
+		int itemsNo = 0;
+		for (int level = 0; level < height; level++) {
+			itemsNo += sizes[level];
+		}
+
+		double[][] items = new double[itemsNo][];
+		int item = 0;
+		for (int level = 0; level < height; level++) {
+			for (int i = 0; i < sizes[level]; i++) {
+				double value = levels[level][i];
+				if (isDeviation) {
+					value = Math.abs(value - center);
+				}
+				items[item] = new double[] { value, 1L << level };
+				item++;
+			}
+		}
+
+		Arrays.sort(items, new Comparator<double[]>() {
+			@Override
+			public int compare(double[] item1, double[] item2) {
+				return Double.compare(item1[0], item2[0]);
+			}
+		});
+		return items;
+	}
+
+	/**
+	 * Get the quantile of sorted weighted items.
+	 *
+	 * @param items
+	 *            sorted {value, weight} pairs
+	 * @param quantile
+	 *            the quantile, from 0 to 1
+	 * @return the first value whose cumulative weight reaches the quantile
+	 */
+	private static double getWeightedQuantile(double[][] items, double quantile) {
+		double totalWeight = 0;
+		for (double[] item : items) {
+			totalWeight += item[1];
+		}
+
+		double cumulative = 0;
+		for (double[] item : items) {
+			cumulative += item[1];
+			if (cumulative >= quantile * totalWeight) {
+				return item[0];
+			}
+		}
+		return Double.NaN; // no items
+	}
+
+	/**
+	 * Append a value to a level, adding levels as needed.
+	 *
+	 * @param level
+	 *            the level
+	 * @param value
+	 *            the value
+	 */
+	private void append(int level, double value) {
+		while (height <= level) {
+			addLevel();
+		}
+		if (sizes[level] == levels[level].length) {
+			levels[level] = Arrays.copyOf(levels[level], sizes[level] * 2);
+		}
+		levels[level][sizes[level]] = value;
+		sizes[level]++;
+	}
+
+	/**
+	 * Add an empty top level.
+	 */
+	private void addLevel() {
+		if (height == levels.length) {
+			levels = Arrays.copyOf(levels, height + 1);
+			sizes = Arrays.copyOf(sizes, height + 1);
+			levels[height] = new double[INITIAL_LEVEL_SIZE];
+		}
+		sizes[height] = 0;
+		height++;
+	}
+
+	/**
+	 * Get a level's capacity. Lower levels hold less, as each of their values
+	 * stands for fewer values.
+	 *
+	 * @param level
+	 *            the level
+	 * @return the level's capacity
+	 */
+	private int getCapacity(int level) {
+		int depth = height - 1 - level;
+		return Math.max(MIN_CAPACITY,
+				(int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+	}
+
+	/**
+	 * Compact full levels until the sketch fits its capacity.
+	 */
+	private void compress() {
+		while (true) {
+			int totalSize = 0;
+			int totalCapacity = 0;
+			for (int level = 0; level < height; level++) {
+				totalSize += sizes[level];
+				totalCapacity += getCapacity(level);
+			}
+			if (totalSize <= totalCapacity) {
+				return;
+			}
+
+			// Compact the lowest full level
+			for (int level = 0; level < height; level++) {
+				if (sizes[level] >= getCapacity(level)) {
+					compact(level);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sort a level and move every other value of it to the next level. The
+	 * kept half alternates between compactions, so the errors cancel out.
+	 *
+	 * @param level
+	 *            the level
+	 */
+	private void compact(int level) {
+		if (level + 1 == height) {
+			addLevel();
+		}
+		double[] values = levels[level];
+		int size = sizes[level];
+		Arrays.sort(values, 0, size);
+
+		// An odd value out stays in the level
+		int first = size % 2;
+		int offset = 0;
+		if (isOddCompaction) {
+			offset = 1;
+		}
+		isOddCompaction = !isOddCompaction;
+		for (int i = first + offset; i < size; i += 2) {
+			append(level + 1, values[i]);
+		}
+		sizes[level] = first;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		k = WritableUtils.readVInt(in);
+		count = WritableUtils.readVLong(in);
+		int levelsNo = WritableUtils.readVInt(in);
+		height = 0;
+		for (int level = 0; level < levelsNo; level++) {
+			addLevel();
+			int size = WritableUtils.readVInt(in);
+			for (int i = 0; i < size; i++) {
+				append(level, in.readDouble());
+			}
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, k);
+		WritableUtils.writeVLong(out, count);
+		WritableUtils.writeVInt(out, height);
+		for (int level = 0; level < height; level++) {
+			WritableUtils.writeVInt(out, sizes[level]);
+			for (int i = 0; i < sizes[level]; i++) {
+				out.writeDouble(levels[level][i]);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return count + " values, median " + getQuantile(0.5);
+	}
+}
@@ -0,0 +1,72 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+/**
+ * Mapper for hadoop. Gets the features of every trip, of all the behavior
+ * checks. The trip's vector is written aside to the VECTORS_OUTPUT named
+ * output by its driver, and offered to the driver's reservoir sample, which is
+ * written once the split is done.
+ */
+public class ReferenceSampleMap extends
+		Mapper<TripIdWritable, BytesWritable, Text, ReservoirWritable> {
+	public static final String SAMPLES = "trips.reference.samples";
+	public static final String SEED = "trips.reference.seed";
+	public static final String VECTORS_OUTPUT = "vectors";
+	static final long DEFAULT_SEED = 1;
+	private int samples;
+	private Random random;
+	private Map<String, ReservoirWritable> reservoirs = new HashMap<String, ReservoirWritable>();
+	private MultipleOutputs<Text, ReservoirWritable> vectorOutputs;
+	private SpeedSmoother smoother;
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		samples = context.getConfiguration().getInt(SAMPLES, 0);
+		random = new Random(context.getConfiguration().getLong(SEED,
+				DEFAULT_SEED));
+		vectorOutputs = new MultipleOutputs<Text, ReservoirWritable>(context);
+		smoother = SpeedSmoother.create(context.getConfiguration());
+	}
+
+	@Override
+	protected void map(TripIdWritable key, BytesWritable tripFile,
+			Context context) throws IOException, InterruptedException {
+		// Get the trip's value for every check, like the checks' mappers do
+		CheckType[] checks = CheckType.values();
+		double[] features = new double[checks.length];
+		for (int i = 0; i < checks.length; i++) {
+			features[i] = TripFeatures.compute(checks[i], key, tripFile,
+					smoother);
+		}
+		TripVectorWritable trip = new TripVectorWritable();
+		trip.set(key.getTripID(), features);
+
+		// Keep the vector for scoring, and sample it
+		vectorOutputs.write(VECTORS_OUTPUT, key.getDriverID(), trip);
+		String driverId = key.getDriverID().toString();
+		ReservoirWritable reservoir = reservoirs.get(driverId);
+		if (reservoir == null) {
+			reservoir = new ReservoirWritable();
+			reservoirs.put(driverId, reservoir);
+		}
+		reservoir.add(trip, samples, random);
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		for (Map.Entry<String, ReservoirWritable> entry : reservoirs
+				.entrySet()) {
+			context.write(new Text(entry.getKey()), entry.getValue());
+		}
+		vectorOutputs.close();
+	}
+}
@@ -0,0 +1,35 @@
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Merges a driver's reservoir samples from every split to
+ * a single sample of the driver's trips. Used as the combiner as well.
+ */
+public class ReferenceSampleReduce extends
+		Reducer<Text, ReservoirWritable, Text, ReservoirWritable> {
+	private int samples;
+	private Random random;
+	private ReservoirWritable driverSample = new ReservoirWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		samples = context.getConfiguration().getInt(
+				ReferenceSampleMap.SAMPLES, 0);
+		random = new Random(context.getConfiguration().getLong(
+				ReferenceSampleMap.SEED, ReferenceSampleMap.DEFAULT_SEED));
+	}
+
+	@Override
+	public void reduce(Text driverId, Iterable<ReservoirWritable> reservoirs,
+			Context context) throws IOException, InterruptedException {
+		driverSample.clear();
+		for (ReservoirWritable reservoir : reservoirs) {
+			driverSample.merge(reservoir, samples, random);
+		}
+		context.write(driverId, driverSample);
+	}
+}
@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Judges every driver's trips against a fixed-size
+ * reference set of other drivers' trips. The reference set is sampled from
+ * the drivers' reservoir samples, which are broadcast to every reducer through
+ * the distributed cache. A trip around which the other drivers' trips are
+ * denser than the driver's own is suspected. The stage costs O(drivers *
+ * sample size), not O(drivers^2).
+ */
+public class ReferenceScoreReduce extends
+		Reducer<Text, TripVectorWritable, Text, SuspicionsWritable> {
+	public static final String REFERENCE_SIZE = "trips.reference.size";
+	public static final String NEIGHBORS = "trips.reference.neighbors";
+	public static final String DENSITY_RATIO = "trips.reference.ratio";
+	private static final int DEFAULT_REFERENCE_SIZE = 500;
+	private static final int DEFAULT_NEIGHBORS = 5;
+	private static final double DEFAULT_DENSITY_RATIO = 1.0;
+	private int neighbors;
+	private double densityRatio;
+	private List<String> referenceOwners = new ArrayList<String>();
+	private List<double[]> reference = new ArrayList<double[]>();
+	private double[] scales;
+	private SuspicionsWritable suspicions = new SuspicionsWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		Configuration conf = context.getConfiguration();
+		neighbors = conf.getInt(NEIGHBORS, DEFAULT_NEIGHBORS);
+		densityRatio = conf.getDouble(DENSITY_RATIO, DEFAULT_DENSITY_RATIO);
+		int referenceSize = conf.getInt(REFERENCE_SIZE,
+				DEFAULT_REFERENCE_SIZE);
+		Random random = new Random(conf.getLong(ReferenceSampleMap.SEED,
+				ReferenceSampleMap.DEFAULT_SEED));
+
+		// Sample the reference set from all the drivers' samples
+		Text driverId = new Text();
+		ReservoirWritable driverSample = new ReservoirWritable();
+		long seen = 0;
+		for (URI samplesFile : context.getCacheFiles()) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+					SequenceFile.Reader.file(new Path(samplesFile)));
+			try {
+				while (reader.next(driverId, driverSample)) {
+					for (TripVectorWritable sample : driverSample.getSamples()) {
+						seen++;
+						if (reference.size() < referenceSize) {
+							referenceOwners.add(driverId.toString());
+							reference.add(sample.getFeatures());
+							continue;
+						}
+
+						// Replace a sample, with a chance of size/seen
+						long replaced = (long) (random.nextDouble() * seen);
+						if (replaced < referenceSize) {
+							referenceOwners.set((int) replaced,
+									driverId.toString());
+							reference.set((int) replaced, sample.getFeatures());
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		scales = getScales(reference);
+	}
+
+	@Override
+	public void reduce(Text tDriverID, Iterable<TripVectorWritable> trips,
+			Context context) throws IOException, InterruptedException {
+		String driverId = tDriverID.toString();
+
+		// Read the driver's trips
+		List<TripVectorWritable> driverTrips = new ArrayList<TripVectorWritable>();
+		int lastTripID = 0;
+		for (TripVectorWritable trip : trips) {
+			driverTrips.add(trip.copy());
+			lastTripID = Math.max(lastTripID, trip.getTripID());
+		}
+		SuspicionsWritable.checkTripIDs(driverId, driverTrips.size(),
+				lastTripID);
+
+		// The reference is the other drivers' samples
+		List<double[]> others = new ArrayList<double[]>();
+		for (int i = 0; i < reference.size(); i++) {
+			if (!referenceOwners.get(i).equals(driverId)) {
+				others.add(reference.get(i));
+			}
+		}
+
+		// Suspect the trips where the others' trips are denser than the
+		// driver's own
+		List<Integer> suspects = new ArrayList<Integer>();
+		for (TripVectorWritable trip : driverTrips) {
+			if (getDensityRatio(trip, driverTrips, others) > densityRatio) {
+				suspects.add(trip.getTripID());
+			}
+		}
+		Collections.sort(suspects);
+
+		suspicions.set(lastTripID, suspects);
+		context.write(tDriverID, suspicions);
+	}
+
+	/**
+	 * Get how much denser the other drivers' trips are around a trip than the
+	 * driver's own, by the distance to the k-th nearest trip of each. The
+	 * densities are per trip, so the reference set's size doesn't matter.
+	 * 
+	 * @param trip
+	 *            the trip
+	 * @param driverTrips
+	 *            the driver's trips, the trip among them
+	 * @param others
+	 *            the other drivers' reference trips
+	 * @return the others' density divided by the driver's, 0 if there are
+	 *         too few trips to tell
+	 */
+	private double getDensityRatio(TripVectorWritable trip,
+			List<TripVectorWritable> driverTrips, List<double[]> others) {
+		int ownNo = driverTrips.size() - 1;
+		if (ownNo < neighbors || others.size() < neighbors) {
+			return 0;
+		}
+
+		double[] features = trip.getFeatures();
+		double[] ownNearest = new double[neighbors];
+		int found = 0;
+		for (TripVectorWritable driverTrip : driverTrips) {
+			if (driverTrip != trip) {
+				found = addNeighbor(ownNearest, found,
+						getDistance(features, driverTrip.getFeatures()));
+			}
+		}
+		double[] othersNearest = new double[neighbors];
+		found = 0;
+		for (double[] other : others) {
+			found = addNeighbor(othersNearest, found,
+					getDistance(features, other));
+		}
+
+		// Density ~ k / (trips * radius^dimensions), distances are squared
+		double halfDims = features.length / 2.0;
+		double ownVolume = ownNo
+				* Math.pow(ownNearest[neighbors - 1], halfDims);
+		double othersVolume = others.size()
+				* Math.pow(othersNearest[neighbors - 1], halfDims);
+		return ownVolume / othersVolume;
+	}
+
+	/**
+	 * Add a distance to the nearest distances, if it's near enough.
+	 * 
+	 * @param nearest
+	 *            the nearest distances, sorted
+	 * @param found
+	 *            number of nearest distances so far
+	 * @param distance
+	 *            the distance
+	 * @return the new number of nearest distances
+	 */
+	private static int addNeighbor(double[] nearest, int found, double distance) {
+		int i = found;
+		if (found == nearest.length) {
+			if (distance >= nearest[found - 1]) {
+				return found;
+			}
+			i--; // the farthest is dropped
+		} else {
+			found++;
+		}
+
+		// Insert the distance in its place
+		while (i > 0 && nearest[i - 1] > distance) {
+			nearest[i] = nearest[i - 1];
+			i--;
+		}
+		nearest[i] = distance;
+		return found;
+	}
+
+	/**
+	 * Get the squared distance of two trips, every feature measured in its
+	 * standard deviations, so no check outweighs the others.
+	 * 
+	 * @param features1
+	 *            a trip's features
+	 * @param features2
+	 *            another trip's features
+	 * @return the squared distance
+	 */
+	private double getDistance(double[] features1, double[] features2) {
+		double distance = 0;
+		for (int i = 0; i < features1.length; i++) {
+			double diff = (features1[i] - features2[i]) / scales[i];
+			distance += diff * diff;
+		}
+		return distance;
+	}
+
+	/**
+	 * Get the standard deviation of every feature in the trips.
+	 * 
+	 * @param trips
+	 *            the trips' features
+	 * @return every feature's standard deviation, 1 if the feature is
+	 *         constant
+	 */
+	private static double[] getScales(List<double[]> trips) {
+		int featuresNo = CheckType.values().length;
+		double[] sums = new double[featuresNo];
+		double[] squares = new double[featuresNo];
+		for (double[] trip : trips) {
+			for (int i = 0; i < featuresNo; i++) {
+				sums[i] += trip[i];
+				squares[i] += trip[i] * trip[i];
+			}
+		}
+
+		double[] scales = new double[featuresNo];
+		for (int i = 0; i < featuresNo; i++) {
+			scales[i] = 1;
+			if (!trips.isEmpty()) {
+				double mean = sums[i] / trips.size();
+				double variance = squares[i] / trips.size() - mean * mean;
+				if (variance > 0) {
+					scales[i] = Math.sqrt(variance);
+				}
+			}
+		}
+		return scales;
+	}
+}
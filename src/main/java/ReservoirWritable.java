@@ -0,0 +1,130 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable reservoir sample of a driver's trip vectors: a uniform
+ * sample of up to a fixed number of the trips, and the number of trips it was
+ * sampled from. Reservoirs of separate trips of a driver merge to a sample of
+ * all of them, so they can be sampled map-side and merged by a combiner.
+ */
+public class ReservoirWritable implements Writable {
+	private long seen = 0;
+	private List<TripVectorWritable> samples = new ArrayList<TripVectorWritable>();
+
+	public ReservoirWritable() {
+		super();
+	}
+
+	// Java getters:
+	public long getSeen() {
+		return seen;
+	}
+
+	public List<TripVectorWritable> getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Empty the reservoir.
+	 */
+	public void clear() {
+		seen = 0;
+		samples.clear();
+	}
+
+	/**
+	 * Offer a trip to the reservoir. Every trip seen has the same chance to
+	 * be in the sample.
+	 * 
+	 * @param trip
+	 *            the trip's vector, kept as is
+	 * @param size
+	 *            the sample's size
+	 * @param random
+	 *            the random to sample by
+	 */
+	public void add(TripVectorWritable trip, int size, Random random) {
+		seen++;
+		if (samples.size() < size) {
+			samples.add(trip);
+			return;
+		}
+
+		// Replace a sample, with a chance of size/seen
+		long replaced = (long) (random.nextDouble() * seen);
+		if (replaced < size) {
+			samples.set((int) replaced, trip);
+		}
+	}
+
+	/**
+	 * Merge another reservoir into this one. The merged sample is a uniform
+	 * sample of the trips both have seen: every sample slot is taken from
+	 * either reservoir by its share of the trips not taken yet.
+	 * 
+	 * @param other
+	 *            the reservoir to merge
+	 * @param size
+	 *            the sample's size
+	 * @param random
+	 *            the random to sample by
+	 */
+	public void merge(ReservoirWritable other, int size, Random random) {
+		List<TripVectorWritable> mine = new ArrayList<TripVectorWritable>(
+				samples);
+		List<TripVectorWritable> others = new ArrayList<TripVectorWritable>();
+		for (TripVectorWritable sample : other.samples) {
+			others.add(sample.copy());
+		}
+		Collections.shuffle(mine, random);
+		Collections.shuffle(others, random);
+
+		long mineLeft = seen;
+		long othersLeft = other.seen;
+		samples.clear();
+		while (samples.size() < size && mineLeft + othersLeft > 0) {
+			if (random.nextDouble() * (mineLeft + othersLeft) < mineLeft) {
+				samples.add(mine.remove(mine.size() - 1));
+				mineLeft--;
+			} else {
+				samples.add(others.remove(others.size() - 1));
+				othersLeft--;
+			}
+		}
+		seen += other.seen;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		seen = WritableUtils.readVLong(in);
+		int size = WritableUtils.readVInt(in);
+		samples.clear();
+		for (int i = 0; i < size; i++) {
+			TripVectorWritable sample = new TripVectorWritable();
+			sample.readFields(in);
+			samples.add(sample);
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVLong(out, seen);
+		WritableUtils.writeVInt(out, samples.size());
+		for (TripVectorWritable sample : samples) {
+			sample.write(out);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return samples.size() + " of " + seen + " trips";
+	}
+}
@@ -0,0 +1,200 @@
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Computes a trip's route fingerprint: a MinHash signature of the grid cells
+ * the route goes through. The route is first normalised, as the trips start
+ * at (0, 0) turned and mirrored at random: it's rotated so its end (or its
+ * farthest point, for round trips) lies on the x axis, resampled by distance
+ * and mirrored so most of it is above the axis, and its cells are sized by
+ * its length. Trips along the same route get similar signatures, whose LSH
+ * bands find them without comparing every pair.
+ */
+public class RouteFingerprint {
+	public static final int BANDS = 16;
+	public static final int ROWS = 4;
+	public static final int HASHES = BANDS * ROWS;
+	private static final int RESAMPLED_POINTS = 64;
+	private static final int CELLS_ALONG = 32; // cells in the route's length
+	private static final int GRID_SHIFTS = 2;
+	private static final double MIN_END_DISTANCE = 100; // meters
+	private static final double MIN_ROUTE_LENGTH = 500; // meters
+	private static final long HASH_SEED = 1;
+	private static final long[] HASH_SALTS = new long[HASHES];
+
+	static {
+		// The same hash functions in every task
+		Random random = new Random(HASH_SEED);
+		for (int i = 0; i < HASHES; i++) {
+			HASH_SALTS[i] = random.nextLong();
+		}
+	}
+
+	/**
+	 * Compute the fingerprint of a trip.
+	 * 
+	 * @param trip
+	 *            the trip's points
+	 * @return the trip's MinHash signature, or null if the trip is too short
+	 *         to have a route
+	 */
+	public static int[] compute(List<TripPoint> trip) {
+		if (trip.size() < 2) {
+			return null;
+		}
+
+		// Get the points from the trip's start, and the distance along it
+		int size = trip.size();
+		double[] xs = new double[size];
+		double[] ys = new double[size];
+		double[] along = new double[size];
+		TripPoint start = trip.get(0);
+		for (int i = 0; i < size; i++) {
+			xs[i] = trip.get(i).getX() - start.getX();
+			ys[i] = trip.get(i).getY() - start.getY();
+			if (i > 0) {
+				along[i] = along[i - 1]
+						+ trip.get(i).getDistFrom(trip.get(i - 1));
+			}
+		}
+		double length = along[size - 1];
+		if (length < MIN_ROUTE_LENGTH) {
+			return null;
+		}
+
+		// Turn the route so its end lies on the x axis
+		int anchor = getAnchor(xs, ys);
+		double angle = Math.atan2(ys[anchor], xs[anchor]);
+		double cos = Math.cos(-angle);
+		double sin = Math.sin(-angle);
+
+		// Resample the route by distance, so speed doesn't matter
+		double[] routeXs = new double[RESAMPLED_POINTS];
+		double[] routeYs = new double[RESAMPLED_POINTS];
+		double ySum = 0;
+		int i = 0;
+		for (int p = 0; p < RESAMPLED_POINTS; p++) {
+			double target = length * p / (RESAMPLED_POINTS - 1);
+			while (i < size - 2 && along[i + 1] < target) {
+				i++;
+			}
+			double segment = along[i + 1] - along[i];
+			double part = 0;
+			if (segment > 0) {
+				part = Math.min(1, (target - along[i]) / segment);
+			}
+			double x = xs[i] + part * (xs[i + 1] - xs[i]);
+			double y = ys[i] + part * (ys[i + 1] - ys[i]);
+			routeXs[p] = x * cos - y * sin;
+			routeYs[p] = x * sin + y * cos;
+			ySum += routeYs[p];
+		}
+
+		// Mirror the route so most of it is above the axis, and get its cells
+		// sized by its length. The cells of shifted grids are added too, so a
+		// point near a cell's edge doesn't change all of the point's cells.
+		double cellSize = length / CELLS_ALONG;
+		Set<Long> cells = new HashSet<Long>();
+		for (int p = 0; p < RESAMPLED_POINTS; p++) {
+			double y = routeYs[p];
+			if (ySum < 0) {
+				y = -y;
+			}
+			for (int shift = 0; shift < GRID_SHIFTS; shift++) {
+				double offset = cellSize * shift / GRID_SHIFTS;
+				long cellX = (long) Math.floor((routeXs[p] + offset) / cellSize);
+				long cellY = (long) Math.floor((y + offset) / cellSize);
+				long cell = (cellX << 32) ^ (cellY & 0xffffffffL);
+				cells.add(cell * GRID_SHIFTS + shift);
+			}
+		}
+		return minHash(cells);
+	}
+
+	/**
+	 * Get the point the route is turned by: its end, or its farthest point
+	 * if it ends near its start.
+	 * 
+	 * @param xs
+	 *            the points' x from the start
+	 * @param ys
+	 *            the points' y from the start
+	 * @return the anchor point's index
+	 */
+	private static int getAnchor(double[] xs, double[] ys) {
+		int end = xs.length - 1;
+		if (Math.hypot(xs[end], ys[end]) >= MIN_END_DISTANCE) {
+			return end;
+		}
+
+		int farthest = 0;
+		for (int i = 1; i < xs.length; i++) {
+			if (Math.hypot(xs[i], ys[i]) > Math.hypot(xs[farthest],
+					ys[farthest])) {
+				farthest = i;
+			}
+		}
+		return farthest;
+	}
+
+	/**
+	 * Get the MinHash signature of a set of cells: the minimal hash of the
+	 * cells by every hash function.
+	 * 
+	 * @param cells
+	 *            the cells
+	 * @return the signature
+	 */
+	private static int[] minHash(Set<Long> cells) {
+		long[] mins = new long[HASHES];
+		for (int h = 0; h < HASHES; h++) {
+			mins[h] = Long.MAX_VALUE;
+		}
+		for (Long cell : cells) {
+			for (int h = 0; h < HASHES; h++) {
+				mins[h] = Math.min(mins[h], mix(cell ^ HASH_SALTS[h]));
+			}
+		}
+
+		int[] signature = new int[HASHES];
+		for (int h = 0; h < HASHES; h++) {
+			signature[h] = (int) (mins[h] >>> 32);
+		}
+		return signature;
+	}
+
+	/**
+	 * Scramble a value's bits (SplitMix64's finalizer).
+	 * 
+	 * @param value
+	 *            the value
+	 * @return the scrambled value, non-negative
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+		value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+		return (value ^ (value >>> 31)) >>> 1;
+	}
+
+	/**
+	 * Estimate the similarity of two routes from their signatures.
+	 * 
+	 * @param signature1
+	 *            a route's signature
+	 * @param signature2
+	 *            another route's signature
+	 * @return the share of equal hashes, estimating the routes' cells'
+	 *         Jaccard similarity
+	 */
+	public static double getSimilarity(int[] signature1, int[] signature2) {
+		int equal = 0;
+		for (int h = 0; h < HASHES; h++) {
+			if (signature1[h] == signature2[h]) {
+				equal++;
+			}
+		}
+		return (double) equal / HASHES;
+	}
+}
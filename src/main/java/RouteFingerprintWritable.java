@@ -0,0 +1,74 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable of a trip's route fingerprint. A trip too short to have a
+ * route has an empty fingerprint.
+ */
+public class RouteFingerprintWritable implements Writable {
+	private static final String DELIM = ":";
+	private int tripID = 0;
+	private int[] signature = new int[0];
+
+	public RouteFingerprintWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int getTripID() {
+		return tripID;
+	}
+
+	public int[] getSignature() {
+		return signature;
+	}
+
+	public boolean hasRoute() {
+		return signature.length > 0;
+	}
+
+	/**
+	 * Set the trip's fingerprint.
+	 * 
+	 * @param tripID
+	 *            the trip id
+	 * @param signature
+	 *            the route's signature, null if the trip has no route
+	 */
+	public void set(int tripID, int[] signature) {
+		if (signature == null) {
+			signature = new int[0];
+		}
+		this.tripID = tripID;
+		this.signature = signature;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		tripID = WritableUtils.readVInt(in);
+		int size = WritableUtils.readVInt(in);
+		signature = new int[size];
+		for (int i = 0; i < size; i++) {
+			signature[i] = in.readInt();
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, tripID);
+		WritableUtils.writeVInt(out, signature.length);
+		for (int hash : signature) {
+			out.writeInt(hash);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return tripID + DELIM + Arrays.toString(signature);
+	}
+}
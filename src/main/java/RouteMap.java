@@ -0,0 +1,39 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Mapper for hadoop. Gets the route fingerprint of every trip, for the routes'
+ * job when the acceleration check hasn't fingerprinted the trips in its parse.
+ */
+public class RouteMap extends
+		Mapper<TripIdWritable, BytesWritable, Text, RouteFingerprintWritable> {
+	private RouteFingerprintWritable fingerprint = new RouteFingerprintWritable();
+
+	@Override
+	protected void map(TripIdWritable key, BytesWritable tripFile,
+			Context context) throws IOException, InterruptedException {
+		fingerprint.set(key.getTripID(),
+				RouteFingerprint.compute(AccelrMap.parseTrip(tripFile)));
+		context.write(key.getDriverID(), fingerprint);
+	}
+
+	/**
+	 * Mapper for hadoop. Gets the route fingerprint of every simplified trip,
+	 * from its kept points.
+	 */
+	public static class Simplified extends
+			Mapper<TripIdWritable, SimplifiedTripWritable, Text, RouteFingerprintWritable> {
+		private RouteFingerprintWritable fingerprint = new RouteFingerprintWritable();
+
+		@Override
+		protected void map(TripIdWritable key, SimplifiedTripWritable trip,
+				Context context) throws IOException, InterruptedException {
+			fingerprint.set(key.getTripID(),
+					RouteFingerprint.compute(trip.getPoints()));
+			context.write(key.getDriverID(), fingerprint);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Finds a driver's repeated routes: the trips' signatures
+ * are split to LSH bands, and only trips sharing a band are compared, so a
+ * driver takes near linear time. Every trip's repetition score is the number
+ * of the driver's trips along its route; the trips scoring at least
+ * MIN_REPEATS are written in the checks' format, as evidence they're the
+ * driver's.
+ */
+public class RouteReduce extends
+		Reducer<Text, RouteFingerprintWritable, Text, SuspicionsWritable> {
+	public static final String SIMILARITY = "trips.routes.similarity";
+	public static final String MIN_REPEATS = "trips.routes.repeats";
+	private static final double DEFAULT_SIMILARITY = 0.65;
+	private static final int DEFAULT_MIN_REPEATS = 1;
+	private double similarity;
+	private int minRepeats;
+	private SuspicionsWritable repeated = new SuspicionsWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		similarity = context.getConfiguration().getDouble(SIMILARITY,
+				DEFAULT_SIMILARITY);
+		minRepeats = context.getConfiguration().getInt(MIN_REPEATS,
+				DEFAULT_MIN_REPEATS);
+	}
+
+	@Override
+	public void reduce(Text driverId,
+			Iterable<RouteFingerprintWritable> fingerprints, Context context)
+			throws IOException, InterruptedException {
+		// Read the driver's routes
+		List<Integer> tripIDs = new ArrayList<Integer>();
+		List<int[]> signatures = new ArrayList<int[]>();
+		int lastTripID = 0;
+		int trips = 0;
+		for (RouteFingerprintWritable fingerprint : fingerprints) {
+			lastTripID = Math.max(lastTripID, fingerprint.getTripID());
+			trips++;
+			if (fingerprint.hasRoute()) {
+				tripIDs.add(fingerprint.getTripID());
+				signatures.add(fingerprint.getSignature());
+			}
+		}
+
+		SuspicionsWritable.checkTripIDs(driverId, trips, lastTripID);
+
+		int[] scores = getRepetitionScores(signatures);
+		List<Integer> repeatedTrips = new ArrayList<Integer>();
+		for (int i = 0; i < scores.length; i++) {
+			if (scores[i] >= minRepeats) {
+				repeatedTrips.add(tripIDs.get(i));
+			}
+		}
+		Collections.sort(repeatedTrips);
+
+		repeated.set(lastTripID, repeatedTrips);
+		context.write(driverId, repeated);
+	}
+
+	/**
+	 * Get every route's repetition score. Routes sharing an LSH band are
+	 * candidates, and the candidates similar enough by their whole
+	 * signatures are repeats.
+	 * 
+	 * @param signatures
+	 *            the routes' signatures
+	 * @return number of similar routes of every route
+	 */
+	private int[] getRepetitionScores(List<int[]> signatures) {
+		int[] scores = new int[signatures.size()];
+		Set<Long> comparedPairs = new HashSet<Long>();
+
+		for (int band = 0; band < RouteFingerprint.BANDS; band++) {
+			// Bucket the routes by the band's hashes
+			Map<Long, List<Integer>> buckets = new HashMap<Long, List<Integer>>();
+			for (int i = 0; i < signatures.size(); i++) {
+				Long bandKey = getBandKey(signatures.get(i), band);
+				List<Integer> bucket = buckets.get(bandKey);
+				if (bucket == null) {
+					bucket = new ArrayList<Integer>();
+					buckets.put(bandKey, bucket);
+				}
+				bucket.add(i);
+			}
+
+			// Compare the bucket's routes, every pair once
+			for (List<Integer> bucket : buckets.values()) {
+				for (int i = 0; i < bucket.size(); i++) {
+					for (int j = i + 1; j < bucket.size(); j++) {
+						int route1 = bucket.get(i);
+						int route2 = bucket.get(j);
+						long pair = (long) route1 * signatures.size() + route2;
+						if (!comparedPairs.add(pair)) {
+							continue;
+						}
+						if (RouteFingerprint.getSimilarity(
+								signatures.get(route1), signatures.get(route2)) >= similarity) {
+							scores[route1]++;
+							scores[route2]++;
+						}
+					}
+				}
+			}
+		}
+		return scores;
+	}
+
+	/**
+	 * Get a band's key in a signature.
+	 * 
+	 * @param signature
+	 *            the signature
+	 * @param band
+	 *            the band
+	 * @return the band's hashes, combined
+	 */
+	private static long getBandKey(int[] signature, int band) {
+		long key = 0;
+		for (int row = 0; row < RouteFingerprint.ROWS; row++) {
+			key = key * 31 + signature[band * RouteFingerprint.ROWS + row];
+		}
+		return key;
+	}
+}
@@ -0,0 +1,282 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.io.MD5Hash;
+
+/**
+ * Checkpoints of a pipeline run. With a run folder (-D trips.run.dir=...),
+ * every stage's output is committed under it with a fingerprint of the
+ * stage's input and the run's trips.* settings. A rerun skips the stages done
+ * with the same fingerprint, and resumes from the first one which isn't.
+ * Stages named in trips.run.force (or "all") always run. Without a run
+ * folder, the stages' outputs are in the working folder and always run.
+ */
+public class RunCheckpoints {
+	private static final Log LOG = LogFactory.getLog(RunCheckpoints.class);
+	public static final String RUN_DIR = "trips.run.dir";
+	public static final String FORCE = "trips.run.force";
+	private static final String ALL_STAGES = "all";
+	private static final String SETTINGS_PREFIX = "trips.";
+	private static final String FINGERPRINT_FILE = "_fingerprint";
+	private static final String SUCCESS_FILE = "_SUCCESS";
+	private static final String ENCODING = "UTF-8";
+	private static final char FIELDS_DELIM = '\t';
+	private static final char LINES_DELIM = '\n';
+	private final Configuration conf;
+	private final Path runDir;
+	private final Set<String> forced = new HashSet<String>();
+	private final Map<String, String> inputFingerprints = new HashMap<String, String>();
+	private boolean hasStageRun = false;
+
+	/**
+	 * Construct the run's checkpoints.
+	 * 
+	 * @param conf
+	 *            the user's configuration
+	 */
+	public RunCheckpoints(Configuration conf) {
+		this.conf = conf;
+		String dir = conf.getTrimmed(RUN_DIR);
+		if (dir == null || dir.isEmpty()) {
+			runDir = null;
+		} else {
+			runDir = new Path(dir);
+		}
+		for (String stage : conf.getTrimmedStrings(FORCE)) {
+			forced.add(stage);
+		}
+	}
+
+	// Java getters:
+	public boolean isCheckpointing() {
+		return runDir != null;
+	}
+
+	/**
+	 * Check whether a stage has run in this process, so the stages reading
+	 * its output must run too.
+	 * 
+	 * @return true if any stage has been committed
+	 */
+	public boolean hasStageRun() {
+		return hasStageRun;
+	}
+
+	/**
+	 * Get the path of a stage's output: in the run folder, or in the working
+	 * folder if there's none.
+	 * 
+	 * @param stage
+	 *            the stage's folder name
+	 * @return the stage's path
+	 */
+	public Path getPath(String stage) {
+		if (runDir == null) {
+			return new Path(stage);
+		}
+		return new Path(runDir, stage);
+	}
+
+	/**
+	 * Get a stage's fingerprint: a hash of its name, its input's parts and
+	 * the run's trips.* settings.
+	 * 
+	 * @param stage
+	 *            the stage's name
+	 * @param inputParts
+	 *            fingerprints or names of everything else the stage's output
+	 *            depends on
+	 * @return the fingerprint
+	 */
+	public String getFingerprint(String stage, String... inputParts) {
+		StringBuilder builder = new StringBuilder(stage);
+		for (String part : inputParts) {
+			builder.append(LINES_DELIM).append(part);
+		}
+
+		// The settings, sorted, without the run's own
+		Map<String, String> settings = new TreeMap<String, String>();
+		for (Map.Entry<String, String> setting : conf) {
+			String name = setting.getKey();
+			if (name.startsWith(SETTINGS_PREFIX) && !name.equals(RUN_DIR)
+					&& !name.equals(FORCE)) {
+				settings.put(name, setting.getValue());
+			}
+		}
+		for (Map.Entry<String, String> setting : settings.entrySet()) {
+			builder.append(LINES_DELIM).append(setting.getKey())
+					.append(FIELDS_DELIM).append(setting.getValue());
+		}
+		return MD5Hash.digest(builder.toString()).toString();
+	}
+
+	/**
+	 * Get the fingerprint of an input path: a hash of every file under it,
+	 * with its length and modification time. Every input is listed once.
+	 * 
+	 * @param input
+	 *            the input path
+	 * @return the input's fingerprint
+	 * @throws IOException
+	 */
+	public String getInputFingerprint(String input) throws IOException {
+		String fingerprint = inputFingerprints.get(input);
+		if (fingerprint != null) {
+			return fingerprint;
+		}
+
+		Path inPath = new Path(input);
+		List<FileStatus> files = new ArrayList<FileStatus>();
+		RemoteIterator<LocatedFileStatus> iter = inPath.getFileSystem(conf)
+				.listFiles(inPath, true);
+		while (iter.hasNext()) {
+			files.add(iter.next());
+		}
+		setInputFiles(input, files);
+		return inputFingerprints.get(input);
+	}
+
+	/**
+	 * Set the files under an input path, listed elsewhere (see
+	 * InputManifest), so its fingerprint is found without listing it again.
+	 * 
+	 * @param input
+	 *            the input path
+	 * @param inputFiles
+	 *            every file under it
+	 */
+	public void setInputFiles(String input, List<FileStatus> inputFiles) {
+		Map<String, String> files = new TreeMap<String, String>();
+		for (FileStatus file : inputFiles) {
+			files.put(file.getPath().toString(), file.getLen()
+					+ FIELDS_DELIM + "" + file.getModificationTime());
+		}
+
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, String> file : files.entrySet()) {
+			builder.append(file.getKey()).append(FIELDS_DELIM)
+					.append(file.getValue()).append(LINES_DELIM);
+		}
+		inputFingerprints.put(input, MD5Hash.digest(builder.toString())
+				.toString());
+	}
+
+	/**
+	 * Check whether a stage is done with the same fingerprint, so it can be
+	 * skipped.
+	 * 
+	 * @param stage
+	 *            the stage's name
+	 * @param output
+	 *            the stage's output folder
+	 * @param fingerprint
+	 *            the stage's current fingerprint
+	 * @return true if the stage can be skipped
+	 * @throws IOException
+	 */
+	public boolean isDone(String stage, Path output, String fingerprint)
+			throws IOException {
+		if (runDir == null || forced.contains(stage)
+				|| forced.contains(ALL_STAGES)) {
+			return false;
+		}
+
+		FileSystem fs = output.getFileSystem(conf);
+		if (!fs.exists(new Path(output, SUCCESS_FILE))) {
+			return false;
+		}
+		if (!fingerprint.equals(readFingerprint(output))) {
+			return false;
+		}
+		LOG.info("Skipping stage " + stage + ", done in " + output);
+		return true;
+	}
+
+	/**
+	 * Delete a stage's previous outputs in the run folder before it runs.
+	 * Without a run folder, the outputs are left for hadoop to refuse.
+	 * 
+	 * @param outputs
+	 *            the stage's output folders
+	 * @throws IOException
+	 */
+	public void prepare(Path... outputs) throws IOException {
+		if (runDir == null) {
+			return;
+		}
+		for (Path output : outputs) {
+			output.getFileSystem(conf).delete(output, true);
+		}
+	}
+
+	/**
+	 * Commit a stage's output which completed successfully, by writing its
+	 * fingerprint next to hadoop's success marker.
+	 * 
+	 * @param output
+	 *            the stage's output folder
+	 * @param fingerprint
+	 *            the stage's fingerprint
+	 * @throws IOException
+	 */
+	public void commit(Path output, String fingerprint) throws IOException {
+		hasStageRun = true;
+		if (runDir == null) {
+			return;
+		}
+
+		FSDataOutputStream out = output.getFileSystem(conf).create(
+				new Path(output, FINGERPRINT_FILE), true);
+		try {
+			out.write(fingerprint.getBytes(ENCODING));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read a stage's committed fingerprint, for the stages reading its
+	 * output.
+	 * 
+	 * @param output
+	 *            the stage's output folder
+	 * @return the fingerprint, or an empty string if it isn't committed
+	 * @throws IOException
+	 */
+	public String readFingerprint(Path output) throws IOException {
+		Path file = new Path(output, FINGERPRINT_FILE);
+		FileSystem fs = file.getFileSystem(conf);
+		if (!fs.exists(file)) {
+			return "";
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				fs.open(file), ENCODING));
+		try {
+			String line = reader.readLine();
+			if (line == null) {
+				return "";
+			}
+			return line;
+		} finally {
+			reader.close();
+		}
+	}
+}
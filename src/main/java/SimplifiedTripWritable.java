@@ -0,0 +1,139 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable of a simplified trip: the kept points, each with its index
+ * in the original trip - its second. The points are kept in decimeters, the
+ * dataset's precision, and written as varint deltas from the previous point.
+ */
+public class SimplifiedTripWritable implements Writable {
+	private static final double DECIMETERS = 10.0;
+	private int size = 0;
+	private int[] indices = new int[0];
+	private long[] xs = new long[0];
+	private long[] ys = new long[0];
+
+	public SimplifiedTripWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int size() {
+		return size;
+	}
+
+	public int getIndex(int point) {
+		return indices[point];
+	}
+
+	public double getX(int point) {
+		return xs[point] / DECIMETERS;
+	}
+
+	public double getY(int point) {
+		return ys[point] / DECIMETERS;
+	}
+
+	/**
+	 * Set the trip's kept points.
+	 * 
+	 * @param trip
+	 *            the original trip's points
+	 * @param kept
+	 *            the indices of the kept points, ascending
+	 */
+	public void set(List<TripPoint> trip, int[] kept) {
+		ensureCapacity(kept.length);
+		size = kept.length;
+		for (int i = 0; i < size; i++) {
+			TripPoint point = trip.get(kept[i]);
+			indices[i] = kept[i];
+			xs[i] = Math.round(point.getX() * DECIMETERS);
+			ys[i] = Math.round(point.getY() * DECIMETERS);
+		}
+	}
+
+	/**
+	 * Get the kept points.
+	 * 
+	 * @return the kept points
+	 */
+	public List<TripPoint> getPoints() {
+		List<TripPoint> points = new ArrayList<TripPoint>(size);
+		for (int i = 0; i < size; i++) {
+			points.add(new TripPoint(getX(i), getY(i)));
+		}
+		return points;
+	}
+
+	/**
+	 * Get the trip's final point, which simplifying always keeps.
+	 * 
+	 * @return the final point, or null if the trip has no points
+	 */
+	public TripPoint getLastPoint() {
+		if (size == 0) {
+			return null;
+		}
+		return new TripPoint(getX(size - 1), getY(size - 1));
+	}
+
+	/**
+	 * Make room for the points.
+	 * 
+	 * @param capacity
+	 *            number of points
+	 */
+	private void ensureCapacity(int capacity) {
+		if (indices.length < capacity) {
+			indices = Arrays.copyOf(indices, capacity);
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		size = WritableUtils.readVInt(in);
+		ensureCapacity(size);
+		int index = 0;
+		long x = 0;
+		long y = 0;
+		for (int i = 0; i < size; i++) {
+			index += WritableUtils.readVInt(in);
+			x += WritableUtils.readVLong(in);
+			y += WritableUtils.readVLong(in);
+			indices[i] = index;
+			xs[i] = x;
+			ys[i] = y;
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, size);
+		int index = 0;
+		long x = 0;
+		long y = 0;
+		for (int i = 0; i < size; i++) {
+			WritableUtils.writeVInt(out, indices[i] - index);
+			WritableUtils.writeVLong(out, xs[i] - x);
+			WritableUtils.writeVLong(out, ys[i] - y);
+			index = indices[i];
+			x = xs[i];
+			y = ys[i];
+		}
+	}
+
+	@Override
+	public String toString() {
+		return size + " points";
+	}
+}
@@ -0,0 +1,47 @@
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Mapper for hadoop. Simplifies every trip, keeping its original number of
+ * lines in its key for the time check, and counts the points before and
+ * after.
+ */
+public class SimplifyMap extends
+		Mapper<TripIdWritable, BytesWritable, TripIdWritable, SimplifiedTripWritable> {
+	public static final String TOLERANCE = "trips.simplify.tolerance";
+	private double tolerance;
+	private SimplifiedTripWritable simplified = new SimplifiedTripWritable();
+
+	/**
+	 * The job's counters of points.
+	 */
+	public static enum Points {
+		RAW, KEPT
+	}
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		tolerance = context.getConfiguration().getDouble(TOLERANCE, 0);
+	}
+
+	@Override
+	protected void map(TripIdWritable key, BytesWritable tripFile,
+			Context context) throws IOException, InterruptedException {
+		// Index the trip's lines in its key, if the input hasn't already
+		if (key.getLines() == TripIdWritable.UNKNOWN_LINES) {
+			key.setLines(TimeMap.countLines(tripFile.getBytes(), 0,
+					tripFile.getLength()));
+		}
+
+		List<TripPoint> trip = AccelrMap.parseTrip(tripFile);
+		int[] kept = TripSimplifier.simplify(trip, tolerance);
+		simplified.set(trip, kept);
+		context.getCounter(Points.RAW).increment(trip.size());
+		context.getCounter(Points.KEPT).increment(kept.length);
+		context.write(key, simplified);
+	}
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+
+/**
+ * Measures how the sketch suspicions agree with the clustering ones. Runs
+ * every check both ways on the same trips, and prints per check the number of
+ * trips each way suspects, how many both suspect, and the sketches'
+ * precision and recall taking the clustering as the truth.
+ */
+public class SketchAccuracy {
+	private static final int INPUT_ARG = 0;
+	private static final String PARTS_GLOB = "part-*";
+	private static final String HEADER = "check,cluster_suspects,sketch_suspects,common,precision,recall";
+	private static final String DELIM = ",";
+
+	/**
+	 * Compares the ways of suspicion.
+	 *
+	 * @param args
+	 *            hadoop's generic options (the sketches' settings) and the
+	 *            input path
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		args = Driver.parseArgs(args);
+		String input = args[INPUT_ARG];
+
+		StringBuilder report = new StringBuilder(HEADER);
+		for (CheckType check : CheckType.values()) {
+			Set<String> clusterSuspects = analyze(input, check, false);
+			Set<String> sketchSuspects = analyze(input, check, true);
+
+			Set<String> common = new HashSet<String>(clusterSuspects);
+			common.retainAll(sketchSuspects);
+			report.append('\n').append(check).append(DELIM)
+					.append(clusterSuspects.size()).append(DELIM)
+					.append(sketchSuspects.size()).append(DELIM)
+					.append(common.size()).append(DELIM)
+					.append(getRatio(common.size(), sketchSuspects.size()))
+					.append(DELIM)
+					.append(getRatio(common.size(), clusterSuspects.size()));
+		}
+
+		// Print once done, so the jobs' logs don't mix with the report
+		System.out.println(report);
+	}
+
+	/**
+	 * Analyze a check's trips one way, and read its suspected trips.
+	 *
+	 * @param input
+	 *            the input path
+	 * @param check
+	 *            the check
+	 * @param isSketch
+	 *            true to suspect by sketches, false by clustering
+	 * @return the suspected trips, as "driver_trip"
+	 * @throws IOException
+	 *             if the check's jobs failed
+	 * @throws InterruptedException
+	 * @throws ClassNotFoundException
+	 */
+	private static Set<String> analyze(String input, CheckType check,
+			boolean isSketch) throws IOException, InterruptedException,
+			ClassNotFoundException {
+		Job job = Driver.analyzeBehavior(input, check, isSketch);
+		if (job != null && !job.isSuccessful()) {
+			throw new IOException("Analyzing the " + check + " check by "
+					+ (isSketch ? "sketches" : "clustering") + " failed");
+		}
+		Set<String> suspects = readSuspects(check);
+		Driver.removeTempFiles();
+		return suspects;
+	}
+
+	/**
+	 * Read the suspected trips of a check's results.
+	 *
+	 * @param check
+	 *            the check
+	 * @return the suspected trips, as "driver_trip"
+	 * @throws IOException
+	 *             if the check has no results
+	 */
+	private static Set<String> readSuspects(CheckType check)
+			throws IOException {
+		Set<String> suspects = new HashSet<String>();
+		Configuration conf = new Configuration();
+		Path checkPath = Driver.getStagePath(check.toString());
+		FileSystem fs = checkPath.getFileSystem(conf);
+		Text driverId = new Text();
+		SuspicionsWritable result = new SuspicionsWritable();
+		FileStatus[] parts = fs.globStatus(new Path(checkPath, PARTS_GLOB));
+		if (parts == null || parts.length == 0) {
+			throw new IOException("No results of the " + check + " check in "
+					+ checkPath);
+		}
+		for (FileStatus part : parts) {
+			SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+					SequenceFile.Reader.file(part.getPath()));
+			try {
+				while (reader.next(driverId, result)) {
+					for (Integer tripId : result.getSuspectsList()) {
+						suspects.add(driverId + "_" + tripId);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return suspects;
+	}
+
+	/**
+	 * Get a ratio, rounded for the report.
+	 *
+	 * @param part
+	 *            the part
+	 * @param whole
+	 *            the whole
+	 * @return the ratio, or 1 for an empty whole
+	 */
+	private static String getRatio(int part, int whole) {
+		if (whole == 0) {
+			return "1.000";
+		}
+		return String.format("%.3f", (double) part / whole);
+	}
+}
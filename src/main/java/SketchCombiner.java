@@ -0,0 +1,24 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Combiner for hadoop. Merges a driver's trips' sketches map-side, so only a
+ * sketch per driver is shuffled.
+ */
+public class SketchCombiner extends
+		Reducer<Text, DriverSketchWritable, Text, DriverSketchWritable> {
+	private DriverSketchWritable driverSketch = new DriverSketchWritable();
+
+	@Override
+	public void reduce(Text driverId, Iterable<DriverSketchWritable> sketches,
+			Context context) throws IOException, InterruptedException {
+		driverSketch.clear(context.getConfiguration().getInt(
+				SketchMap.SKETCH_K, QuantileSketchWritable.DEFAULT_K));
+		for (DriverSketchWritable sketch : sketches) {
+			driverSketch.merge(sketch);
+		}
+		context.write(driverId, driverSketch);
+	}
+}
@@ -0,0 +1,91 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Mapper for hadoop. Labels the trips' values written aside by SketchMap,
+ * using the drivers' bounds written by SketchReduce, and collects each
+ * driver's suspected trips until the split is done.
+ */
+public class SketchLabelMap extends
+		Mapper<TripIdWritable, DoubleWritable, Text, SuspicionsWritable> {
+	public static final String BOUNDS_DIR = "trips.sketch.bounds.dir";
+	private static final String BOUNDS_PARTS = "part-*";
+	private static final String ENTRY_DELIM = "\t";
+	private static final String ENCODING = "UTF-8";
+	private static final int LAST_TRIP = 0;
+	private static final int LOWER_BOUND = 1;
+	private static final int UPPER_BOUND = 2;
+	private Map<String, double[]> driversBounds = new HashMap<String, double[]>();
+	private Map<String, List<Integer>> driversSuspects = new HashMap<String, List<Integer>>();
+	private SuspicionsWritable suspicions = new SuspicionsWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		Configuration conf = context.getConfiguration();
+		Path boundsDir = new Path(conf.get(BOUNDS_DIR));
+		FileSystem fs = boundsDir.getFileSystem(conf);
+
+		// Read the bounds of all the drivers, a line per driver
+		for (FileStatus part : fs.globStatus(new Path(boundsDir, BOUNDS_PARTS))) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					fs.open(part.getPath()), ENCODING));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] entry = line.split(ENTRY_DELIM);
+					String[] bounds = entry[1].split(SketchReduce.BOUNDS_DELIM);
+					driversBounds.put(entry[0], new double[] {
+							Double.parseDouble(bounds[LAST_TRIP]),
+							Double.parseDouble(bounds[LOWER_BOUND]),
+							Double.parseDouble(bounds[UPPER_BOUND]) });
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	@Override
+	protected void map(TripIdWritable key, DoubleWritable value,
+			Context context) throws IOException, InterruptedException {
+		String driverId = key.getDriverID().toString();
+		List<Integer> suspects = driversSuspects.get(driverId);
+		if (suspects == null) {
+			suspects = new ArrayList<Integer>();
+			driversSuspects.put(driverId, suspects);
+		}
+
+		// Trips out of the driver's bounds are suspected
+		double[] bounds = driversBounds.get(driverId);
+		if (value.get() < bounds[LOWER_BOUND]
+				|| value.get() > bounds[UPPER_BOUND]) {
+			suspects.add(key.getTripID());
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		// Every driver of the split is written, even with no suspects
+		for (Map.Entry<String, List<Integer>> entry : driversSuspects
+				.entrySet()) {
+			int lastTripID = (int) driversBounds.get(entry.getKey())[LAST_TRIP];
+			suspicions.set(lastTripID, entry.getValue());
+			context.write(new Text(entry.getKey()), suspicions);
+		}
+	}
+}
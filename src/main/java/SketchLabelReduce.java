@@ -0,0 +1,31 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Merges the suspected trips a driver got from every
+ * split, to the check's result line of the driver.
+ */
+public class SketchLabelReduce extends
+		Reducer<Text, SuspicionsWritable, Text, SuspicionsWritable> {
+	private SuspicionsWritable driverSuspicions = new SuspicionsWritable();
+
+	@Override
+	public void reduce(Text driverId, Iterable<SuspicionsWritable> suspLists,
+			Context context) throws IOException, InterruptedException {
+		List<Integer> suspects = new ArrayList<Integer>();
+		int lastTripID = 0;
+		for (SuspicionsWritable suspicions : suspLists) {
+			lastTripID = Math.max(lastTripID, suspicions.getLastTripID());
+			suspects.addAll(suspicions.getSuspectsList());
+		}
+		Collections.sort(suspects);
+
+		driverSuspicions.set(lastTripID, suspects);
+		context.write(driverId, driverSuspicions);
+	}
+}
@@ -0,0 +1,56 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+/**
+ * Mapper for hadoop. Gets a behavior check's value for every trip. The value
+ * is written aside to the FEATURES_OUTPUT named output for labeling, and sent
+ * as a single trip's sketch to be merged by driver. The trips are trip files,
+ * or simplified trips for a geometry check.
+ */
+public class SketchMap extends
+		Mapper<TripIdWritable, Writable, Text, DriverSketchWritable> {
+	public static final String CHECK = "trips.sketch.check";
+	public static final String SKETCH_K = "trips.sketch.k";
+	public static final String FEATURES_OUTPUT = "features";
+	private CheckType check;
+	private int k;
+	private DriverSketchWritable tripSketch = new DriverSketchWritable();
+	private DoubleWritable feature = new DoubleWritable();
+	private MultipleOutputs<Text, DriverSketchWritable> featureOutputs;
+	private SpeedSmoother smoother;
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		check = CheckType.valueOf(context.getConfiguration().get(CHECK));
+		k = context.getConfiguration().getInt(SKETCH_K,
+				QuantileSketchWritable.DEFAULT_K);
+		featureOutputs = new MultipleOutputs<Text, DriverSketchWritable>(
+				context);
+		smoother = SpeedSmoother.create(context.getConfiguration());
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		featureOutputs.close();
+	}
+
+	@Override
+	protected void map(TripIdWritable key, Writable trip, Context context)
+			throws IOException, InterruptedException {
+		// Get the trip's value, like the check's mapper does
+		double value = TripFeatures.compute(check, key, trip, smoother);
+
+		// Keep the value for labeling, and sketch it
+		feature.set(value);
+		featureOutputs.write(FEATURES_OUTPUT, key, feature);
+		tripSketch.set(key.getTripID(), value, k);
+		context.write(key.getDriverID(), tripSketch);
+	}
+}
@@ -0,0 +1,71 @@
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Merges a driver's sketches for a behavior check, and
+ * writes the bounds of the driver's usual values: trips out of them are
+ * suspected. The bounds are the median plus/minus a few robust standard
+ * deviations (by the median absolute deviation), or the tail quantiles.
+ */
+public class SketchReduce extends
+		Reducer<Text, DriverSketchWritable, Text, Text> {
+	public static final String RULE = "trips.sketch.rule";
+	public static final String RULE_MAD = "mad";
+	public static final String RULE_TAIL = "tail";
+	public static final String MAD_LIMIT = "trips.sketch.mad.limit";
+	public static final String TAIL = "trips.sketch.tail";
+	static final String BOUNDS_DELIM = ",";
+	private static final double DEFAULT_MAD_LIMIT = 3.0;
+	private static final double DEFAULT_TAIL = 0.05;
+	private static final double MEDIAN = 0.5;
+	// Scales the MAD to the standard deviation of normal values
+	private static final double MAD_SCALE = 1.4826;
+	private DriverSketchWritable driverSketch = new DriverSketchWritable();
+	private Text bounds = new Text();
+
+	@Override
+	public void reduce(Text driverId, Iterable<DriverSketchWritable> sketches,
+			Context context) throws IOException, InterruptedException {
+		Configuration conf = context.getConfiguration();
+		driverSketch.clear(conf.getInt(SketchMap.SKETCH_K,
+				QuantileSketchWritable.DEFAULT_K));
+		for (DriverSketchWritable sketch : sketches) {
+			driverSketch.merge(sketch);
+		}
+		SuspicionsWritable.checkTripIDs(driverId, driverSketch.getSketch()
+				.getCount(), driverSketch.getLastTripID());
+
+		double[] driverBounds = getBounds(driverSketch.getSketch(), conf);
+		bounds.set(driverSketch.getLastTripID() + BOUNDS_DELIM
+				+ driverBounds[0] + BOUNDS_DELIM + driverBounds[1]);
+		context.write(driverId, bounds);
+	}
+
+	/**
+	 * Get the bounds of a driver's usual values by the configured rule. Where
+	 * most values are the same, so the MAD is 0, the tail rule is used.
+	 * 
+	 * @param sketch
+	 *            the sketch of the driver's values
+	 * @param conf
+	 *            the configuration
+	 * @return the lower and upper bounds
+	 */
+	static double[] getBounds(QuantileSketchWritable sketch,
+			Configuration conf) {
+		double tail = conf.getDouble(TAIL, DEFAULT_TAIL);
+		if (RULE_MAD.equals(conf.get(RULE, RULE_MAD))) {
+			double median = sketch.getQuantile(MEDIAN);
+			double width = conf.getDouble(MAD_LIMIT, DEFAULT_MAD_LIMIT)
+					* MAD_SCALE * sketch.getMedianDeviation(median);
+			if (width > 0) {
+				return new double[] { median - width, median + width };
+			}
+		}
+		return new double[] { sketch.getQuantile(tail),
+				sketch.getQuantile(1 - tail) };
+	}
+}
@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Expands the sparse verdicts written by Driver in sparse mode to the dense
+ * result file, with a row for every trip.
+ */
+public class SparseVerdictExpander {
+	private static final int INPUT_ARG = 0;
+	private static final int OUTPUT_ARG = 1;
+	private static final String HIDDEN_PREFIX = "_";
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * Expands the verdicts.
+	 *
+	 * @param args
+	 *            sparse verdicts folder and the result file
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		Path sparse = new Path(args[INPUT_ARG]);
+		Path outFile = new Path(args[OUTPUT_ARG]);
+		FileSystem fs = sparse.getFileSystem(conf);
+
+		FSDataOutputStream out = outFile.getFileSystem(conf).create(outFile);
+		try {
+			out.write(FalseTripsMap.HEADER.getBytes(ENCODING));
+			for (Path part : getParts(fs, sparse)) {
+				expandPart(conf, part, out);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Get the verdict parts of the sparse folder, in the order they were
+	 * written.
+	 *
+	 * @param fs
+	 *            the file system
+	 * @param sparse
+	 *            the sparse verdicts folder
+	 * @return the parts' paths
+	 * @throws IOException
+	 */
+	private static List<Path> getParts(FileSystem fs, Path sparse)
+			throws IOException {
+		FileStatus[] files = fs.listStatus(sparse);
+		Arrays.sort(files);
+
+		List<Path> parts = new ArrayList<Path>();
+		for (FileStatus file : files) {
+			String name = file.getPath().getName();
+			if (file.isFile() && !name.startsWith(HIDDEN_PREFIX)
+					&& !name.startsWith(".")) {
+				parts.add(file.getPath());
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Write the rows of all the drivers in a verdicts part.
+	 *
+	 * @param conf
+	 *            the configuration
+	 * @param part
+	 *            the verdicts part
+	 * @param out
+	 *            the result file's stream
+	 * @throws IOException
+	 */
+	private static void expandPart(Configuration conf, Path part,
+			FSDataOutputStream out) throws IOException {
+		SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+				SequenceFile.Reader.file(part));
+		try {
+			Text driverId = new Text();
+			SparseVerdictWritable verdict = new SparseVerdictWritable();
+			while (reader.next(driverId, verdict)) {
+				List<Integer> falseTrips = new ArrayList<Integer>();
+				for (int tripId : verdict.getFalseTrips()) {
+					falseTrips.add(tripId);
+				}
+
+				StringBuilder builder = new StringBuilder();
+				FalseTripsMap.appendTripRows(builder, driverId.toString(),
+						verdict.getLastTripID(), falseTrips);
+				out.write(builder.toString().getBytes(ENCODING));
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable verdicts of a driver, holding only the false trips. The
+ * driver's trips are numbered from 1 to the last trip ID, and every trip not
+ * listed is true. Written as varints: the last trip ID, the number of false
+ * trips and the gaps between the sorted false trips.
+ */
+public class SparseVerdictWritable implements Writable {
+	private int lastTripID = 0;
+	private int[] falseTrips = new int[0];
+
+	public SparseVerdictWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int getLastTripID() {
+		return lastTripID;
+	}
+
+	public int[] getFalseTrips() {
+		return falseTrips;
+	}
+
+	/**
+	 * Set the verdicts using java's variables.
+	 * 
+	 * @param lastTripID
+	 *            the driver's last trip id
+	 * @param falseTrips
+	 *            the driver's false trips
+	 */
+	public void set(int lastTripID, Collection<Integer> falseTrips) {
+		this.lastTripID = lastTripID;
+		this.falseTrips = new int[falseTrips.size()];
+		int i = 0;
+		for (Integer tripId : falseTrips) {
+			this.falseTrips[i] = tripId;
+			i++;
+		}
+		Arrays.sort(this.falseTrips); // small gaps make short varints
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		lastTripID = WritableUtils.readVInt(in);
+		falseTrips = new int[WritableUtils.readVInt(in)];
+		int prevTrip = 0;
+		for (int i = 0; i < falseTrips.length; i++) {
+			prevTrip += WritableUtils.readVInt(in);
+			falseTrips[i] = prevTrip;
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, lastTripID);
+		WritableUtils.writeVInt(out, falseTrips.length);
+		int prevTrip = 0;
+		for (int tripId : falseTrips) {
+			WritableUtils.writeVInt(out, tripId - prevTrip);
+			prevTrip = tripId;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return lastTripID + ":" + Arrays.toString(falseTrips);
+	}
+}
@@ -0,0 +1,297 @@
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Smooths a trip's speeds, one at a time, before its accelerations are
+ * found, so GPS jitter doesn't make fake stops and accelerations. The
+ * rolling median of the last speeds is kept in a double heap over a ring of
+ * the window's speeds: the median in the middle, the lower speeds in a max
+ * heap before it and the higher speeds in a min heap after it, so every
+ * speed takes O(log window). The exponential filter takes O(1). The buffers
+ * are allocated once, so a smoother is reset and reused for every trip, by a
+ * single thread.
+ */
+public class SpeedSmoother {
+	public static final String WINDOW = "trips.smooth.window";
+	public static final String FILTER = "trips.smooth.filter";
+	public static final String FILTER_MEDIAN = "median";
+	public static final String FILTER_EXPONENTIAL = "exponential";
+	private final boolean isMedian;
+	private final double alpha;
+	private final double[] speeds; // the window's speeds, in a ring
+	private final int[] places; // the place of every speed in the heaps
+	private final int[] heap; // the speeds by their places
+	private final int center; // index of the median's place in heap
+	private int next = 0;
+	private int count = 0;
+	private double average = 0;
+
+	/**
+	 * Construct a smoother.
+	 *
+	 * @param window
+	 *            number of speeds in the window, at least 1
+	 * @param isMedian
+	 *            true for the rolling median, false for the exponential
+	 *            filter (with the span of the window)
+	 */
+	public SpeedSmoother(int window, boolean isMedian) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Bad smoothing window "
+					+ window);
+		}
+		this.isMedian = isMedian;
+		alpha = 2.0 / (window + 1);
+		speeds = new double[window];
+		places = new int[window];
+		heap = new int[window];
+		center = window / 2;
+		reset();
+	}
+
+	/**
+	 * Create the smoother the user chose.
+	 *
+	 * @param conf
+	 *            the configuration
+	 * @return the smoother, or null if trips.smooth.window isn't above 1
+	 */
+	public static SpeedSmoother create(Configuration conf) {
+		int window = conf.getInt(WINDOW, 0);
+		if (window <= 1) {
+			return null;
+		}
+		String filter = conf.get(FILTER, FILTER_MEDIAN);
+		if (FILTER_MEDIAN.equals(filter)) {
+			return new SpeedSmoother(window, true);
+		} else if (FILTER_EXPONENTIAL.equals(filter)) {
+			return new SpeedSmoother(window, false);
+		}
+		throw new IllegalArgumentException("Unknown smoothing filter "
+				+ filter);
+	}
+
+	/**
+	 * Forget the speeds, to smooth a new trip.
+	 */
+	public void reset() {
+		next = 0;
+		count = 0;
+		average = 0;
+
+		// The speeds take the places around the median in turns
+		for (int i = 0; i < speeds.length; i++) {
+			places[i] = getFirstPlace(i);
+			heap[center + places[i]] = i;
+		}
+	}
+
+	/**
+	 * Smooth the trip's next speed.
+	 *
+	 * @param speed
+	 *            the speed
+	 * @return the smoothed speed
+	 */
+	public double smooth(double speed) {
+		if (!isMedian) {
+			if (count == 0) {
+				average = speed;
+				count = 1;
+			} else {
+				average += alpha * (speed - average);
+			}
+			return average;
+		}
+
+		// Replace the oldest speed of the window, or add one
+		int place = places[next];
+		speeds[next] = speed;
+		next = (next + 1) % speeds.length;
+		if (count < speeds.length) {
+			count++;
+		}
+		restore(place);
+		return getMedian();
+	}
+
+	/**
+	 * Get the median of the window's speeds.
+	 *
+	 * @return the median
+	 */
+	private double getMedian() {
+		double median = get(0);
+		if (count % 2 == 0) {
+			median = (median + get(-1)) / 2;
+		}
+		return median;
+	}
+
+	/**
+	 * Get the place the i-th speed of a trip takes as the window fills: the
+	 * median's, then the max heap's and the min heap's next places in turns.
+	 *
+	 * @param i
+	 *            index of the speed in the trip
+	 * @return the place
+	 */
+	private static int getFirstPlace(int i) {
+		int place = (i + 1) / 2;
+		if (i % 2 == 1) {
+			return -place;
+		}
+		return place;
+	}
+
+	/**
+	 * Move the speed at a changed place to where it keeps both heaps in
+	 * order, and the median between them.
+	 *
+	 * @param place
+	 *            the changed place
+	 */
+	private void restore(int place) {
+		if (place > 0) {
+			place = minUp(place);
+			if (place > 0) {
+				minDown(place);
+				return;
+			}
+		} else if (place < 0) {
+			place = maxUp(place);
+			if (place < 0) {
+				maxDown(place);
+				return;
+			}
+		}
+
+		// The median changed, so it may be out of the heaps' order
+		if (getMaxCount() > 0 && less(0, -1)) {
+			exchange(0, -1);
+			maxDown(-1);
+		} else if (getMinCount() > 0 && less(1, 0)) {
+			exchange(0, 1);
+			minDown(1);
+		}
+	}
+
+	/**
+	 * Move a speed up the min heap while it's smaller than its parent.
+	 *
+	 * @param place
+	 *            the speed's place
+	 * @return the speed's new place
+	 */
+	private int minUp(int place) {
+		while (place > 0 && less(place, place / 2)) {
+			exchange(place, place / 2);
+			place /= 2;
+		}
+		return place;
+	}
+
+	/**
+	 * Move a speed up the max heap while it's larger than its parent.
+	 *
+	 * @param place
+	 *            the speed's place
+	 * @return the speed's new place
+	 */
+	private int maxUp(int place) {
+		while (place < 0 && less(place / 2, place)) {
+			exchange(place, place / 2);
+			place /= 2;
+		}
+		return place;
+	}
+
+	/**
+	 * Move a speed down the min heap while it's larger than a child.
+	 *
+	 * @param place
+	 *            the speed's place
+	 */
+	private void minDown(int place) {
+		int minCount = getMinCount();
+		for (int child = place * 2; child <= minCount; child = place * 2) {
+			if (child < minCount && less(child + 1, child)) {
+				child++; // the smaller child
+			}
+			if (!less(child, place)) {
+				return;
+			}
+			exchange(place, child);
+			place = child;
+		}
+	}
+
+	/**
+	 * Move a speed down the max heap while it's smaller than a child.
+	 *
+	 * @param place
+	 *            the speed's place
+	 */
+	private void maxDown(int place) {
+		int maxCount = getMaxCount();
+		for (int child = place * 2; child >= -maxCount; child = place * 2) {
+			if (child > -maxCount && less(child, child - 1)) {
+				child--; // the larger child
+			}
+			if (!less(place, child)) {
+				return;
+			}
+			exchange(place, child);
+			place = child;
+		}
+	}
+
+	// Number of speeds in the heaps, by the number in the window
+	private int getMinCount() {
+		return (count - 1) / 2;
+	}
+
+	private int getMaxCount() {
+		return count / 2;
+	}
+
+	/**
+	 * Get the speed at a place.
+	 *
+	 * @param place
+	 *            the place
+	 * @return the speed
+	 */
+	private double get(int place) {
+		return speeds[heap[center + place]];
+	}
+
+	/**
+	 * Compare the speeds at two places.
+	 *
+	 * @param place1
+	 *            the first place
+	 * @param place2
+	 *            the second place
+	 * @return true if the first speed is smaller
+	 */
+	private boolean less(int place1, int place2) {
+		return get(place1) < get(place2);
+	}
+
+	/**
+	 * Exchange the speeds at two places.
+	 *
+	 * @param place1
+	 *            the first place
+	 * @param place2
+	 *            the second place
+	 */
+	private void exchange(int place1, int place2) {
+		int speed1 = heap[center + place1];
+		int speed2 = heap[center + place2];
+		heap[center + place1] = speed2;
+		heap[center + place2] = speed1;
+		places[speed2] = place1;
+		places[speed1] = place2;
+	}
+}
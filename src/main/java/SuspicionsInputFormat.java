@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+
+/**
+ * Hadoop input format of a check's results, for the verdicts' map-side join.
+ * Every result file is a single split, listed in the order of the files'
+ * names, so the i-th split of every check holds the same partition of the
+ * drivers.
+ */
+public class SuspicionsInputFormat extends
+		SequenceFileInputFormat<Text, SuspicionsWritable> {
+
+	@Override
+	protected List<FileStatus> listStatus(JobContext job) throws IOException {
+		List<FileStatus> files = super.listStatus(job);
+		Collections.sort(files, new Comparator<FileStatus>() {
+			@Override
+			public int compare(FileStatus first, FileStatus second) {
+				// by path, so by partition
+				return first.getPath().compareTo(second.getPath());
+			}
+		});
+		return files;
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return false; // a partition must not be split
+	}
+}
@@ -1,53 +1,191 @@
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
 /**
- * Reducer for hadoop. Gets suspected trips for a single behavior test.
+ * Reducer for hadoop. Gets suspected trips for a single behavior test. The
+ * driver's trips come sorted by their values, so every category of the
+ * clustering is a range of them, found by binary search. If the job names its
+ * check, also writes the driver's profile for the check to the PROFILE_OUTPUT
+ * named output. If more than one reduce thread is configured, drivers are
+ * clustered on a pool of threads while the next ones are read. A driver's
+ * trips beyond the memory budget (see TripBatch) are spilled off the heap,
+ * and clustered from there; the task's batches are reused for every driver,
+ * so it spills to the same few scratch files.
  */
 public class SuspicionsReduce extends
-		Reducer<Text, TripDataWritable, Text, IntegerArrayWritable> {
+		Reducer<DriverValueWritable, TripDataWritable, Text, SuspicionsWritable> {
+	public static final String PROFILE_CHECK = "trips.profile.check";
+	public static final String PROFILE_OUTPUT = "profile";
 	private static final int CATEGORIZING_TIMES = 7;
-	private IntegerArrayWritable writableSuspTrips = new IntegerArrayWritable();
+	private static final int CATEGORIES_NO = CheckProfileWritable.CATEGORIES_NO;
+	private static final int PENDING_PER_THREAD = 2;
+	// Insignificant doubles to tell categories of the same size apart
+	private static final double[] SIZE_TIEBREAKS = { 0.1, 0.2, 0.3 };
+	private SuspicionsWritable writableSuspTrips = new SuspicionsWritable();
+	private BlockingQueue<TripBatch> batches = new LinkedBlockingQueue<TripBatch>();
+	private MultipleOutputs<Text, SuspicionsWritable> profileOutputs = null;
+	private Integer profileWeight = null;
+	private OrderedWorkPool.Emitter<DriverSuspicions> emitter;
+	private OrderedWorkPool<DriverSuspicions> workPool = null;
 
 	@Override
-	public void reduce(Text driverId, Iterable<TripDataWritable> data,
+	protected void setup(final Context context) throws IOException,
+			InterruptedException {
+		emitter = new OrderedWorkPool.Emitter<DriverSuspicions>() {
+			@Override
+			public void emit(DriverSuspicions result) throws IOException,
+					InterruptedException {
+				write(context, result);
+			}
+		};
+		int threads = context.getConfiguration().getInt(Driver.REDUCE_THREADS,
+				1);
+		int pendingBatches = 1;
+		if (threads > 1) {
+			workPool = new OrderedWorkPool<DriverSuspicions>(threads, threads
+					* PENDING_PER_THREAD, emitter);
+			pendingBatches = threads * PENDING_PER_THREAD + 1;
+		}
+
+		// The batches, with their scratch files, are reused for every driver
+		for (int i = 0; i < pendingBatches; i++) {
+			batches.add(TripBatch.create(context.getConfiguration(),
+					pendingBatches));
+		}
+
+		String check = context.getConfiguration().get(PROFILE_CHECK);
+		if (check == null) {
+			return; // no profiles
+		}
+		profileOutputs = new MultipleOutputs<Text, SuspicionsWritable>(context);
+		profileWeight = FalseTripsMap.getCheckWeight(CheckType.valueOf(check));
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		try {
+			if (workPool != null) {
+				workPool.finish(); // write the last drivers
+			}
+		} finally {
+			if (workPool != null) {
+				workPool.shutdown();
+			}
+			if (profileOutputs != null) {
+				profileOutputs.close();
+			}
+			for (TripBatch trips : batches) {
+				trips.close(); // delete the scratch files
+			}
+		}
+	}
+
+	@Override
+	public void reduce(DriverValueWritable key, Iterable<TripDataWritable> data,
 			Context context) throws IOException, InterruptedException {
-		Map<Integer, Double> trips = getTripsData(data);
+		// The pool's pending drivers each need their own batch
+		TripBatch driverTrips = batches.take();
 
-		// Get the suspected false trips
-		Collection<Integer> suspectedTrips = getSuspectedTrips(trips);
-		writableSuspTrips.set(suspectedTrips);
+		// Stream the trips, in ascending value order, to the batch
+		driverTrips.clear();
+		for (TripDataWritable tripData : data) {
+			driverTrips.add(tripData.getTripID(), tripData.getData());
+		}
+		if (driverTrips.getSpilledBytes() > 0) {
+			context.getCounter(TripBatch.Spill.DRIVERS).increment(1);
+			context.getCounter(TripBatch.Spill.BYTES).increment(
+					driverTrips.getSpilledBytes());
+		}
 
-		context.write(driverId, writableSuspTrips);
+		SuspicionsWork work = new SuspicionsWork(new Text(key.getDriverID()),
+				driverTrips, batches, profileWeight);
+		if (workPool == null) {
+			emitter.emit(work.call());
+		} else {
+			workPool.submit(work);
+		}
 	}
 
 	/**
-	 * Parses the data and creates a map of trip IDs and their data.
+	 * Write a driver's suspected trips, and profile if needed.
 	 * 
-	 * @param dataIter
-	 *            the trips iterator from hadoop's map class
-	 * @return map of trips and their data
+	 * @param context
+	 *            the reducer's context
+	 * @param result
+	 *            the driver's result
+	 * @throws IOException
+	 * @throws InterruptedException
 	 */
-	private Map<Integer, Double> getTripsData(
-			Iterable<TripDataWritable> dataIter) {
-		Map<Integer, Double> trips = new HashMap<Integer, Double>();
+	private void write(Context context, DriverSuspicions result)
+			throws IOException, InterruptedException {
+		if (result.profile != null) {
+			profileOutputs.write(PROFILE_OUTPUT, result.driverId,
+					result.profile);
+		}
+		// Keep the driver's number of trips along with them
+		writableSuspTrips.set(result.lastTripID, result.suspects);
+
+		context.write(result.driverId, writableSuspTrips);
+	}
 
-		// Put each trip to the map
-		for (TripDataWritable tripData : dataIter) {
-			trips.put(tripData.getTripID(), tripData.getData());
+	/**
+	 * The result of a driver's clustering.
+	 */
+	private static class DriverSuspicions {
+		private Text driverId;
+		private int lastTripID;
+		private List<Integer> suspects;
+		private CheckProfileWritable profile;
+	}
+
+	/**
+	 * Clusters a single driver's trips.
+	 */
+	private static class SuspicionsWork implements Callable<DriverSuspicions> {
+		private final Text driverId;
+		private final TripBatch trips;
+		private final BlockingQueue<TripBatch> batches;
+		private final Integer profileWeight;
+
+		public SuspicionsWork(Text driverId, TripBatch trips,
+				BlockingQueue<TripBatch> batches, Integer profileWeight) {
+			this.driverId = driverId;
+			this.trips = trips;
+			this.batches = batches;
+			this.profileWeight = profileWeight;
 		}
 
-		// Return the map with trips and their data
-		return trips;
+		@Override
+		public DriverSuspicions call() throws IOException {
+			DriverSuspicions result = new DriverSuspicions();
+			try {
+				result.driverId = driverId;
+				result.lastTripID = trips.getLastTripID();
+				SuspicionsWritable.checkTripIDs(driverId, trips.size(),
+						result.lastTripID);
+				if (profileWeight != null) {
+					result.profile = new CheckProfileWritable();
+					result.profile.setWeight(profileWeight);
+				}
+				result.suspects = getSuspectedTrips(trips, result.profile);
+			} finally {
+				batches.add(trips); // free the batch for the next driver
+			}
+			return result;
+		}
 	}
 
 	/**
@@ -56,152 +194,290 @@ public class SuspicionsReduce extends
 	 * @param trips
 	 *            map of all the driver's trips and their data
 	 * @return collection of suspected trips
+	 * @throws IOException
 	 */
-	private Collection<Integer> getSuspectedTrips(Map<Integer, Double> trips) {
-		Map<Integer, Double> category1 = new HashMap<Integer, Double>();
-		Map<Integer, Double> category2 = new HashMap<Integer, Double>();
-		Map<Integer, Double> category3 = new HashMap<Integer, Double>();
+	static List<Integer> getSuspectedTrips(Map<Integer, Double> trips)
+			throws IOException {
+		return getSuspectedTrips(TripBatch.fromMap(trips), null);
+	}
 
+	/**
+	 * Decides which trips are suspected to be false, and fills the driver's
+	 * profile for the check. The batch is left sorted by value.
+	 * 
+	 * @param trips
+	 *            batch of all the driver's trips and their data
+	 * @param profile
+	 *            the profile to fill, or null
+	 * @return list of suspected trips, sorted
+	 */
+	static List<Integer> getSuspectedTrips(TripBatch trips,
+			CheckProfileWritable profile) {
 		// Categorize the trips to 3 weight categories
-		categorize(trips, category1, category2, category3);
+		int[] starts = new int[CATEGORIES_NO];
+		int[] ends = new int[CATEGORIES_NO];
+		double[] averages = categorize(trips, starts, ends);
 
-		// Return the entries from the suspected categories
-		return getSuspectedCategories(category1, category2, category3);
+		// Count the categories' sizes and pick the suspected ones
+		int[] sizes = getSizes(starts, ends);
+		boolean[] suspectedCategories = getSuspectedCategories(sizes);
+
+		List<Integer> suspected = new ArrayList<Integer>();
+		for (int category = 0; category < CATEGORIES_NO; category++) {
+			if (suspectedCategories[category]) {
+				for (int trip = starts[category]; trip < ends[category]; trip++) {
+					suspected.add(trips.getTripID(trip));
+				}
+			}
+		}
+		Collections.sort(suspected);
+
+		if (profile != null) {
+			for (int category = 0; category < CATEGORIES_NO; category++) {
+				profile.setCategory(category, averages[category],
+						suspectedCategories[category] && sizes[category] > 0);
+			}
+		}
+		return suspected;
 	}
 
 	/**
-	 * Gets 3 categories of trips and decides which of them are suspected.
+	 * Get the average of the driver's dominant category of trips: the
+	 * largest one. The batch is left sorted by value.
 	 * 
-	 * @param category1
-	 *            a category of trips
-	 * @param category2
-	 *            a category of trips
-	 * @param category3
-	 *            a category of trips
-	 * @return collection of suspected trips
+	 * @param trips
+	 *            batch of all the driver's trips and their data
+	 * @return the dominant category's average
 	 */
-	private Collection<Integer> getSuspectedCategories(
-			Map<Integer, Double> category1, Map<Integer, Double> category2,
-			Map<Integer, Double> category3) {
+	static double getDominantAverage(TripBatch trips) {
+		int[] starts = new int[CATEGORIES_NO];
+		int[] ends = new int[CATEGORIES_NO];
+		double[] averages = categorize(trips, starts, ends);
+
+		int[] sizes = getSizes(starts, ends);
+		int dominant = 0;
+		for (int category = 1; category < CATEGORIES_NO; category++) {
+			if (sizes[category] > sizes[dominant]) {
+				dominant = category;
+			}
+		}
+		return averages[dominant];
+	}
+
+	/**
+	 * Gets the sizes of the 3 categories of trips and decides which of them
+	 * are suspected.
+	 * 
+	 * @param sizes
+	 *            the categories' sizes
+	 * @return whether each category is suspected
+	 */
+	private static boolean[] getSuspectedCategories(int[] sizes) {
 		final int TOO_SMALL = 2;
 
 		// Sort categories by size.
 		// Add insignificant doubles to make sure the keys are different
-		Map<Double, Map<Integer, Double>> sizeCategories = new TreeMap<Double, Map<Integer, Double>>();
-		sizeCategories.put(category1.size() + 0.1, category1);
-		sizeCategories.put(category2.size() + 0.2, category2);
-		sizeCategories.put(category3.size() + 0.3, category3);
+		Map<Double, Integer> sizeCategories = new TreeMap<Double, Integer>();
+		for (int category = 0; category < CATEGORIES_NO; category++) {
+			sizeCategories.put(sizes[category] + SIZE_TIEBREAKS[category],
+					category);
+		}
 
-		// Final list of suspected entries
-		Collection<Integer> suspected = new ArrayList<Integer>();
+		// Final suspected categories
+		boolean[] suspected = new boolean[CATEGORIES_NO];
 
 		// Get the sorted sizes of the categories
-		Iterator<Double> sizes = sizeCategories.keySet().iterator();
-		double minSize = sizes.next();
-		double midSize = sizes.next();
-		double maxSize = sizes.next();
+		Iterator<Double> sortedSizes = sizeCategories.keySet().iterator();
+		double minSize = sortedSizes.next();
+		double midSize = sortedSizes.next();
+		double maxSize = sortedSizes.next();
 
-		// Add the smallest category to the list of suspects
-		suspected.addAll(sizeCategories.get(minSize).keySet());
+		// The smallest category is suspected
+		suspected[sizeCategories.get(minSize)] = true;
 
-		// If the second smallest category is very small - add it too
+		// If the second smallest category is very small - it's suspected too
 		if (minSize + midSize < maxSize / TOO_SMALL) {
-			suspected.addAll(sizeCategories.get(midSize).keySet());
+			suspected[sizeCategories.get(midSize)] = true;
 		}
 		return suspected;
 	}
 
 	/**
-	 * Categorizes all the trips to 3 categories by their data.
+	 * Get the categories' sizes.
+	 * 
+	 * @param starts
+	 *            every category's first sorted trip
+	 * @param ends
+	 *            every category's end (exclusive)
+	 * @return the categories' sizes
+	 */
+	private static int[] getSizes(int[] starts, int[] ends) {
+		int[] sizes = new int[CATEGORIES_NO];
+		for (int category = 0; category < CATEGORIES_NO; category++) {
+			sizes[category] = ends[category] - starts[category];
+		}
+		return sizes;
+	}
+
+	/**
+	 * Categorizes all the trips to 3 categories by their data. The categories
+	 * start from the trips with the 3 smallest ids. In one dimension every
+	 * category is a range of the trips sorted by value, so every pass only
+	 * finds the ranges' bounds by binary search. The reducer's trips come
+	 * sorted; others are sorted in place, in the batch's own storage, so no
+	 * memory is taken per trip beyond the batch's budget.
 	 * 
 	 * @param trips
-	 *            map of trips and their data
-	 * @param category1
-	 *            category to put trips
-	 * @param category2
-	 *            category to put trips
-	 * @param category3
-	 *            category to put trips
+	 *            batch of trips and their data, left sorted by value
+	 * @param starts
+	 *            array to put each category's first sorted trip in
+	 * @param ends
+	 *            array to put each category's end (exclusive) in
+	 * @return the final categories' averages, NaN for an empty category
 	 */
-	private void categorize(Map<Integer, Double> trips,
-			Map<Integer, Double> category1, Map<Integer, Double> category2,
-			Map<Integer, Double> category3) {
-		// Add 3 first elements to categories
-		Object[] arrTrips = trips.keySet().toArray();
-		category1.put((Integer) arrTrips[0], trips.get((Integer) arrTrips[0]));
-		category2.put((Integer) arrTrips[1], trips.get((Integer) arrTrips[1]));
-		category3.put((Integer) arrTrips[2], trips.get((Integer) arrTrips[2]));
+	private static double[] categorize(TripBatch trips, int[] starts,
+			int[] ends) {
+		double[] averages = getFirstTripsData(trips);
+		trips.sortByValue();
 
 		// Categorize all the entries a few times for better result
 		for (int i = 0; i < CATEGORIZING_TIMES; i++) {
-			// Compute categories' averages
-			Double avg1 = getValuesAvg(category1);
-			Double avg2 = getValuesAvg(category2);
-			Double avg3 = getValuesAvg(category3);
-
 			// Move each entry to it's closest category by average
-			for (Entry<Integer, Double> entry : trips.entrySet()) {
-				categorizeEntry(category1, category2, category3, avg1, avg2,
-						avg3, entry);
+			setRanges(trips, averages, starts, ends);
+
+			// Compute categories' averages
+			for (int category = 0; category < CATEGORIES_NO; category++) {
+				double sum = 0;
+				for (int trip = starts[category]; trip < ends[category]; trip++) {
+					sum += trips.getValue(trip);
+				}
+				averages[category] = sum / (ends[category] - starts[category]);
 			}
 		}
+		return averages;
 	}
 
 	/**
-	 * Move the entry to the closest category by it's data.
+	 * Finds every category's range of the sorted trips: the trips closest to
+	 * its average, like CheckProfileWritable.getClosestCategory finds them
+	 * (the later category on ties, never an empty one).
 	 * 
-	 * @param category1
-	 *            a category of trips
-	 * @param category2
-	 *            a category of trips
-	 * @param category3
-	 *            a category of trips
-	 * @param avg1
-	 *            the average data of category 1
-	 * @param avg2
-	 *            the average data of category 2
-	 * @param avg3
-	 *            the average data of category 3
-	 * @param entry
-	 *            the entry to categorize
+	 * @param trips
+	 *            batch of trips and their data, sorted by value
+	 * @param averages
+	 *            the categories' averages, NaN for an empty category
+	 * @param starts
+	 *            array to put each category's first sorted trip in
+	 * @param ends
+	 *            array to put each category's end (exclusive) in
 	 */
-	private void categorizeEntry(Map<Integer, Double> category1,
-			Map<Integer, Double> category2, Map<Integer, Double> category3,
-			Double avg1, Double avg2, Double avg3, Entry<Integer, Double> entry) {
-		// Calculate distance from each category's average
-		Double currVal = entry.getValue();
-
-		// Remove the entry from it's prev category
-		category1.remove(entry.getKey());
-		category2.remove(entry.getKey());
-		category3.remove(entry.getKey());
-
-		// Make a sorted map of categories by distances from curr value
-		Map<Double, Map<Integer, Double>> categoryDists = new TreeMap<Double, Map<Integer, Double>>();
-		categoryDists.put(Math.abs(avg1 - currVal), category1);
-		categoryDists.put(Math.abs(avg2 - currVal), category2);
-		categoryDists.put(Math.abs(avg3 - currVal), category3);
-
-		// Put the entry to category with closest distance
-		Double shortestDist = categoryDists.keySet().iterator().next();
-		categoryDists.get(shortestDist).put(entry.getKey(), entry.getValue());
+	private static void setRanges(TripBatch trips, double[] averages,
+			int[] starts, int[] ends) {
+		// The categories by average; of equal ones only the later can win
+		List<Integer> sorted = new ArrayList<Integer>();
+		for (int category = 0; category < CATEGORIES_NO; category++) {
+			if (Double.isNaN(averages[category])) {
+				continue;
+			}
+			int at = sorted.size();
+			while (at > 0 && averages[sorted.get(at - 1)] >= averages[category]) {
+				at--;
+			}
+			if (at < sorted.size()
+					&& averages[sorted.get(at)] == averages[category]) {
+				sorted.set(at, category);
+			} else {
+				sorted.add(at, category);
+			}
+		}
+
+		// Every category starts where the next one becomes closer
+		for (int category = 0; category < CATEGORIES_NO; category++) {
+			starts[category] = 0;
+			ends[category] = 0;
+		}
+		int start = 0;
+		for (int i = 0; i < sorted.size(); i++) {
+			int end = trips.size();
+			if (i + 1 < sorted.size()) {
+				end = findCloser(trips, averages, sorted.get(i),
+						sorted.get(i + 1), start);
+			}
+			starts[sorted.get(i)] = start;
+			ends[sorted.get(i)] = end;
+			start = end;
+		}
 	}
 
 	/**
-	 * Compute average of map's values.
+	 * Find the first sorted trip from which a category with a higher average
+	 * is closer than a category with a lower one.
 	 * 
-	 * @param map
-	 *            the map to compute from
-	 * @return the map's values average
+	 * @param trips
+	 *            batch of trips and their data, sorted by value
+	 * @param averages
+	 *            the categories' averages
+	 * @param lower
+	 *            the category with the lower average
+	 * @param higher
+	 *            the category with the higher average
+	 * @param from
+	 *            the first sorted trip to search from
+	 * @return the first sorted trip closer to the higher category
 	 */
-	private Double getValuesAvg(Map<Integer, Double> map) {
-		// Go over the values and compute the average
-		Double avg = 0.0;
-		for (Double entry : map.values()) {
-			avg += entry;
-		}
-		avg /= map.size();
-		return avg;
+	private static int findCloser(TripBatch trips, double[] averages,
+			int lower, int higher, int from) {
+		int low = from;
+		int high = trips.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			double value = trips.getValue(mid);
+			int cmp = Double.compare(Math.abs(averages[higher] - value),
+					Math.abs(averages[lower] - value));
+			if (cmp < 0 || (cmp == 0 && higher > lower)) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Get the data of the trips with the 3 smallest ids.
+	 * 
+	 * @param trips
+	 *            batch of trips and their data
+	 * @return the first trips' data, by id
+	 */
+	private static double[] getFirstTripsData(TripBatch trips) {
+		double[] firstData = new double[CATEGORIES_NO];
+		int[] firstIDs = new int[CATEGORIES_NO];
+		int found = 0;
+
+		// Keep the smallest ids seen, sorted, in a single pass
+		for (int trip = 0; trip < trips.size(); trip++) {
+			int tripID = trips.getTripID(trip);
+			int at = found;
+			while (at > 0 && firstIDs[at - 1] > tripID) {
+				at--;
+			}
+			if ((at > 0 && firstIDs[at - 1] == tripID) || at == CATEGORIES_NO) {
+				continue; // a kept id, or not among the smallest
+			}
+			int last = Math.min(found, CATEGORIES_NO - 1);
+			for (int i = last; i > at; i--) {
+				firstIDs[i] = firstIDs[i - 1];
+				firstData[i] = firstData[i - 1];
+			}
+			firstIDs[at] = tripID;
+			firstData[at] = trips.getValue(trip);
+			found = Math.min(found + 1, CATEGORIES_NO);
+		}
+
+		for (int category = found; category < CATEGORIES_NO; category++) {
+			firstData[category] = Double.NaN; // not enough trips
+		}
+		return firstData;
+	}
+}
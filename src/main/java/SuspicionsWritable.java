@@ -0,0 +1,122 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Hadoop's writable result of a behavior check for a driver: the suspected
+ * trips, and the driver's last trip ID. The trips are numbered from 1 with no
+ * gaps, so the last trip ID is the driver's number of trips, and the verdicts
+ * have a row for every trip up to it. The jobs which get the last trip ID from
+ * the trips check it with checkTripIDs.
+ */
+public class SuspicionsWritable implements Writable {
+	private static final String DELIM = "|";
+	private IntWritable lastTripID = new IntWritable();
+	private IntegerArrayWritable suspects = new IntegerArrayWritable();
+
+	public SuspicionsWritable() {
+		super();
+	}
+
+	// Java getters:
+	public Integer getLastTripID() {
+		return lastTripID.get();
+	}
+
+	public IntegerArrayWritable getSuspects() {
+		return suspects;
+	}
+
+	/**
+	 * Get the suspected trips as a java's list.
+	 * 
+	 * @return list of suspected trips
+	 */
+	public List<Integer> getSuspectsList() {
+		List<Integer> suspectsList = new ArrayList<Integer>();
+		for (Writable suspect : suspects.get()) {
+			suspectsList.add(((IntWritable) suspect).get());
+		}
+		return suspectsList;
+	}
+
+	/**
+	 * Set the result using java's variables.
+	 * 
+	 * @param lastTripID
+	 *            the driver's last trip id
+	 * @param suspects
+	 *            the suspected trips
+	 */
+	public void set(Integer lastTripID, Collection<Integer> suspects) {
+		this.lastTripID.set(lastTripID);
+		this.suspects.set(suspects);
+	}
+
+	/**
+	 * Check that a driver's trips are numbered 1..N, as the results assume.
+	 * 
+	 * @param driverId
+	 *            the driver id
+	 * @param trips
+	 *            the driver's number of trips
+	 * @param lastTripID
+	 *            the driver's last trip id
+	 * @throws IOException
+	 *             if the trips' numbers have gaps
+	 */
+	public static void checkTripIDs(Object driverId, long trips, int lastTripID)
+			throws IOException {
+		if (trips != lastTripID) {
+			throw new IOException("The " + trips + " trips of driver "
+					+ driverId + " aren't numbered from 1 to " + trips
+					+ ", the last is " + lastTripID);
+		}
+	}
+
+	/**
+	 * Parses the last trip id out of a written SuspicionsWritable.
+	 * 
+	 * @param written
+	 *            the result written using the toString() method
+	 * @return the driver's last trip id
+	 */
+	public static Integer parseLastTripID(String written) {
+		return Integer.parseInt(written.substring(0, written.indexOf(DELIM)));
+	}
+
+	/**
+	 * Parses the suspected trips out of a written SuspicionsWritable.
+	 * 
+	 * @param written
+	 *            the result written using the toString() method
+	 * @return java's list of suspected trips
+	 */
+	public static List<Integer> parseSuspects(String written) {
+		return IntegerArrayWritable.parseFromWritten(written.substring(written
+				.indexOf(DELIM) + 1));
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		lastTripID.readFields(in);
+		suspects.readFields(in);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		lastTripID.write(out);
+		suspects.write(out);
+	}
+
+	@Override
+	public String toString() {
+		return lastTripID.toString() + DELIM + suspects.toString();
+	}
+}
@@ -0,0 +1,110 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable trip with its suspicion score. The trips sort by their
+ * scores, the most suspicious first, then by driver and trip, so a sorted
+ * output is a ranking of the trips.
+ */
+public class SuspiciousTripWritable implements
+		WritableComparable<SuspiciousTripWritable> {
+	private static final String DRIVER_TRIP_DELIM = "_";
+	private static final String SCORE_DELIM = ",";
+	private Text driverID = new Text();
+	private int tripID = 0;
+	private double score = 0;
+
+	public SuspiciousTripWritable() {
+		super();
+	}
+
+	// Java getters:
+	public Text getDriverID() {
+		return driverID;
+	}
+
+	public int getTripID() {
+		return tripID;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	/**
+	 * Set the trip and its score.
+	 *
+	 * @param driverID
+	 *            the driver id
+	 * @param tripID
+	 *            the trip id
+	 * @param score
+	 *            the trip's suspicion score
+	 */
+	public void set(Text driverID, int tripID, double score) {
+		this.driverID.set(driverID);
+		this.tripID = tripID;
+		this.score = score;
+	}
+
+	/**
+	 * Copy the trip, as hadoop reuses the read ones.
+	 *
+	 * @return a copy of the trip
+	 */
+	public SuspiciousTripWritable copy() {
+		SuspiciousTripWritable copy = new SuspiciousTripWritable();
+		copy.set(driverID, tripID, score);
+		return copy;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		driverID.readFields(in);
+		tripID = WritableUtils.readVInt(in);
+		score = in.readDouble();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		driverID.write(out);
+		WritableUtils.writeVInt(out, tripID);
+		out.writeDouble(score);
+	}
+
+	@Override
+	public int compareTo(SuspiciousTripWritable other) {
+		int cmp = Double.compare(other.score, score); // the highest first
+		if (cmp != 0) {
+			return cmp;
+		}
+		cmp = driverID.compareTo(other.driverID);
+		if (cmp != 0) {
+			return cmp;
+		}
+		return Integer.compare(tripID, other.tripID);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof SuspiciousTripWritable)) {
+			return false;
+		}
+		return compareTo((SuspiciousTripWritable) other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return driverID.hashCode() * 31 + tripID;
+	}
+
+	@Override
+	public String toString() {
+		return driverID + DRIVER_TRIP_DELIM + tripID + SCORE_DELIM + score;
+	}
+}
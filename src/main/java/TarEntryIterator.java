@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Iterates over the file entries of a range of an (uncompressed) tar archive.
+ */
+public class TarEntryIterator extends ArchiveEntryIterator {
+	private static final Charset NAMES_CHARSET = Charset.forName("UTF-8");
+	private static final int BLOCK_SIZE = 512;
+	private static final int NAME_OFFSET = 0;
+	private static final int NAME_SIZE = 100;
+	private static final int SIZE_OFFSET = 124;
+	private static final int SIZE_SIZE = 12;
+	private static final int TYPE_OFFSET = 156;
+	private static final int PREFIX_OFFSET = 345;
+	private static final int PREFIX_SIZE = 155;
+	private static final byte REGULAR_TYPE = '0';
+	private static final byte OLD_REGULAR_TYPE = 0;
+	private static final byte LONG_NAME_TYPE = 'L';
+	private static final String PATH_DELIM = "/";
+	private final byte[] header = new byte[BLOCK_SIZE];
+	private long pos;
+
+	/**
+	 * Construct an iterator over a range of the tar archive.
+	 *
+	 * @param in
+	 *            the opened archive
+	 * @param start
+	 *            offset of the first header
+	 * @param end
+	 *            offset where the range of headers ends
+	 */
+	public TarEntryIterator(FSDataInputStream in, long start, long end) {
+		super(in, start, end);
+		pos = start;
+	}
+
+	@Override
+	public ArchiveEntry next() throws IOException {
+		long entryOffset = pos;
+		String longName = null;
+
+		while (pos + BLOCK_SIZE <= end) {
+			readAt(pos, header);
+
+			// An empty header marks the end of the archive
+			if (isEmpty(header)) {
+				pos = end;
+				return null;
+			}
+
+			long size = getSize(header);
+			byte type = header[TYPE_OFFSET];
+			long dataOffset = pos + BLOCK_SIZE;
+			pos = dataOffset + (size + BLOCK_SIZE - 1) / BLOCK_SIZE
+					* BLOCK_SIZE;
+
+			// GNU long names precede their entry as the data of a fake entry
+			if (type == LONG_NAME_TYPE) {
+				byte[] name = new byte[(int) size];
+				readAt(dataOffset, name);
+				longName = getString(name, 0, name.length);
+				continue;
+			}
+
+			// Skip the directories, links and the rest
+			if (type != REGULAR_TYPE && type != OLD_REGULAR_TYPE) {
+				entryOffset = pos;
+				longName = null;
+				continue;
+			}
+
+			String name = longName;
+			if (name == null) {
+				name = getString(header, NAME_OFFSET, NAME_SIZE);
+				String prefix = getString(header, PREFIX_OFFSET, PREFIX_SIZE);
+				if (!prefix.isEmpty()) {
+					name = prefix + PATH_DELIM + name;
+				}
+			}
+			return new ArchiveEntry(name, entryOffset, dataOffset, size, size,
+					0);
+		}
+		return null;
+	}
+
+	@Override
+	public byte[] read(ArchiveEntry entry) throws IOException {
+		byte[] data = new byte[(int) entry.getSize()];
+		readAt(entry.getDataOffset(), data);
+		return data;
+	}
+
+	@Override
+	public long getPos() {
+		return pos;
+	}
+
+	/**
+	 * Parses the entry's size from the header. It's octal, or base-256 for
+	 * huge entries.
+	 *
+	 * @param header
+	 *            the entry's header
+	 * @return the entry's size
+	 */
+	private long getSize(byte[] header) {
+		long size = 0;
+		if ((header[SIZE_OFFSET] & 0x80) != 0) {
+			for (int i = SIZE_OFFSET + 1; i < SIZE_OFFSET + SIZE_SIZE; i++) {
+				size = (size << 8) | (header[i] & 0xff);
+			}
+			return size;
+		}
+
+		for (int i = SIZE_OFFSET; i < SIZE_OFFSET + SIZE_SIZE; i++) {
+			byte digit = header[i];
+			if (digit >= '0' && digit <= '7') {
+				size = (size << 3) + (digit - '0');
+			} else if (size > 0 || digit == 0) {
+				break; // digits end with a space or a nul
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Get a nul terminated string from the buffer.
+	 */
+	private String getString(byte[] buffer, int offset, int length) {
+		int end = offset;
+		while (end < offset + length && buffer[end] != 0) {
+			end++;
+		}
+		return new String(buffer, offset, end - offset, NAMES_CHARSET);
+	}
+
+	/**
+	 * Checks whether the header block is all zeros.
+	 */
+	private boolean isEmpty(byte[] header) {
+		for (byte b : header) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
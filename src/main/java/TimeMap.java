@@ -1,69 +1,93 @@
 import java.io.IOException;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 /**
  * Mapper for hadoop. Gets trip's averall time for every trip.
  */
 public class TimeMap extends
-		Mapper<NullWritable, BytesWritable, Text, TripDataWritable> {
-	private static final String POINTS_DELIM = "\n";
-	private static final String ENCODING = "UTF-8";
+		Mapper<TripIdWritable, BytesWritable, DriverValueWritable, TripDataWritable> {
+	private static final byte POINTS_DELIM = '\n';
+	private TripDataWritable tripData = new TripDataWritable();
+	private DriverValueWritable outKey = new DriverValueWritable();
 
 	@Override
 	protected void map(
-			NullWritable key,
+			TripIdWritable key,
 			BytesWritable tripFile,
-			Mapper<NullWritable, BytesWritable, Text, TripDataWritable>.Context context)
+			Mapper<TripIdWritable, BytesWritable, DriverValueWritable, TripDataWritable>.Context context)
 			throws IOException, InterruptedException {
-		Path filePath = ((FileSplit) context.getInputSplit()).getPath();
+		// Get the trip id & the driver id of the trip
+		Text driverId = key.getDriverID();
+		Integer tripId = key.getTripID();
 
-		// Get the trip id & the driver id from the filename
-		Text driverId = new Text(filePath.getParent().getName());
-		Integer tripId = getTripId(filePath);
-
-		// Get trip length
-		Double tripLength = getTripLength(tripFile);
+		// Get trip length, if the input hasn't counted it already
+		Double tripLength = (double) key.getLines();
+		if (key.getLines() == TripIdWritable.UNKNOWN_LINES) {
+			tripLength = getTripLength(tripFile);
+		}
 
 		// Write the result
-		TripDataWritable tripData = new TripDataWritable();
 		tripData.set(tripId, tripLength);
-		context.write(driverId, tripData);
+		outKey.set(driverId, tripData.getData()); // sorts the trips by value
+		context.write(outKey, tripData);
 	}
 
 	/**
-	 * Parse trip file and compute trip's length.
+	 * Compute trip's length from the trip file.
 	 * 
 	 * @param fileBytes
 	 *            the trip file
-	 * @return
-	 * @throws IOException
+	 * @return the trip's length
 	 */
-	private Double getTripLength(BytesWritable fileBytes) throws IOException {
-		String tripString = IOUtils.toString(fileBytes.getBytes(), ENCODING);
-
+	static Double getTripLength(BytesWritable fileBytes) {
 		// Trip time in seconds = number of points in the trip
-		String[] tripPoints = tripString.split(POINTS_DELIM);
-		return (double) tripPoints.length - 1;
+		return (double) countLines(fileBytes.getBytes(), 0,
+				fileBytes.getLength());
 	}
 
 	/**
-	 * Get trip ID from the filename.
+	 * Count the lines of a trip file, or of a part of it, without decoding it.
+	 * The lines are counted by their ends, so the header line stands for the
+	 * last line if the file doesn't end with a newline.
 	 * 
-	 * @param filePath
-	 *            path to the trip file
-	 * @return the trip ID
+	 * @param tripBytes
+	 *            the trip file's bytes
+	 * @param offset
+	 *            offset to count from
+	 * @param length
+	 *            number of bytes to count in
+	 * @return the number of newlines
 	 */
-	private Integer getTripId(Path filePath) {
-		String tripFileName = filePath.getName(); // get file name
-		int filenameEnding = tripFileName.indexOf("."); // remove ending
-		String strTripId = tripFileName.substring(0, filenameEnding);
-		return Integer.parseInt(strTripId);
+	public static int countLines(byte[] tripBytes, int offset, int length) {
+		int lines = 0;
+		for (int i = offset; i < offset + length; i++) {
+			if (tripBytes[i] == POINTS_DELIM) {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Mapper for hadoop. Gets the trip's time of every simplified trip, from
+	 * the original trip's lines its key keeps.
+	 */
+	public static class Simplified
+			extends
+			Mapper<TripIdWritable, SimplifiedTripWritable, DriverValueWritable, TripDataWritable> {
+		private TripDataWritable tripData = new TripDataWritable();
+		private DriverValueWritable outKey = new DriverValueWritable();
+
+		@Override
+		protected void map(TripIdWritable key, SimplifiedTripWritable trip,
+				Context context) throws IOException, InterruptedException {
+			tripData.set(key.getTripID(),
+					TripFeatures.compute(CheckType.time, key, trip));
+			outKey.set(key.getDriverID(), tripData.getData());
+			context.write(outKey, tripData);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,31 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Gets the tasks' most suspicious trips, sorted with the
+ * most suspicious first, and writes the TOP_K first of them.
+ */
+public class TopTripsReduce
+		extends
+		Reducer<SuspiciousTripWritable, NullWritable, SuspiciousTripWritable, NullWritable> {
+	private int k;
+	private int written = 0;
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		k = context.getConfiguration().getInt(TripScoreReduce.TOP_K, 0);
+	}
+
+	@Override
+	public void reduce(SuspiciousTripWritable trip,
+			Iterable<NullWritable> values, Context context)
+			throws IOException, InterruptedException {
+		if (written < k) {
+			context.write(trip, NullWritable.get());
+			written++;
+		}
+	}
+}
@@ -0,0 +1,367 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.nativeio.NativeIO;
+
+/**
+ * A driver's trips and their values for a behavior check, kept in primitive
+ * arrays which are reused for every driver. The arrays hold up to a memory
+ * budget of trips; the rest are spilled to a memory-mapped scratch file, off
+ * the heap, and read from it in place. The scratch file is reused for every
+ * driver too, and is unmapped and deleted when the batch is closed.
+ */
+public class TripBatch implements Closeable {
+	private static final Log LOG = LogFactory.getLog(TripBatch.class);
+	public static final String MEMORY = "trips.batch.memory";
+	public static final String SCRATCH_DIR = "trips.batch.scratch.dir";
+	private static final long DEFAULT_MEMORY = 64 * 1024 * 1024;
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int ENTRY_BYTES = 12; // the trip id and value
+	private static final int SEGMENT_ENTRIES = 1024 * 1024;
+	private static final long SEGMENT_BYTES = (long) SEGMENT_ENTRIES
+			* ENTRY_BYTES;
+	private static final String SCRATCH_PREFIX = "trips-";
+	private static final String SCRATCH_ENDING = ".spill";
+	private final int memoryCapacity;
+	private final File scratchDir;
+	private int[] tripIDs = new int[INITIAL_CAPACITY];
+	private double[] values = new double[INITIAL_CAPACITY];
+	private int size = 0;
+	private File scratchFile = null;
+	private RandomAccessFile scratch = null;
+	private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+	/**
+	 * The reducers' counters of spilled drivers.
+	 */
+	public static enum Spill {
+		BYTES, DRIVERS
+	}
+
+	/**
+	 * Construct a batch which keeps all its trips in memory.
+	 */
+	public TripBatch() {
+		this(Long.MAX_VALUE, null);
+	}
+
+	/**
+	 * Construct a batch which spills beyond a memory budget.
+	 * 
+	 * @param memoryBytes
+	 *            the budget of the arrays, in bytes
+	 * @param scratchDir
+	 *            folder for the scratch file, null for the default temporary
+	 *            folder
+	 */
+	public TripBatch(long memoryBytes, File scratchDir) {
+		this.memoryCapacity = (int) Math.min(Integer.MAX_VALUE,
+				Math.max(1, memoryBytes / ENTRY_BYTES));
+		this.scratchDir = scratchDir;
+	}
+
+	/**
+	 * Create a batch by the job's settings.
+	 * 
+	 * @param conf
+	 *            the job's configuration
+	 * @param batches
+	 *            number of batches sharing the budget
+	 * @return the batch
+	 */
+	public static TripBatch create(Configuration conf, int batches) {
+		File scratchDir = null;
+		if (conf.get(SCRATCH_DIR) != null) {
+			scratchDir = new File(conf.get(SCRATCH_DIR));
+		}
+		return new TripBatch(conf.getLong(MEMORY, DEFAULT_MEMORY) / batches,
+				scratchDir);
+	}
+
+	/**
+	 * Create a batch of the trips in a map.
+	 *
+	 * @param trips
+	 *            map of trips and their values
+	 * @return the trips' batch
+	 * @throws IOException
+	 */
+	public static TripBatch fromMap(Map<Integer, Double> trips)
+			throws IOException {
+		TripBatch batch = new TripBatch();
+		for (Map.Entry<Integer, Double> entry : trips.entrySet()) {
+			batch.add(entry.getKey(), entry.getValue());
+		}
+		return batch;
+	}
+
+	// Java getters:
+	public int size() {
+		return size;
+	}
+
+	public int getTripID(int index) {
+		if (index < memoryCapacity) {
+			return tripIDs[index];
+		}
+		long spilled = index - memoryCapacity;
+		return getSegment(spilled).getInt(getSegmentOffset(spilled));
+	}
+
+	public double getValue(int index) {
+		if (index < memoryCapacity) {
+			return values[index];
+		}
+		long spilled = index - memoryCapacity;
+		return getSegment(spilled).getDouble(
+				getSegmentOffset(spilled) + Integer.SIZE / Byte.SIZE);
+	}
+
+	/**
+	 * Get the number of bytes the batch spilled.
+	 * 
+	 * @return the spilled bytes, 0 if all the trips are in memory
+	 */
+	public long getSpilledBytes() {
+		return Math.max(0, (long) size - memoryCapacity) * ENTRY_BYTES;
+	}
+
+	/**
+	 * Empty the batch for the next driver, keeping its arrays and scratch
+	 * file.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Add a trip to the batch.
+	 *
+	 * @param tripID
+	 *            the trip id
+	 * @param value
+	 *            the trip's value
+	 * @throws IOException
+	 *             if the trip had to be spilled and couldn't be
+	 */
+	public void add(int tripID, double value) throws IOException {
+		if (size >= memoryCapacity) {
+			spill(size - memoryCapacity, tripID, value);
+			size++;
+			return;
+		}
+
+		if (size == tripIDs.length) {
+			int capacity = (int) Math.min(memoryCapacity, (long) size * 2);
+			tripIDs = Arrays.copyOf(tripIDs, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		tripIDs[size] = tripID;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Get the highest trip id in the batch.
+	 *
+	 * @return the last trip id, or 0 if the batch is empty
+	 */
+	public int getLastTripID() {
+		int lastTripID = 0;
+		for (int i = 0; i < size; i++) {
+			lastTripID = Math.max(lastTripID, getTripID(i));
+		}
+		return lastTripID;
+	}
+
+	/**
+	 * Sort the trips by value in place, spilled ones included, so sorting
+	 * takes no memory beyond the batch's own.
+	 */
+	public void sortByValue() {
+		boolean isSorted = true;
+		for (int i = 1; i < size && isSorted; i++) {
+			isSorted = getValue(i - 1) <= getValue(i);
+		}
+		if (isSorted) {
+			return;
+		}
+
+		// Heap sort, since it needs no buffer
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(i, size);
+		}
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			siftDown(0, end);
+		}
+	}
+
+	/**
+	 * Release the scratch file: unmap it and delete it. The batch can still
+	 * be reused, and maps a new scratch file if it spills again.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (scratch == null) {
+			return;
+		}
+		for (MappedByteBuffer segment : segments) {
+			unmap(segment);
+		}
+		segments.clear();
+		scratch.close();
+		if (!scratchFile.delete()) {
+			LOG.warn("Can't delete the scratch file " + scratchFile);
+		}
+		scratch = null;
+		scratchFile = null;
+		size = Math.min(size, memoryCapacity);
+	}
+
+	/**
+	 * Unmap a segment of the scratch file now, if the JVM lets hadoop do it,
+	 * instead of when the segment is collected.
+	 * 
+	 * @param segment
+	 *            the segment
+	 */
+	private static void unmap(MappedByteBuffer segment) {
+		try {
+			NativeIO.POSIX.munmap(segment);
+		} catch (LinkageError e) {
+			// the JVM hides the buffers' cleaner, it's unmapped once collected
+		}
+	}
+
+	/**
+	 * Move a trip down the heap of the trips before an end, until it's not
+	 * smaller than its children.
+	 * 
+	 * @param index
+	 *            the trip's index
+	 * @param end
+	 *            the heap's end (exclusive)
+	 */
+	private void siftDown(int index, int end) {
+		while (true) {
+			long child = 2L * index + 1;
+			if (child >= end) {
+				return;
+			}
+			int larger = (int) child;
+			if (child + 1 < end
+					&& Double.compare(getValue(larger + 1), getValue(larger)) > 0) {
+				larger++;
+			}
+			if (Double.compare(getValue(larger), getValue(index)) <= 0) {
+				return;
+			}
+			swap(index, larger);
+			index = larger;
+		}
+	}
+
+	/**
+	 * Swap two trips of the batch.
+	 * 
+	 * @param first
+	 *            the first trip's index
+	 * @param second
+	 *            the second trip's index
+	 */
+	private void swap(int first, int second) {
+		int firstID = getTripID(first);
+		double firstValue = getValue(first);
+		set(first, getTripID(second), getValue(second));
+		set(second, firstID, firstValue);
+	}
+
+	/**
+	 * Overwrite a trip of the batch.
+	 * 
+	 * @param index
+	 *            the trip's index
+	 * @param tripID
+	 *            the trip id
+	 * @param value
+	 *            the trip's value
+	 */
+	private void set(int index, int tripID, double value) {
+		if (index < memoryCapacity) {
+			tripIDs[index] = tripID;
+			values[index] = value;
+			return;
+		}
+		long spilled = index - memoryCapacity;
+		int offset = getSegmentOffset(spilled);
+		MappedByteBuffer buffer = getSegment(spilled);
+		buffer.putInt(offset, tripID);
+		buffer.putDouble(offset + Integer.SIZE / Byte.SIZE, value);
+	}
+
+	/**
+	 * Write a trip to the scratch file, mapping another segment of it if
+	 * needed.
+	 * 
+	 * @param spilled
+	 *            the trip's index among the spilled trips
+	 * @param tripID
+	 *            the trip id
+	 * @param value
+	 *            the trip's value
+	 * @throws IOException
+	 */
+	private void spill(long spilled, int tripID, double value)
+			throws IOException {
+		int segment = (int) (spilled / SEGMENT_ENTRIES);
+		if (segment == segments.size()) {
+			if (scratch == null) {
+				scratchFile = File.createTempFile(SCRATCH_PREFIX,
+						SCRATCH_ENDING, scratchDir);
+				scratch = new RandomAccessFile(scratchFile, "rw");
+			}
+			segments.add(scratch.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, segment * SEGMENT_BYTES,
+					SEGMENT_BYTES));
+		}
+
+		int offset = getSegmentOffset(spilled);
+		MappedByteBuffer buffer = segments.get(segment);
+		buffer.putInt(offset, tripID);
+		buffer.putDouble(offset + Integer.SIZE / Byte.SIZE, value);
+	}
+
+	/**
+	 * Get the mapped segment of a spilled trip.
+	 * 
+	 * @param spilled
+	 *            the trip's index among the spilled trips
+	 * @return the trip's segment
+	 */
+	private MappedByteBuffer getSegment(long spilled) {
+		return segments.get((int) (spilled / SEGMENT_ENTRIES));
+	}
+
+	/**
+	 * Get the offset of a spilled trip in its segment.
+	 * 
+	 * @param spilled
+	 *            the trip's index among the spilled trips
+	 * @return the trip's offset in bytes
+	 */
+	private static int getSegmentOffset(long spilled) {
+		return (int) (spilled % SEGMENT_ENTRIES) * ENTRY_BYTES;
+	}
+}
@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Hadoop's splittable format of trip files. Every trip file is split to
+ * chunks of up to the job's maximal split size (trips.input.chunk.bytes for
+ * the Driver), and every chunk is a record of the lines starting in it (see
+ * TripChunkWritable), so a very long trip is read by many mappers. An
+ * empty trip file is a single empty chunk, so the trip still gets its
+ * features.
+ */
+public class TripChunkInputFormat extends
+		FileInputFormat<TripIdWritable, TripChunkWritable> {
+	public static final String CHUNK_BYTES = "trips.input.chunk.bytes";
+	public static final String OVERLAP_BYTES = "trips.input.chunk.overlap";
+	public static final int DEFAULT_OVERLAP_BYTES = 64 * 1024;
+	private static final byte POINTS_DELIM = '\n';
+	private static final int SCAN_BUFFER_SIZE = 4 * 1024;
+
+	@Override
+	protected List<FileStatus> listStatus(JobContext job) throws IOException {
+		List<FileStatus> files = InputManifest.listStatus(job);
+		if (files == null) {
+			return super.listStatus(job); // no manifest, list the input
+		}
+		return files;
+	}
+
+	@Override
+	protected boolean isSplitable(JobContext context, Path filename) {
+		return true;
+	}
+
+	@Override
+	public RecordReader<TripIdWritable, TripChunkWritable> createRecordReader(
+			InputSplit split, TaskAttemptContext context) {
+		return new TripChunkRecordReader();
+	}
+
+	/**
+	 * Read more of the trip file after the chunk's bytes, at least the
+	 * overlap's size, doubling the chunk's bytes on every call.
+	 *
+	 * @param conf
+	 *            the configuration
+	 * @param file
+	 *            the trip file
+	 * @param chunk
+	 *            the chunk to extend
+	 * @throws IOException
+	 */
+	public static void readMore(Configuration conf, Path file,
+			TripChunkWritable chunk) throws IOException {
+		int length = (int) Math.min(chunk.getFileLength() - chunk.getEnd(),
+				Math.max(chunk.getBytes().getLength(),
+						conf.getInt(OVERLAP_BYTES, DEFAULT_OVERLAP_BYTES)));
+		FSDataInputStream in = file.getFileSystem(conf).open(file);
+		try {
+			byte[] more = new byte[length];
+			in.seek(chunk.getEnd());
+			IOUtils.readFully(in, more, 0, length);
+			chunk.append(more, length);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a split's chunk of a trip file.
+	 */
+	private static class TripChunkRecordReader extends
+			RecordReader<TripIdWritable, TripChunkWritable> {
+		private FileSplit split;
+		private Configuration conf;
+		private final TripIdWritable currKey = new TripIdWritable();
+		private final TripChunkWritable currValue = new TripChunkWritable();
+		private boolean chunkProcessed = false;
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context)
+				throws IOException, InterruptedException {
+			this.split = (FileSplit) split;
+			this.conf = context.getConfiguration();
+
+			// Get the trip id & the driver id from the filename
+			if (!currKey.set(this.split.getPath().toString(),
+					conf.getBoolean(TripIdWritable.DATASETS, false))) {
+				throw new IOException("Not a trip file: "
+						+ this.split.getPath());
+			}
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			if (chunkProcessed) {
+				return false;
+			}
+			chunkProcessed = true;
+
+			Path file = split.getPath();
+			FileSystem fs = file.getFileSystem(conf);
+			long fileLength = fs.getFileStatus(file).getLen();
+			int overlap = conf.getInt(OVERLAP_BYTES, DEFAULT_OVERLAP_BYTES);
+			FSDataInputStream in = fs.open(file);
+			try {
+				long ownedStart = findLineStart(in, split.getStart(),
+						fileLength);
+				long ownedEnd = findLineStart(in, split.getStart()
+						+ split.getLength(), fileLength);
+				if (ownedStart >= ownedEnd && fileLength > 0) {
+					return false; // no line starts in the split
+				}
+
+				// Go back over the lines before until one is a point
+				long offset = ownedStart;
+				int lookback = overlap;
+				while (offset > 0) {
+					offset = Math.max(0, ownedStart - lookback);
+					byte[] before = readRange(in, offset, ownedStart);
+					if (TripPoint.parseLastPoint(before, before.length,
+							offset == 0) != null) {
+						break;
+					}
+					lookback *= 2;
+				}
+
+				byte[] bytes = readRange(in, offset,
+						Math.min(fileLength, ownedEnd + overlap));
+				currValue.set(offset, ownedStart, ownedEnd, fileLength);
+				currValue.getBytes().set(bytes, 0, bytes.length);
+			} finally {
+				IOUtils.closeStream(in);
+			}
+			return true;
+		}
+
+		/**
+		 * Find the first line start at or after a position of the file.
+		 *
+		 * @param in
+		 *            the opened file
+		 * @param position
+		 *            the position
+		 * @param fileLength
+		 *            the file's length
+		 * @return the line's offset, or the file's length if no line starts
+		 *         there
+		 * @throws IOException
+		 */
+		private static long findLineStart(FSDataInputStream in, long position,
+				long fileLength) throws IOException {
+			if (position <= 0) {
+				return 0;
+			}
+			if (position >= fileLength) {
+				return fileLength;
+			}
+
+			// A line starts after the first newline from the byte before
+			byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+			long bufferStart = position - 1;
+			in.seek(bufferStart);
+			for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+				for (int i = 0; i < read; i++) {
+					if (buffer[i] == POINTS_DELIM) {
+						return bufferStart + i + 1;
+					}
+				}
+				bufferStart += read;
+			}
+			return fileLength;
+		}
+
+		/**
+		 * Read a range of the file.
+		 *
+		 * @param in
+		 *            the opened file
+		 * @param start
+		 *            offset to read from
+		 * @param end
+		 *            offset to read until
+		 * @return the range's bytes
+		 * @throws IOException
+		 */
+		private static byte[] readRange(FSDataInputStream in, long start,
+				long end) throws IOException {
+			byte[] bytes = new byte[(int) (end - start)];
+			in.seek(start);
+			IOUtils.readFully(in, bytes, 0, bytes.length);
+			return bytes;
+		}
+
+		@Override
+		public TripIdWritable getCurrentKey() throws IOException,
+				InterruptedException {
+			return currKey;
+		}
+
+		@Override
+		public TripChunkWritable getCurrentValue() throws IOException,
+				InterruptedException {
+			return currValue;
+		}
+
+		@Override
+		public float getProgress() throws IOException, InterruptedException {
+			if (chunkProcessed) {
+				return 1;
+			}
+			return 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			// the file is closed after every read
+		}
+	}
+}
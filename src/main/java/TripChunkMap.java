@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Mapper for hadoop. Gets the partial features of a trip's chunk: its lines,
+ * its last point and its accelerations, by the rules of the checks' mappers.
+ * The accelerations are found by going over the speeds from a stop to the
+ * end of the acceleration after it, so where an acceleration starts depends
+ * on where the ones before it ended. The chunk follows the way from its
+ * first speed, reading after its lines as long as needed, until it meets
+ * the way from the next chunk's first speed. From there on the ways are the
+ * same, so the merged chunks (see TripChunkReduce) find exactly the
+ * accelerations of the whole trip. The ways almost always meet within the
+ * next chunk's first few speeds.
+ */
+public class TripChunkMap extends
+		Mapper<TripIdWritable, TripChunkWritable, TripIdWritable, TripPartialWritable> {
+	private static final byte POINTS_DELIM = '\n';
+	private static final String ENCODING = "UTF-8";
+	private static final int INITIAL_SPEEDS = 1024;
+	private TripPartialWritable partial = new TripPartialWritable();
+	private Configuration conf;
+	private Path file;
+	private TripChunkWritable chunk;
+	private int cursor;
+	private TripPoint lastPoint;
+	private boolean isTripEnd;
+	private int speedsNo;
+	private double[] speeds = new double[INITIAL_SPEEDS];
+	private long[] positions = new long[INITIAL_SPEEDS];
+	private double stepAcceleration;
+
+	/**
+	 * The job's counters of chunks.
+	 */
+	public static enum Chunks {
+		CHUNKS, READ_MORE
+	}
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		conf = context.getConfiguration();
+		file = ((FileSplit) context.getInputSplit()).getPath();
+	}
+
+	@Override
+	protected void map(TripIdWritable key, TripChunkWritable value,
+			Context context) throws IOException, InterruptedException {
+		chunk = value;
+		byte[] bytes = chunk.getBytes().getBytes();
+		int ownedFrom = (int) (chunk.getOwnedStart() - chunk.getOffset());
+		int ownedLength = (int) (chunk.getOwnedEnd() - chunk.getOwnedStart());
+
+		// The chunk's lines and last point
+		int lines = TimeMap.countLines(bytes, ownedFrom, ownedLength);
+		TripPoint chunkLastPoint = TripPoint.parseLastPoint(bytes, ownedFrom,
+				ownedLength, true);
+		partial.set(chunk.getOwnedStart(), lines, chunkLastPoint);
+
+		// The chunk's speeds start after the point before its lines
+		cursor = 0;
+		if (chunk.getOffset() > 0) {
+			cursor = indexOf(bytes, POINTS_DELIM, 0, ownedFrom) + 1;
+		}
+		lastPoint = null;
+		isTripEnd = false;
+		speedsNo = 0;
+		int readMore = 0;
+
+		// Follow the way from the chunk's first speed over its speeds
+		int way = 0;
+		while (hasSpeed(way) && positions[way] < chunk.getOwnedStart()) {
+			way++;
+		}
+		while (hasSpeed(way) && positions[way] < chunk.getOwnedEnd()) {
+			way = step(way);
+		}
+
+		// Follow it on until it meets the way from the next chunk's first one
+		if (chunk.getOwnedEnd() < chunk.getFileLength()) {
+			int nextWay = way;
+			while (nextWay > 0 && hasSpeed(nextWay - 1)
+					&& positions[nextWay - 1] >= chunk.getOwnedEnd()) {
+				nextWay--;
+			}
+			while (way != nextWay) {
+				if (way < nextWay) {
+					if (!hasSpeed(way)) {
+						break;
+					}
+					way = step(way);
+				} else {
+					if (!hasSpeed(nextWay)) {
+						break;
+					}
+					nextWay = stepOver(nextWay);
+				}
+			}
+			if (way == nextWay && hasSpeed(way)) {
+				partial.setMeetPosition(positions[way]);
+			}
+		}
+
+		if (chunk.getEnd() > chunk.getOwnedEnd()
+				+ conf.getInt(TripChunkInputFormat.OVERLAP_BYTES,
+						TripChunkInputFormat.DEFAULT_OVERLAP_BYTES)) {
+			readMore = 1;
+		}
+		context.getCounter(Chunks.CHUNKS).increment(1);
+		context.getCounter(Chunks.READ_MORE).increment(readMore);
+		context.write(key, partial);
+	}
+
+	/**
+	 * Take a step along the way from a speed, as AccelrMap does, adding the
+	 * acceleration found in it.
+	 *
+	 * @param speed
+	 *            the speed to step from
+	 * @return the speed the next step starts from
+	 * @throws IOException
+	 */
+	private int step(int speed) throws IOException {
+		int next = stepOver(speed);
+		if (!Double.isNaN(stepAcceleration)) {
+			partial.add(positions[speed], stepAcceleration);
+		}
+		return next;
+	}
+
+	/**
+	 * Take a step along the way from a speed, as AccelrMap does: from a stop,
+	 * over the slowing down and the speeding up after it.
+	 *
+	 * @param speed
+	 *            the speed to step from
+	 * @return the speed the next step starts from
+	 * @throws IOException
+	 */
+	private int stepOver(int speed) throws IOException {
+		stepAcceleration = Double.NaN;
+		if (speeds[speed] >= AccelrMap.STOP_VELOCITY || !hasSpeed(speed + 1)) {
+			return speed + 1;
+		}
+
+		// Loop while the driver slows down
+		int next = speed + 1;
+		double currV = speeds[speed];
+		double initV = currV;
+		double nextV = speeds[next];
+		while (hasSpeed(next + 1) && nextV <= currV) {
+			currV = nextV;
+			initV = currV;
+			next++;
+			nextV = speeds[next];
+		}
+
+		// Loop on velocities while accelerating
+		int dt = 0;
+		while (hasSpeed(next + 1) && nextV > currV) {
+			dt++;
+			currV = nextV;
+			next++;
+			nextV = speeds[next];
+		}
+
+		// If accelerated at least MIN_ACCELR_TIME, count it
+		if (dt >= AccelrMap.MIN_ACCELR_TIME) {
+			double dV = currV - initV;
+			stepAcceleration = dV / dt;
+		}
+		return next + 1;
+	}
+
+	/**
+	 * Check whether the trip has a speed, parsing its points up to it.
+	 *
+	 * @param speed
+	 *            the speed's index
+	 * @return true if the trip has the speed
+	 * @throws IOException
+	 */
+	private boolean hasSpeed(int speed) throws IOException {
+		while (speedsNo <= speed && !isTripEnd) {
+			parseNextLine();
+		}
+		return speed < speedsNo;
+	}
+
+	/**
+	 * Parse the next line, adding the speed from the last point to it if it's
+	 * a point. Reads more of the trip file if the line isn't complete.
+	 *
+	 * @throws IOException
+	 */
+	private void parseNextLine() throws IOException {
+		byte[] bytes = chunk.getBytes().getBytes();
+		int length = chunk.getBytes().getLength();
+		int lineEnd = indexOf(bytes, POINTS_DELIM, cursor, length);
+		while (lineEnd == length && !chunk.isAtFileEnd()) {
+			TripChunkInputFormat.readMore(conf, file, chunk);
+			bytes = chunk.getBytes().getBytes();
+			length = chunk.getBytes().getLength();
+			lineEnd = indexOf(bytes, POINTS_DELIM, cursor, length);
+		}
+		if (cursor >= length) {
+			isTripEnd = true;
+			return;
+		}
+
+		int lineStart = cursor;
+		cursor = lineEnd + 1;
+		TripPoint point;
+		try {
+			point = new TripPoint(new String(bytes, lineStart, lineEnd
+					- lineStart, ENCODING));
+		} catch (Exception e) {
+			return; // not a point
+		}
+
+		if (lastPoint != null) {
+			addSpeed(lastPoint.getDistFrom(point), chunk.getOffset()
+					+ lineStart);
+		}
+		lastPoint = point;
+	}
+
+	/**
+	 * Add a speed.
+	 *
+	 * @param speed
+	 *            the speed
+	 * @param position
+	 *            file offset of the line of the point the speed ends at
+	 */
+	private void addSpeed(double speed, long position) {
+		if (speedsNo == speeds.length) {
+			speeds = Arrays.copyOf(speeds, speedsNo * 2);
+			positions = Arrays.copyOf(positions, speedsNo * 2);
+		}
+		speeds[speedsNo] = speed;
+		positions[speedsNo] = position;
+		speedsNo++;
+	}
+
+	/**
+	 * Find the first occurrence of a byte.
+	 *
+	 * @param bytes
+	 *            the bytes to search in
+	 * @param b
+	 *            the byte to find
+	 * @param from
+	 *            the index to search from
+	 * @param to
+	 *            the index to search until
+	 * @return the byte's index, or to if not found
+	 */
+	private static int indexOf(byte[] bytes, byte b, int from, int to) {
+		int i = from;
+		while (i < to && bytes[i] != b) {
+			i++;
+		}
+		return i;
+	}
+}
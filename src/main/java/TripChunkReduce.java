@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Reducer for hadoop. Merges the partial features of a trip's chunks (see
+ * TripChunkMap) to the trip's features for every behavior check. Every
+ * chunk's accelerations are taken from where the way of the chunk before it
+ * met its own, so the trip's accelerations are the whole trip's, in order,
+ * and their average is the same as AccelrMap's. They're summed in that
+ * order, like AccelrMap sums them, which is why the chunks ship every
+ * acceleration rather than their sums: sums of chunks would be added in
+ * another order, and differ from the whole trip's in the last bits.
+ */
+public class TripChunkReduce extends
+		Reducer<TripIdWritable, TripPartialWritable, TripIdWritable, TripVectorWritable> {
+	private TripVectorWritable tripVector = new TripVectorWritable();
+
+	@Override
+	public void reduce(TripIdWritable key,
+			Iterable<TripPartialWritable> partials, Context context)
+			throws IOException, InterruptedException {
+		// Sort the trip's chunks by their place in the file
+		List<TripPartialWritable> chunks = new ArrayList<TripPartialWritable>();
+		for (TripPartialWritable partial : partials) {
+			chunks.add(partial.copy()); // hadoop reuses the partial
+		}
+		Collections.sort(chunks, new Comparator<TripPartialWritable>() {
+			@Override
+			public int compare(TripPartialWritable a, TripPartialWritable b) {
+				return Long.compare(a.getStart(), b.getStart());
+			}
+		});
+
+		// Merge the chunks
+		int lines = 0;
+		Double lastDistance = null;
+		double accelerationsSum = 0;
+		int accelerationsNo = 0;
+		long reached = Long.MIN_VALUE;
+		for (TripPartialWritable chunk : chunks) {
+			lines += chunk.getLines();
+			if (chunk.hasLastPoint()) {
+				lastDistance = chunk.getLastDistance();
+			}
+			for (int i = 0; i < chunk.size(); i++) {
+				if (chunk.getPosition(i) >= reached) {
+					accelerationsSum += chunk.getAcceleration(i);
+					accelerationsNo++;
+				}
+			}
+			reached = Math.max(reached, chunk.getMeetPosition());
+		}
+
+		// Set the trip's features in the order of the checks
+		double[] features = new double[CheckType.values().length];
+		if (accelerationsNo > 0) {
+			features[CheckType.acceleration.ordinal()] = accelerationsSum
+					/ accelerationsNo;
+		}
+		features[CheckType.time.ordinal()] = lines;
+		if (lastDistance != null) {
+			features[CheckType.distance.ordinal()] = lastDistance;
+		}
+		key.setLines(lines);
+		tripVector.set(key.getTripID(), features);
+		context.write(key, tripVector);
+	}
+}
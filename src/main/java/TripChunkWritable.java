@@ -0,0 +1,121 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable chunk of a trip file. The chunk owns the lines starting
+ * in its split, and its bytes also hold some lines before them, with at
+ * least one point if the trip has one there, and an overlap after them. The
+ * offsets are of the trip file.
+ */
+public class TripChunkWritable implements Writable {
+	private long offset = 0;
+	private long ownedStart = 0;
+	private long ownedEnd = 0;
+	private long fileLength = 0;
+	private BytesWritable bytes = new BytesWritable();
+
+	public TripChunkWritable() {
+		super();
+	}
+
+	// Java getters:
+	public long getOffset() {
+		return offset;
+	}
+
+	public long getOwnedStart() {
+		return ownedStart;
+	}
+
+	public long getOwnedEnd() {
+		return ownedEnd;
+	}
+
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	public BytesWritable getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get the file offset where the chunk's bytes end.
+	 *
+	 * @return the bytes' end offset
+	 */
+	public long getEnd() {
+		return offset + bytes.getLength();
+	}
+
+	/**
+	 * Check whether the chunk's bytes reach the end of the file.
+	 *
+	 * @return true if no bytes of the file are after the chunk's
+	 */
+	public boolean isAtFileEnd() {
+		return getEnd() >= fileLength;
+	}
+
+	/**
+	 * Set the chunk's range.
+	 *
+	 * @param offset
+	 *            file offset of the chunk's first byte
+	 * @param ownedStart
+	 *            file offset of the chunk's first line
+	 * @param ownedEnd
+	 *            file offset after the chunk's last line
+	 * @param fileLength
+	 *            the trip file's length
+	 */
+	public void set(long offset, long ownedStart, long ownedEnd,
+			long fileLength) {
+		this.offset = offset;
+		this.ownedStart = ownedStart;
+		this.ownedEnd = ownedEnd;
+		this.fileLength = fileLength;
+	}
+
+	/**
+	 * Append bytes which follow the chunk's bytes in the file.
+	 *
+	 * @param more
+	 *            the bytes
+	 * @param length
+	 *            number of bytes to append
+	 */
+	public void append(byte[] more, int length) {
+		int oldLength = bytes.getLength();
+		bytes.setSize(oldLength + length); // keeps the old bytes
+		System.arraycopy(more, 0, bytes.getBytes(), oldLength, length);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		offset = WritableUtils.readVLong(in);
+		ownedStart = WritableUtils.readVLong(in);
+		ownedEnd = WritableUtils.readVLong(in);
+		fileLength = WritableUtils.readVLong(in);
+		bytes.readFields(in);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVLong(out, offset);
+		WritableUtils.writeVLong(out, ownedStart);
+		WritableUtils.writeVLong(out, ownedEnd);
+		WritableUtils.writeVLong(out, fileLength);
+		bytes.write(out);
+	}
+
+	@Override
+	public String toString() {
+		return ownedStart + "-" + ownedEnd + " of " + fileLength;
+	}
+}
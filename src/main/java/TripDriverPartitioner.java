@@ -0,0 +1,17 @@
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Hadoop partitioner which sends all the trips of a driver to the same
+ * reducer, whatever the trips are.
+ *
+ * @param <V>
+ *            the map output value type
+ */
+public class TripDriverPartitioner<V> extends Partitioner<TripIdWritable, V> {
+
+	@Override
+	public int getPartition(TripIdWritable key, V value, int numPartitions) {
+		return (key.getDriverID().hashCode() & Integer.MAX_VALUE)
+				% numPartitions;
+	}
+}
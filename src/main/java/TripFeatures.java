@@ -0,0 +1,165 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Computes the trip features of the behavior checks outside the behavior
+ * jobs, using the checks' mappers' logic.
+ */
+public class TripFeatures {
+
+	/**
+	 * Compute a check's feature of a trip read by the jobs' input formats,
+	 * using the trip's lines when the input has counted them.
+	 *
+	 * @param check
+	 *            the behavior check
+	 * @param key
+	 *            the trip's id
+	 * @param tripFile
+	 *            the trip file, as read for the check
+	 * @return the trip's feature, 0 if the trip has no such feature
+	 * @throws IOException
+	 */
+	public static double compute(CheckType check, TripIdWritable key,
+			BytesWritable tripFile) throws IOException {
+		return compute(check, key, tripFile, null);
+	}
+
+	/**
+	 * Compute a check's feature of a trip read by the jobs' input formats,
+	 * smoothing the trip's speeds for the acceleration check.
+	 *
+	 * @param check
+	 *            the behavior check
+	 * @param key
+	 *            the trip's id
+	 * @param tripFile
+	 *            the trip file, as read for the check
+	 * @param smoother
+	 *            the speeds' smoother, or null to use the raw speeds
+	 * @return the trip's feature, 0 if the trip has no such feature
+	 * @throws IOException
+	 */
+	public static double compute(CheckType check, TripIdWritable key,
+			BytesWritable tripFile, SpeedSmoother smoother) throws IOException {
+		Double value = null;
+		if (check == CheckType.time
+				&& key.getLines() != TripIdWritable.UNKNOWN_LINES) {
+			value = (double) key.getLines();
+		} else {
+			value = compute(check, tripFile, smoother);
+		}
+		if (value == null) {
+			value = 0.0; // take care of case where there's no data
+		}
+		return value;
+	}
+
+	/**
+	 * Compute a check's feature of a trip read by the jobs' input formats, the
+	 * original trip file or the simplified trip, as the check's input is.
+	 *
+	 * @param check
+	 *            the behavior check
+	 * @param key
+	 *            the trip's id
+	 * @param trip
+	 *            the trip file, or the simplified trip
+	 * @param smoother
+	 *            the speeds' smoother, or null to use the raw speeds
+	 * @return the trip's feature, 0 if the trip has no such feature
+	 * @throws IOException
+	 */
+	public static double compute(CheckType check, TripIdWritable key,
+			Writable trip, SpeedSmoother smoother) throws IOException {
+		if (trip instanceof SimplifiedTripWritable) {
+			return compute(check, key, (SimplifiedTripWritable) trip);
+		}
+		return compute(check, key, (BytesWritable) trip, smoother);
+	}
+
+	/**
+	 * Compute a geometry check's feature of a simplified trip. Its time is the
+	 * original trip's lines, as its key keeps them or by its final point's
+	 * index.
+	 *
+	 * @param check
+	 *            the behavior check, time or distance
+	 * @param key
+	 *            the trip's id
+	 * @param trip
+	 *            the simplified trip
+	 * @return the trip's feature, 0 if the trip has no such feature
+	 */
+	public static double compute(CheckType check, TripIdWritable key,
+			SimplifiedTripWritable trip) {
+		switch (check) {
+		case time:
+			if (key.getLines() != TripIdWritable.UNKNOWN_LINES) {
+				return key.getLines();
+			}
+			if (trip.size() == 0) {
+				return 0.0; // take care of case where there's no data
+			}
+			// The final point is always kept; count the header line too
+			return trip.getIndex(trip.size() - 1) + 2;
+		case distance:
+			TripPoint destination = trip.getLastPoint();
+			if (destination == null) {
+				return 0.0; // take care of case where there's no data
+			}
+			return destination.getDistance();
+		default:
+			throw new IllegalArgumentException("The " + check
+					+ " check needs the original trips");
+		}
+	}
+
+	/**
+	 * Compute a check's feature of the trip.
+	 *
+	 * @param check
+	 *            the behavior check
+	 * @param tripFile
+	 *            the whole trip file
+	 * @return the trip's feature, or null if the trip has no such feature
+	 * @throws IOException
+	 */
+	public static Double compute(CheckType check, BytesWritable tripFile)
+			throws IOException {
+		return compute(check, tripFile, null);
+	}
+
+	/**
+	 * Compute a check's feature of the trip, smoothing its speeds for the
+	 * acceleration check.
+	 *
+	 * @param check
+	 *            the behavior check
+	 * @param tripFile
+	 *            the whole trip file
+	 * @param smoother
+	 *            the speeds' smoother, or null to use the raw speeds
+	 * @return the trip's feature, or null if the trip has no such feature
+	 * @throws IOException
+	 */
+	public static Double compute(CheckType check, BytesWritable tripFile,
+			SpeedSmoother smoother) throws IOException {
+		switch (check) {
+		case acceleration:
+			return AccelrMap.getAvgAcceleration(tripFile, smoother);
+		case time:
+			return TimeMap.getTripLength(tripFile);
+		case distance:
+			TripPoint destination = DistMap.getDestinationPoint(tripFile);
+			if (destination == null) {
+				return null;
+			}
+			return destination.getDistance();
+		default:
+			throw new IllegalArgumentException("Unknown check " + check);
+		}
+	}
+}
@@ -0,0 +1,36 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Mapper for hadoop. Gets a behavior check's value for every trip from the
+ * trips' features merged from their chunks (see TripChunkReduce), like the
+ * check's mapper gets it from the whole trip.
+ */
+public class TripFeaturesMap extends
+		Mapper<TripIdWritable, TripVectorWritable, DriverValueWritable, TripDataWritable> {
+	public static final String CHECK = "trips.features.check";
+	private CheckType check;
+	private TripDataWritable tripData = new TripDataWritable();
+	private DriverValueWritable outKey = new DriverValueWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		check = CheckType.valueOf(context.getConfiguration().get(CHECK));
+	}
+
+	@Override
+	protected void map(TripIdWritable key, TripVectorWritable trip,
+			Context context) throws IOException, InterruptedException {
+		// Get the trip id & the driver id of the trip
+		Text driverId = key.getDriverID();
+		Integer tripId = key.getTripID();
+
+		// Write the check's value by trip id
+		tripData.set(tripId, trip.getFeatures()[check.ordinal()]);
+		outKey.set(driverId, tripData.getData()); // sorts the trips by value
+		context.write(outKey, tripData);
+	}
+}
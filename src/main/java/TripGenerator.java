@@ -0,0 +1,236 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates a synthetic drivers' folder: drivers/driverId/tripId.csv files of
+ * "x,y" points a second apart, like the real dataset's. Every driver has a
+ * driving style - cruise speed, acceleration, usual trip time and how often
+ * they stop - and drives with stop-and-go traffic. Some of the trips are foreign,
+ * driven in a stranger's style; they're listed in the FOREIGN_FILE, which the
+ * jobs skip as hidden. The same seed always generates the same trips.
+ */
+public class TripGenerator {
+	public static final String FOREIGN_FILE = "_foreign.csv";
+	private static final int OUTPUT_ARG = 0;
+	private static final int DRIVERS_ARG = 1;
+	private static final int TRIPS_ARG = 2;
+	private static final int SEED_ARG = 3;
+	private static final int FOREIGN_ARG = 4;
+	private static final long DEFAULT_SEED = 1;
+	private static final long DRIVER_SEED_STEP = 1000003;
+	private static final double DEFAULT_FOREIGN_RATIO = 0.05;
+	private static final String ENCODING = "UTF-8";
+	private static final String HEADER = "x,y\n";
+	private static final String TRIP_ENDING = ".csv";
+	private static final int MIN_TRIP_SECS = 60;
+	private static final int TARGET_SECS = 30; // time to keep a target speed
+	private static final int MAX_STOP_SECS = 60;
+	private static final double GPS_NOISE = 0.3; // meters
+	private final long seed;
+	private final double foreignRatio;
+
+	/**
+	 * Construct a generator.
+	 *
+	 * @param seed
+	 *            the random seed
+	 * @param foreignRatio
+	 *            the part of the trips which are foreign
+	 */
+	public TripGenerator(long seed, double foreignRatio) {
+		this.seed = seed;
+		this.foreignRatio = foreignRatio;
+	}
+
+	/**
+	 * Generates a drivers' folder.
+	 *
+	 * @param args
+	 *            output folder, number of drivers, trips per driver, optional
+	 *            seed and optional foreign trips' ratio
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		long seed = DEFAULT_SEED;
+		if (args.length > SEED_ARG) {
+			seed = Long.parseLong(args[SEED_ARG]);
+		}
+		double foreignRatio = DEFAULT_FOREIGN_RATIO;
+		if (args.length > FOREIGN_ARG) {
+			foreignRatio = Double.parseDouble(args[FOREIGN_ARG]);
+		}
+
+		new TripGenerator(seed, foreignRatio).generate(
+				new File(args[OUTPUT_ARG]),
+				Integer.parseInt(args[DRIVERS_ARG]),
+				Integer.parseInt(args[TRIPS_ARG]));
+	}
+
+	/**
+	 * Generates the drivers' folders, numbered from 1, with trips numbered
+	 * from 1.
+	 *
+	 * @param folder
+	 *            the drivers' folder to create
+	 * @param drivers
+	 *            number of drivers
+	 * @param trips
+	 *            number of trips per driver
+	 * @throws IOException
+	 */
+	public void generate(File folder, int drivers, int trips)
+			throws IOException {
+		FileUtils.forceMkdir(folder);
+		StringBuilder foreign = new StringBuilder(FalseTripsMap.HEADER);
+
+		for (int driverId = 1; driverId <= drivers; driverId++) {
+			// Every driver has their own random, the same at any scale
+			Random random = new Random(seed * DRIVER_SEED_STEP + driverId);
+			DrivingStyle style = new DrivingStyle(random);
+			File driverFolder = new File(folder, Integer.toString(driverId));
+			FileUtils.forceMkdir(driverFolder);
+
+			for (int tripId = 1; tripId <= trips; tripId++) {
+				DrivingStyle tripStyle = style;
+				if (random.nextDouble() < foreignRatio) {
+					tripStyle = new DrivingStyle(random); // a stranger drives
+					foreign.append(FalseTripsMap.buildTripRow(
+							Integer.toString(driverId), tripId, true));
+					foreign.append('\n');
+				}
+				writeTrip(new File(driverFolder, tripId + TRIP_ENDING),
+						tripStyle, random);
+			}
+		}
+
+		FileUtils.writeStringToFile(new File(folder, FOREIGN_FILE),
+				foreign.toString(), ENCODING);
+	}
+
+	/**
+	 * Drives a trip and writes its points.
+	 *
+	 * @param tripFile
+	 *            the trip file to write
+	 * @param style
+	 *            the driving style
+	 * @param random
+	 *            the random to drive by
+	 * @throws IOException
+	 */
+	private static void writeTrip(File tripFile, DrivingStyle style,
+			Random random) throws IOException {
+		int tripSecs = Math.max(MIN_TRIP_SECS, (int) (style.tripSecs * Math
+				.exp(random.nextGaussian() / 2)));
+		double x = 0;
+		double y = 0;
+		double heading = random.nextDouble() * 2 * Math.PI;
+		double speed = 0;
+		double targetSpeed = style.newTargetSpeed(random);
+		boolean isBraking = false;
+		int stopSecs = 0;
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(tripFile), ENCODING));
+		try {
+			writer.write(HEADER);
+			for (int sec = 0; sec < tripSecs; sec++) {
+				writePoint(writer, x + random.nextGaussian() * GPS_NOISE, y
+						+ random.nextGaussian() * GPS_NOISE);
+
+				if (stopSecs > 0) {
+					// Waiting at a light, maybe turning after it
+					stopSecs--;
+					if (stopSecs == 0 && random.nextBoolean()) {
+						heading += (random.nextBoolean() ? 1 : -1) * Math.PI / 2;
+					}
+					continue;
+				}
+
+				if (isBraking) {
+					speed -= style.brake;
+					if (speed <= 0) {
+						speed = 0;
+						isBraking = false;
+						stopSecs = 1 + random.nextInt(MAX_STOP_SECS);
+					}
+				} else {
+					// Get to the target speed, now and then change it or stop
+					if (random.nextDouble() < style.stopChance) {
+						isBraking = true;
+					} else if (sec % TARGET_SECS == 0) {
+						targetSpeed = style.newTargetSpeed(random);
+					}
+					double speedDiff = targetSpeed - speed;
+					speed += Math.max(-style.brake,
+							Math.min(style.acceleration, speedDiff));
+				}
+
+				// Move on a slightly curving road
+				heading += random.nextGaussian() * style.steering;
+				x += speed * Math.cos(heading);
+				y += speed * Math.sin(heading);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write a point rounded to decimeters, like the real dataset's.
+	 *
+	 * @param writer
+	 *            the trip's writer
+	 * @param x
+	 *            the point's x
+	 * @param y
+	 *            the point's y
+	 * @throws IOException
+	 */
+	private static void writePoint(Writer writer, double x, double y)
+			throws IOException {
+		writer.write(Double.toString(Math.round(x * 10) / 10.0));
+		writer.write(',');
+		writer.write(Double.toString(Math.round(y * 10) / 10.0));
+		writer.write('\n');
+	}
+
+	/**
+	 * The way a driver drives. Speeds are in meters per second.
+	 */
+	private static class DrivingStyle {
+		private final double cruiseSpeed;
+		private final double acceleration;
+		private final double brake;
+		private final double tripSecs;
+		private final double stopChance;
+		private final double steering;
+
+		public DrivingStyle(Random random) {
+			cruiseSpeed = 8 + random.nextDouble() * 22;
+			acceleration = 0.8 + random.nextDouble() * 2.5;
+			brake = 1.5 + random.nextDouble() * 3;
+			tripSecs = 200 + random.nextDouble() * 1200;
+			stopChance = 0.002 + random.nextDouble() * 0.02;
+			steering = 0.01 + random.nextDouble() * 0.04;
+		}
+
+		/**
+		 * Pick a speed to drive at for a while.
+		 *
+		 * @param random
+		 *            the random to pick by
+		 * @return the target speed
+		 */
+		public double newTargetSpeed(Random random) {
+			return cruiseSpeed * (0.6 + random.nextDouble() * 0.8);
+		}
+	}
+}
@@ -0,0 +1,194 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable identity of a trip: the driver it belongs to and the trip
+ * ID. Used as the input key of the behavior mappers, whatever the trips are
+ * read from. Inputs which index the trips also keep the trip file's number of
+ * lines in it.
+ */
+public class TripIdWritable implements WritableComparable<TripIdWritable> {
+	private static final String PATH_DELIM = "/";
+	private static final String ENDING_DELIM = ".";
+	private static final String TRIP_ENDING = ".csv";
+	public static final int UNKNOWN_LINES = -1;
+	public static final String DATASETS = "trips.input.datasets";
+	private Text driverID = new Text();
+	private IntWritable tripID = new IntWritable();
+	private int lines = UNKNOWN_LINES;
+
+	public TripIdWritable() {
+		super();
+	}
+
+	// Java getters:
+	public Text getDriverID() {
+		return driverID;
+	}
+
+	public Integer getTripID() {
+		return tripID.get();
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	/**
+	 * Set the number of lines in the trip file.
+	 *
+	 * @param lines
+	 *            number of newlines in the trip file, or UNKNOWN_LINES
+	 */
+	public void setLines(int lines) {
+		this.lines = lines;
+	}
+
+	/**
+	 * Set the trip identity using java's variables.
+	 *
+	 * @param driverID
+	 *            the driver id to set
+	 * @param tripID
+	 *            the trip id to set
+	 */
+	public void set(String driverID, Integer tripID) {
+		this.driverID.set(driverID);
+		this.tripID.set(tripID);
+		this.lines = UNKNOWN_LINES;
+	}
+
+	/**
+	 * Set the trip identity from a trip file path of the form
+	 * ".../driverId/tripId.csv".
+	 *
+	 * @param tripPath
+	 *            path to the trip file (or the archive entry name)
+	 * @return false if the path does not name a trip file
+	 */
+	public boolean set(String tripPath) {
+		return set(tripPath, false);
+	}
+
+	/**
+	 * Set the trip identity from a trip file path of the form
+	 * ".../driverId/tripId.csv", or of the form
+	 * ".../datasetId/driverId/tripId.csv" in a batch of datasets, where the
+	 * driver id is "datasetId/driverId" so the datasets' drivers never mix.
+	 *
+	 * @param tripPath
+	 *            path to the trip file (or the archive entry name)
+	 * @param withDataset
+	 *            whether the driver's folder is in a dataset's folder
+	 * @return false if the path does not name a trip file
+	 */
+	public boolean set(String tripPath, boolean withDataset) {
+		if (!isTripPath(tripPath)) {
+			return false;
+		}
+
+		// Get the file name & its parent folder's name (with its dataset's)
+		int nameStart = tripPath.lastIndexOf(PATH_DELIM);
+		int parentStart = tripPath.lastIndexOf(PATH_DELIM, nameStart - 1);
+		if (withDataset) {
+			if (parentStart <= 0) {
+				return false;
+			}
+			parentStart = tripPath.lastIndexOf(PATH_DELIM, parentStart - 1);
+		}
+		String tripFileName = tripPath.substring(nameStart + 1);
+		String driver = tripPath.substring(parentStart + 1, nameStart);
+
+		// Remove the file ending to get the trip id
+		int filenameEnding = tripFileName.indexOf(ENDING_DELIM);
+		try {
+			set(driver, Integer.parseInt(tripFileName.substring(0,
+					filenameEnding)));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Get the dataset of a driver id set in a batch of datasets.
+	 *
+	 * @param driverID
+	 *            the driver id, "datasetId/driverId"
+	 * @return the dataset id
+	 */
+	public static String getDataset(String driverID) {
+		return driverID.substring(0, driverID.lastIndexOf(PATH_DELIM));
+	}
+
+	/**
+	 * Get the driver's own id from a driver id set in a batch of datasets.
+	 *
+	 * @param driverID
+	 *            the driver id, "datasetId/driverId"
+	 * @return the driver's id in its dataset
+	 */
+	public static String getDatasetDriver(String driverID) {
+		return driverID.substring(driverID.lastIndexOf(PATH_DELIM) + 1);
+	}
+
+	/**
+	 * Checks whether the path names a trip file inside a driver's folder.
+	 *
+	 * @param tripPath
+	 *            path to check
+	 * @return true if it's a trip file
+	 */
+	public static boolean isTripPath(String tripPath) {
+		int nameStart = tripPath.lastIndexOf(PATH_DELIM);
+		return tripPath.endsWith(TRIP_ENDING) && nameStart > 0;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		driverID.readFields(in);
+		tripID.readFields(in);
+		lines = WritableUtils.readVInt(in);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		driverID.write(out);
+		tripID.write(out);
+		WritableUtils.writeVInt(out, lines);
+	}
+
+	@Override
+	public int compareTo(TripIdWritable other) {
+		// Sort by driver, then by trip. The lines aren't part of the identity
+		int cmp = driverID.compareTo(other.driverID);
+		if (cmp != 0) {
+			return cmp;
+		}
+		return tripID.compareTo(other.tripID);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof TripIdWritable)) {
+			return false;
+		}
+		return compareTo((TripIdWritable) other) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return driverID.hashCode() * 31 + tripID.get();
+	}
+
+	@Override
+	public String toString() {
+		return driverID.toString() + PATH_DELIM + tripID.toString();
+	}
+}
@@ -0,0 +1,170 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable partial features of a trip's chunk: its number of lines,
+ * its last point's distance, and the accelerations counted along the way from
+ * the chunk's first speed until it meets the way from the next chunk's first
+ * speed (see TripChunkMap). Every acceleration is kept with the position of
+ * the speed it's found from, the file offset of the line of the point the
+ * speed ends at, so the trip's chunks can be merged to the accelerations of
+ * the whole trip, in order.
+ */
+public class TripPartialWritable implements Writable {
+	public static final long TRIP_END = Long.MAX_VALUE;
+	private static final int INITIAL_SIZE = 8;
+	private long start = 0;
+	private int lines = 0;
+	private boolean hasLastPoint = false;
+	private double lastDistance = 0;
+	private long meetPosition = TRIP_END;
+	private int size = 0;
+	private long[] positions = new long[INITIAL_SIZE];
+	private double[] accelerations = new double[INITIAL_SIZE];
+
+	public TripPartialWritable() {
+		super();
+	}
+
+	// Java getters:
+	public long getStart() {
+		return start;
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	public boolean hasLastPoint() {
+		return hasLastPoint;
+	}
+
+	public double getLastDistance() {
+		return lastDistance;
+	}
+
+	public long getMeetPosition() {
+		return meetPosition;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getPosition(int i) {
+		return positions[i];
+	}
+
+	public double getAcceleration(int i) {
+		return accelerations[i];
+	}
+
+	/**
+	 * Empty the partial features and set the chunk's.
+	 *
+	 * @param start
+	 *            file offset of the chunk's first line
+	 * @param lines
+	 *            number of the chunk's lines
+	 * @param lastPoint
+	 *            the chunk's last point, or null if it has no point
+	 */
+	public void set(long start, int lines, TripPoint lastPoint) {
+		this.start = start;
+		this.lines = lines;
+		hasLastPoint = lastPoint != null;
+		if (hasLastPoint) {
+			lastDistance = lastPoint.getDistance();
+		}
+		meetPosition = TRIP_END;
+		size = 0;
+	}
+
+	/**
+	 * Set the position where the chunk's way meets the next chunk's way.
+	 *
+	 * @param meetPosition
+	 *            the position, or TRIP_END if they don't meet
+	 */
+	public void setMeetPosition(long meetPosition) {
+		this.meetPosition = meetPosition;
+	}
+
+	/**
+	 * Add a counted acceleration.
+	 *
+	 * @param position
+	 *            the acceleration's position
+	 * @param acceleration
+	 *            the acceleration
+	 */
+	public void add(long position, double acceleration) {
+		if (size == positions.length) {
+			positions = Arrays.copyOf(positions, size * 2);
+			accelerations = Arrays.copyOf(accelerations, size * 2);
+		}
+		positions[size] = position;
+		accelerations[size] = acceleration;
+		size++;
+	}
+
+	/**
+	 * Copy the partial features, as hadoop reuses the read ones.
+	 *
+	 * @return a copy of the partial features
+	 */
+	public TripPartialWritable copy() {
+		TripPartialWritable copy = new TripPartialWritable();
+		copy.start = start;
+		copy.lines = lines;
+		copy.hasLastPoint = hasLastPoint;
+		copy.lastDistance = lastDistance;
+		copy.meetPosition = meetPosition;
+		copy.size = size;
+		copy.positions = Arrays.copyOf(positions, Math.max(size, 1));
+		copy.accelerations = Arrays.copyOf(accelerations, Math.max(size, 1));
+		return copy;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		start = WritableUtils.readVLong(in);
+		lines = WritableUtils.readVInt(in);
+		hasLastPoint = in.readBoolean();
+		if (hasLastPoint) {
+			lastDistance = in.readDouble();
+		}
+		meetPosition = WritableUtils.readVLong(in);
+		int newSize = WritableUtils.readVInt(in);
+		size = 0;
+		for (int i = 0; i < newSize; i++) {
+			add(WritableUtils.readVLong(in), in.readDouble());
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVLong(out, start);
+		WritableUtils.writeVInt(out, lines);
+		out.writeBoolean(hasLastPoint);
+		if (hasLastPoint) {
+			out.writeDouble(lastDistance);
+		}
+		WritableUtils.writeVLong(out, meetPosition);
+		WritableUtils.writeVInt(out, size);
+		for (int i = 0; i < size; i++) {
+			WritableUtils.writeVLong(out, positions[i]);
+			out.writeDouble(accelerations[i]);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return start + ": " + lines + " lines, " + size + " accelerations";
+	}
+}
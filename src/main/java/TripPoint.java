@@ -3,6 +3,8 @@
  */
 public class TripPoint {
 	private static final String DELIM = ",";
+	private static final String ENCODING = "UTF-8";
+	private static final byte POINTS_DELIM = '\n';
 	private Double x;
 	private Double y;
 
@@ -20,6 +22,99 @@ public class TripPoint {
 		y = Double.parseDouble(data[1]);
 	}
 
+	/**
+	 * Construct a trip point from its coordinates.
+	 * 
+	 * @param x
+	 *            the x coordinate, in meters
+	 * @param y
+	 *            the y coordinate, in meters
+	 */
+	public TripPoint(double x, double y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * Parse the last complete "x,y" line of a trip file, scanning backwards
+	 * from its end. A line is complete if a newline ends it.
+	 * 
+	 * @param tripBytes
+	 *            the trip file's bytes, or only its tail
+	 * @param length
+	 *            number of valid bytes
+	 * @param fromFileStart
+	 *            whether the bytes start at the file's start, which makes the
+	 *            first line complete
+	 * @return the last point of the trip, or null if no complete line in the
+	 *         bytes is a point
+	 */
+	public static TripPoint parseLastPoint(byte[] tripBytes, int length,
+			boolean fromFileStart) {
+		return parseLastPoint(tripBytes, 0, length, fromFileStart);
+	}
+
+	/**
+	 * Parse the last complete "x,y" line of a range of a trip file's bytes,
+	 * scanning backwards from the range's end. A line is complete if a
+	 * newline ends it.
+	 * 
+	 * @param tripBytes
+	 *            the trip file's bytes
+	 * @param start
+	 *            the range's start
+	 * @param length
+	 *            the range's length
+	 * @param fromLineStart
+	 *            whether the range starts at a line's start, which makes its
+	 *            first line complete
+	 * @return the last point of the range, or null if no complete line in it
+	 *         is a point
+	 */
+	public static TripPoint parseLastPoint(byte[] tripBytes, int start,
+			int length, boolean fromLineStart) {
+		int lineEnd = lastIndexOf(tripBytes, POINTS_DELIM, start + length - 1,
+				start);
+
+		// Go over the lines backwards until one is a point
+		while (lineEnd >= start) {
+			int lineStart = lastIndexOf(tripBytes, POINTS_DELIM, lineEnd - 1,
+					start) + 1;
+			if (lineStart == start && !fromLineStart) {
+				return null; // the first line may be cut
+			}
+
+			try {
+				return new TripPoint(new String(tripBytes, lineStart, lineEnd
+						- lineStart, ENCODING));
+			} catch (Exception e) {
+				lineEnd = lineStart - 1;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the last occurrence of a byte.
+	 * 
+	 * @param bytes
+	 *            the bytes to search in
+	 * @param b
+	 *            the byte to find
+	 * @param from
+	 *            the index to search backwards from
+	 * @param start
+	 *            the first index to search
+	 * @return the byte's index, or start - 1 if not found
+	 */
+	private static int lastIndexOf(byte[] bytes, byte b, int from, int start) {
+		int i = from;
+		while (i >= start && bytes[i] != b) {
+			i--;
+		}
+		return i;
+	}
+
 	// getters:
 	public Double getX() {
 		return x;
@@ -0,0 +1,35 @@
+import java.io.IOException;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Mapper for hadoop. Gets the features of every trip, of all the behavior
+ * checks, and sends the trip's vector to its driver for scoring.
+ */
+public class TripScoreMap extends
+		Mapper<TripIdWritable, BytesWritable, Text, TripVectorWritable> {
+	private SpeedSmoother smoother;
+	private TripVectorWritable trip = new TripVectorWritable();
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		smoother = SpeedSmoother.create(context.getConfiguration());
+	}
+
+	@Override
+	protected void map(TripIdWritable key, BytesWritable tripFile,
+			Context context) throws IOException, InterruptedException {
+		// Get the trip's value for every check, like the checks' mappers do
+		CheckType[] checks = CheckType.values();
+		double[] features = new double[checks.length];
+		for (int i = 0; i < checks.length; i++) {
+			features[i] = TripFeatures.compute(checks[i], key, tripFile,
+					smoother);
+		}
+		trip.set(key.getTripID(), features);
+		context.write(key.getDriverID(), trip);
+	}
+}
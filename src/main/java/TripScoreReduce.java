@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+
+/**
+ * Reducer for hadoop. Scores every trip of a driver by its distance from the
+ * driver's dominant category of trips, for every behavior check: the distance
+ * is scaled by the driver's mean distance, and weighted like the check's vote.
+ * Only the task's TOP_K most suspicious trips are kept, in a bounded heap,
+ * and written once the task is done. With RANKING, every scored trip is
+ * written to the ALL_OUTPUT named output too.
+ */
+public class TripScoreReduce extends
+		Reducer<Text, TripVectorWritable, SuspiciousTripWritable, NullWritable> {
+	public static final String TOP_K = "trips.top.k";
+	public static final String RANKING = "trips.top.ranking";
+	public static final String ALL_OUTPUT = "all";
+	private int k;
+	// The least suspicious of the kept trips is at the head
+	private PriorityQueue<SuspiciousTripWritable> top;
+	private TripBatch checkTrips = new TripBatch();
+	private SuspiciousTripWritable scoredTrip = new SuspiciousTripWritable();
+	private MultipleOutputs<SuspiciousTripWritable, NullWritable> allOutputs = null;
+
+	@Override
+	protected void setup(Context context) throws IOException,
+			InterruptedException {
+		k = context.getConfiguration().getInt(TOP_K, 0);
+		top = new PriorityQueue<SuspiciousTripWritable>(Math.max(k, 1),
+				Collections.reverseOrder());
+		if (context.getConfiguration().getBoolean(RANKING, false)) {
+			allOutputs = new MultipleOutputs<SuspiciousTripWritable, NullWritable>(
+					context);
+		}
+	}
+
+	@Override
+	protected void cleanup(Context context) throws IOException,
+			InterruptedException {
+		for (SuspiciousTripWritable trip : top) {
+			context.write(trip, NullWritable.get());
+		}
+		if (allOutputs != null) {
+			allOutputs.close();
+		}
+		checkTrips.close();
+	}
+
+	@Override
+	public void reduce(Text driverId, Iterable<TripVectorWritable> trips,
+			Context context) throws IOException, InterruptedException {
+		List<TripVectorWritable> driverTrips = new ArrayList<TripVectorWritable>();
+		for (TripVectorWritable trip : trips) {
+			driverTrips.add(trip.copy()); // hadoop reuses the vector
+		}
+
+		double[] scores = getScores(driverTrips);
+		for (int i = 0; i < scores.length; i++) {
+			scoredTrip.set(driverId, driverTrips.get(i).getTripID(),
+					scores[i]);
+			if (allOutputs != null) {
+				allOutputs.write(ALL_OUTPUT, scoredTrip, NullWritable.get());
+			}
+
+			// Keep the trip if it's among the task's most suspicious
+			if (top.size() < k) {
+				top.add(scoredTrip.copy());
+			} else if (k > 0 && scoredTrip.compareTo(top.peek()) < 0) {
+				top.poll();
+				top.add(scoredTrip.copy());
+			}
+		}
+	}
+
+	/**
+	 * Score a driver's trips by their distance from the driver's dominant
+	 * category of every check.
+	 * 
+	 * @param driverTrips
+	 *            the driver's trips' vectors
+	 * @return the trips' scores, in the trips' order
+	 * @throws IOException
+	 */
+	private double[] getScores(List<TripVectorWritable> driverTrips)
+			throws IOException {
+		double[] scores = new double[driverTrips.size()];
+		double totalWeight = 0;
+		for (CheckType check : CheckType.values()) {
+			int weight = FalseTripsMap.getCheckWeight(check);
+			totalWeight += weight;
+
+			// Categorize the driver's values of the check, like its job does
+			checkTrips.clear();
+			for (TripVectorWritable trip : driverTrips) {
+				checkTrips.add(trip.getTripID(),
+						trip.getFeatures()[check.ordinal()]);
+			}
+			double dominant = SuspicionsReduce.getDominantAverage(checkTrips);
+
+			// Scale the distances by their mean, so the checks are comparable
+			// (the batch is sorted now, so the values are read from the trips)
+			double meanDistance = 0;
+			for (TripVectorWritable trip : driverTrips) {
+				meanDistance += Math.abs(trip.getFeatures()[check.ordinal()]
+						- dominant);
+			}
+			meanDistance /= driverTrips.size();
+			if (!(meanDistance > 0)) {
+				continue; // all the trips are alike
+			}
+			for (int i = 0; i < driverTrips.size(); i++) {
+				scores[i] += weight
+						* Math.abs(driverTrips.get(i).getFeatures()[check
+								.ordinal()] - dominant) / meanDistance;
+			}
+		}
+
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] /= totalWeight;
+		}
+		return scores;
+	}
+}
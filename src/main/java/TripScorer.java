@@ -0,0 +1,151 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Scores single trips against their drivers' profiles, without running the
+ * jobs. A trip is false if the checks suspecting it have enough weight, as in
+ * the false trips job.
+ */
+public class TripScorer {
+	private static final int PROFILES_ARG = 0;
+	private static final int FIRST_TRIP_ARG = 1;
+	private static final int CACHE_SIZE = 1000;
+	private final DriverProfiles profiles;
+	private final SpeedSmoother smoother;
+
+	/**
+	 * Construct a scorer.
+	 * 
+	 * @param profiles
+	 *            the drivers' profiles
+	 */
+	public TripScorer(DriverProfiles profiles) {
+		this(profiles, null);
+	}
+
+	/**
+	 * Construct a scorer which smooths the trips' speeds, as the jobs which
+	 * made the profiles did.
+	 * 
+	 * @param profiles
+	 *            the drivers' profiles
+	 * @param smoother
+	 *            the speeds' smoother, or null to use the raw speeds
+	 */
+	public TripScorer(DriverProfiles profiles, SpeedSmoother smoother) {
+		this.profiles = profiles;
+		this.smoother = smoother;
+	}
+
+	/**
+	 * Prints the result rows of trip files.
+	 * 
+	 * @param args
+	 *            hadoop's generic options (-D trips.smooth.window=...), the
+	 *            profiles' folder and the trip files
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		DriverProfiles profiles = new DriverProfiles(conf, new Path(
+				args[PROFILES_ARG]), CACHE_SIZE);
+		TripScorer scorer = new TripScorer(profiles,
+				SpeedSmoother.create(conf));
+		TripIdWritable tripId = new TripIdWritable();
+		try {
+			for (int i = FIRST_TRIP_ARG; i < args.length; i++) {
+				if (!tripId.set(args[i])) {
+					throw new IllegalArgumentException("Not a trip file "
+							+ args[i]);
+				}
+				String driverId = tripId.getDriverID().toString();
+				BytesWritable trip = new BytesWritable(
+						FileUtils.readFileToByteArray(new File(args[i])));
+				System.out.println(FalseTripsMap.buildTripRow(driverId,
+						tripId.getTripID(), scorer.isFalse(driverId, trip)));
+			}
+		} finally {
+			profiles.close();
+		}
+	}
+
+	/**
+	 * Get the total weight of the checks suspecting a trip.
+	 * 
+	 * @param driverId
+	 *            the driver the trip claims to belong to
+	 * @param trip
+	 *            the whole trip file
+	 * @return the trip's suspicion weight
+	 * @throws IOException
+	 */
+	public int getSuspicionWeight(String driverId, BytesWritable trip)
+			throws IOException {
+		Map<CheckType, CheckProfileWritable> driverProfiles = profiles
+				.get(driverId);
+		if (driverProfiles == null) {
+			throw new IllegalArgumentException("No profile of driver "
+					+ driverId);
+		}
+
+		int weight = 0;
+		for (Map.Entry<CheckType, CheckProfileWritable> entry : driverProfiles
+				.entrySet()) {
+			Double feature = TripFeatures.compute(entry.getKey(), trip,
+					smoother);
+			if (feature == null) {
+				feature = 0.0; // same as the jobs' trips with no data
+			}
+			if (entry.getValue().isSuspected(feature)) {
+				weight += entry.getValue().getWeight();
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * Checks whether a trip is false.
+	 * 
+	 * @param driverId
+	 *            the driver the trip claims to belong to
+	 * @param trip
+	 *            the whole trip file
+	 * @return true if it's a false trip
+	 * @throws IOException
+	 */
+	public boolean isFalse(String driverId, BytesWritable trip)
+			throws IOException {
+		return getSuspicionWeight(driverId, trip) >= FalseTripsMap.FALSE_MIN_WEIGHT;
+	}
+
+	/**
+	 * Picks the false trips of a batch of a driver's trips.
+	 * 
+	 * @param driverId
+	 *            the driver the trips claim to belong to
+	 * @param trips
+	 *            map of trip ids and the whole trip files
+	 * @return list of false trips
+	 * @throws IOException
+	 */
+	public List<Integer> getFalseTrips(String driverId,
+			Map<Integer, BytesWritable> trips) throws IOException {
+		List<Integer> falseTrips = new ArrayList<Integer>();
+		for (Map.Entry<Integer, BytesWritable> entry : trips.entrySet()) {
+			if (isFalse(driverId, entry.getValue())) {
+				falseTrips.add(entry.getKey());
+			}
+		}
+		return falseTrips;
+	}
+}
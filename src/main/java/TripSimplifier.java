@@ -0,0 +1,114 @@
+import java.util.List;
+
+/**
+ * Simplifies a trip by the Ramer-Douglas-Peucker algorithm: keeps the trip's
+ * ends, and keeps splitting the route at its farthest point from the line
+ * between the kept points, while it's farther than the tolerance. Long
+ * straight stretches end up as their ends only.
+ */
+public class TripSimplifier {
+
+	/**
+	 * Simplify a trip.
+	 * 
+	 * @param trip
+	 *            the trip's points
+	 * @param tolerance
+	 *            the maximal distance of a dropped point from the simplified
+	 *            route, in meters
+	 * @return the indices of the kept points, ascending
+	 */
+	public static int[] simplify(List<TripPoint> trip, double tolerance) {
+		int size = trip.size();
+		if (size <= 2) {
+			int[] all = new int[size];
+			for (int i = 0; i < size; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+
+		double[] xs = new double[size];
+		double[] ys = new double[size];
+		for (int i = 0; i < size; i++) {
+			xs[i] = trip.get(i).getX();
+			ys[i] = trip.get(i).getY();
+		}
+
+		// Split the stretches on a stack, long trips would be too deep to
+		// recurse
+		boolean[] isKept = new boolean[size];
+		isKept[0] = true;
+		isKept[size - 1] = true;
+		int keptNo = 2;
+		int[] stack = new int[2 * size];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = size - 1;
+		while (top > 0) {
+			int end = stack[--top];
+			int start = stack[--top];
+
+			// Find the stretch's farthest point
+			double maxDistance = -1;
+			int farthest = -1;
+			for (int i = start + 1; i < end; i++) {
+				double distance = getSegmentDistance(xs[i], ys[i], xs[start],
+						ys[start], xs[end], ys[end]);
+				if (distance > maxDistance) {
+					maxDistance = distance;
+					farthest = i;
+				}
+			}
+
+			if (farthest >= 0 && maxDistance > tolerance) {
+				isKept[farthest] = true;
+				keptNo++;
+				stack[top++] = start;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = end;
+			}
+		}
+
+		int[] kept = new int[keptNo];
+		int k = 0;
+		for (int i = 0; i < size; i++) {
+			if (isKept[i]) {
+				kept[k++] = i;
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * Get a point's distance from a segment. The segment may be a point,
+	 * when a round trip's stretch ends where it started.
+	 * 
+	 * @param x
+	 *            the point's x
+	 * @param y
+	 *            the point's y
+	 * @param x1
+	 *            the segment's start x
+	 * @param y1
+	 *            the segment's start y
+	 * @param x2
+	 *            the segment's end x
+	 * @param y2
+	 *            the segment's end y
+	 * @return the distance
+	 */
+	private static double getSegmentDistance(double x, double y, double x1,
+			double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double lengthSquared = dx * dx + dy * dy;
+		double part = 0;
+		if (lengthSquared > 0) {
+			part = ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+			part = Math.max(0, Math.min(1, part));
+		}
+		return Math.hypot(x - (x1 + part * dx), y - (y1 + part * dy));
+	}
+}
@@ -0,0 +1,80 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Hadoop's writable of a trip's features: the trip's value for every behavior
+ * check, in the order of CheckType.
+ */
+public class TripVectorWritable implements Writable {
+	private static final String DELIM = ":";
+	private int tripID = 0;
+	private double[] features = new double[0];
+
+	public TripVectorWritable() {
+		super();
+	}
+
+	// Java getters:
+	public int getTripID() {
+		return tripID;
+	}
+
+	public double[] getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Set the trip's features.
+	 * 
+	 * @param tripID
+	 *            the trip id
+	 * @param features
+	 *            the trip's features, kept as is
+	 */
+	public void set(int tripID, double[] features) {
+		this.tripID = tripID;
+		this.features = features;
+	}
+
+	/**
+	 * Copy the vector, as hadoop reuses the read ones.
+	 * 
+	 * @return a copy of the vector
+	 */
+	public TripVectorWritable copy() {
+		TripVectorWritable copy = new TripVectorWritable();
+		copy.set(tripID, Arrays.copyOf(features, features.length));
+		return copy;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		tripID = WritableUtils.readVInt(in);
+		int size = WritableUtils.readVInt(in);
+		if (features.length != size) {
+			features = new double[size];
+		}
+		for (int i = 0; i < size; i++) {
+			features[i] = in.readDouble();
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, tripID);
+		WritableUtils.writeVInt(out, features.length);
+		for (double feature : features) {
+			out.writeDouble(feature);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return tripID + DELIM + Arrays.toString(features);
+	}
+}
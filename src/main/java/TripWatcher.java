@@ -0,0 +1,249 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Long running local mode. Polls a drivers' folder and, as new trips land in
+ * it, updates the verdicts of the drivers they belong to. Every trip file is
+ * read once; its features are kept, and only the drivers with new, rewritten
+ * (by a new modification time) or deleted trips are clustered again, by the
+ * rules of the batch jobs.
+ */
+public class TripWatcher {
+	private static final Log LOG = LogFactory.getLog(TripWatcher.class);
+	private static final int INPUT_ARG = 0;
+	private static final int OUTPUT_ARG = 1;
+	private static final int POLL_ARG = 2;
+	private static final long DEFAULT_POLL_SECS = 2;
+	private static final long MILLIS_IN_SEC = 1000;
+	private static final int MIN_TRIPS = 3; // the clustering needs 3 trips
+	private final File driversFolder;
+	private final VerdictStore verdicts;
+	private final SpeedSmoother smoother;
+	private final Map<String, Map<CheckType, Map<Integer, Double>>> driversFeatures = new HashMap<String, Map<CheckType, Map<Integer, Double>>>();
+	private final Map<String, Long> pendingSizes = new HashMap<String, Long>();
+	private final Map<String, Long> processed = new HashMap<String, Long>();
+	private final TripIdWritable tripId = new TripIdWritable();
+
+	/**
+	 * Construct a watcher.
+	 *
+	 * @param driversFolder
+	 *            the folder of the drivers' folders
+	 * @param verdicts
+	 *            the store to keep the verdicts in
+	 */
+	public TripWatcher(File driversFolder, VerdictStore verdicts) {
+		this(driversFolder, verdicts, null);
+	}
+
+	/**
+	 * Construct a watcher which smooths the trips' speeds.
+	 *
+	 * @param driversFolder
+	 *            the folder of the drivers' folders
+	 * @param verdicts
+	 *            the store to keep the verdicts in
+	 * @param smoother
+	 *            the speeds' smoother, or null to use the raw speeds
+	 */
+	public TripWatcher(File driversFolder, VerdictStore verdicts,
+			SpeedSmoother smoother) {
+		this.driversFolder = driversFolder;
+		this.verdicts = verdicts;
+		this.smoother = smoother;
+	}
+
+	/**
+	 * Watches the drivers' folder forever.
+	 *
+	 * @param args
+	 *            hadoop's generic options (-D trips.smooth.window=...),
+	 *            drivers' folder, verdicts folder and optional poll interval
+	 *            in seconds
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		long pollSecs = DEFAULT_POLL_SECS;
+		if (args.length > POLL_ARG) {
+			pollSecs = Long.parseLong(args[POLL_ARG]);
+		}
+
+		TripWatcher watcher = new TripWatcher(new File(args[INPUT_ARG]),
+				new VerdictStore(new File(args[OUTPUT_ARG])),
+				SpeedSmoother.create(conf));
+		while (true) {
+			Set<String> updated = watcher.poll();
+			if (!updated.isEmpty()) {
+				LOG.info("Updated drivers: " + updated);
+			}
+			Thread.sleep(pollSecs * MILLIS_IN_SEC);
+		}
+	}
+
+	/**
+	 * Reads the trips which landed or were rewritten since the last poll,
+	 * drops the deleted ones, and updates their drivers' verdicts.
+	 *
+	 * @return the updated drivers
+	 * @throws IOException
+	 */
+	public Set<String> poll() throws IOException {
+		Set<String> changedDrivers = new TreeSet<String>();
+		File[] driverFolders = driversFolder.listFiles();
+		if (driverFolders == null) {
+			return changedDrivers; // nothing landed yet
+		}
+
+		// Add the new trips of every driver
+		Set<String> present = new HashSet<String>();
+		for (File driverFolder : driverFolders) {
+			File[] tripFiles = driverFolder.listFiles();
+			if (tripFiles == null) {
+				continue; // not a folder
+			}
+			for (File tripFile : tripFiles) {
+				present.add(tripFile.getPath());
+				if (addTrip(tripFile)) {
+					changedDrivers.add(driverFolder.getName());
+				}
+			}
+		}
+
+		// Drop the deleted trips
+		pendingSizes.keySet().retainAll(present);
+		Iterator<String> iter = processed.keySet().iterator();
+		while (iter.hasNext()) {
+			String path = iter.next();
+			if (!present.contains(path)) {
+				iter.remove();
+				tripId.set(path);
+				String driverId = tripId.getDriverID().toString();
+				for (Map<Integer, Double> checkFeatures : getDriverFeatures(
+						driverId).values()) {
+					checkFeatures.remove(tripId.getTripID());
+				}
+				changedDrivers.add(driverId);
+			}
+		}
+
+		for (String driverId : changedDrivers) {
+			updateVerdicts(driverId);
+		}
+		return changedDrivers;
+	}
+
+	/**
+	 * Compute the features of a trip file, if it's new or rewritten since it
+	 * was read, and it's done being written.
+	 *
+	 * @param tripFile
+	 *            the trip file
+	 * @return true if the trip was added
+	 * @throws IOException
+	 */
+	private boolean addTrip(File tripFile) throws IOException {
+		String path = tripFile.getPath();
+		Long readTime = processed.get(path);
+		if ((readTime != null && readTime == tripFile.lastModified())
+				|| !tripId.set(path)) {
+			return false;
+		}
+
+		// Wait until the file has the same size in two polls
+		Long lastSize = pendingSizes.put(path, tripFile.length());
+		if (lastSize == null || lastSize != tripFile.length()) {
+			return false;
+		}
+		pendingSizes.remove(path);
+		processed.put(path, tripFile.lastModified());
+
+		// Read the trip once for all the checks
+		BytesWritable tripBytes = new BytesWritable(
+				FileUtils.readFileToByteArray(tripFile));
+		Map<CheckType, Map<Integer, Double>> features = getDriverFeatures(tripId
+				.getDriverID().toString());
+		for (CheckType check : CheckType.values()) {
+			Double feature = TripFeatures.compute(check, tripBytes, smoother);
+			if (feature == null) {
+				feature = 0.0; // same as the jobs' trips with no data
+			}
+			features.get(check).put(tripId.getTripID(), feature);
+		}
+		return true;
+	}
+
+	/**
+	 * Cluster the driver's trips again and store the driver's verdicts.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @throws IOException
+	 */
+	private void updateVerdicts(String driverId) throws IOException {
+		Map<CheckType, Map<Integer, Double>> features = getDriverFeatures(driverId);
+		Set<Integer> trips = new TreeSet<Integer>(features.get(CheckType.time)
+				.keySet());
+		if (trips.size() < MIN_TRIPS) {
+			verdicts.remove(driverId); // too few trips left to judge
+			return;
+		}
+
+		// Vote like the false trips job
+		Map<Integer, Integer> tripsSuspicionWeights = new HashMap<Integer, Integer>();
+		for (CheckType check : CheckType.values()) {
+			Integer weight = FalseTripsMap.getCheckWeight(check);
+			for (Integer suspect : SuspicionsReduce.getSuspectedTrips(features
+					.get(check))) {
+				Integer prevWeight = tripsSuspicionWeights.get(suspect);
+				if (prevWeight == null) {
+					prevWeight = 0;
+				}
+				tripsSuspicionWeights.put(suspect, prevWeight + weight);
+			}
+		}
+		List<Integer> falseTrips = FalseTripsMap
+				.getFalseTrips(tripsSuspicionWeights);
+
+		verdicts.update(driverId, trips, falseTrips);
+	}
+
+	/**
+	 * Get the features of a driver's trips by check, creating them for a new
+	 * driver.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @return map of checks and the trips' features
+	 */
+	private Map<CheckType, Map<Integer, Double>> getDriverFeatures(
+			String driverId) {
+		Map<CheckType, Map<Integer, Double>> features = driversFeatures
+				.get(driverId);
+		if (features == null) {
+			features = new EnumMap<CheckType, Map<Integer, Double>>(
+					CheckType.class);
+			for (CheckType check : CheckType.values()) {
+				features.put(check, new HashMap<Integer, Double>());
+			}
+			driversFeatures.put(driverId, features);
+		}
+		return features;
+	}
+}
@@ -0,0 +1,311 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.lib.partition.HashPartitioner;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * The drivers' verdicts indexed by Driver (-D trips.output.index=...): a map
+ * file of every partition's drivers, sorted by driver id, with their false
+ * trips and every source's suspected trips. A lookup reads only the
+ * driver's partition's file, through its index kept in memory, and the
+ * recently used drivers are kept in a bounded cache. Safe for use by several
+ * threads.
+ */
+public class VerdictIndex implements Closeable {
+	private static final String INFO_FILE = "_info";
+	private static final String HIDDEN_PREFIX = "_";
+	private static final String PARTITION_DELIM = "-";
+	private static final String PARTITION_FORMAT = "%05d";
+	private static final String SOURCES_DELIM = ",";
+	private static final String ENCODING = "UTF-8";
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int INDEX_ARG = 0;
+	private static final int FIRST_DRIVER_ARG = 1;
+	private static final int CACHE_SIZE = 1024;
+	private final String[] sources;
+	private final MapFile.Reader[] readers;
+	private final HashPartitioner<Text, DriverVerdictWritable> partitioner = new HashPartitioner<Text, DriverVerdictWritable>();
+	private final Map<String, DriverVerdictWritable> cache;
+
+	/**
+	 * Open the index.
+	 *
+	 * @param conf
+	 *            the configuration
+	 * @param indexDir
+	 *            the index's folder, as given to Driver
+	 * @param cacheSize
+	 *            the maximal number of cached drivers
+	 * @throws IOException
+	 */
+	public VerdictIndex(Configuration conf, Path indexDir, final int cacheSize)
+			throws IOException {
+		FileSystem fs = indexDir.getFileSystem(conf);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				fs.open(new Path(indexDir, INFO_FILE)), ENCODING));
+		try {
+			readers = new MapFile.Reader[Integer.parseInt(reader.readLine())];
+			String line = reader.readLine();
+			if (line == null || line.isEmpty()) {
+				sources = new String[0];
+			} else {
+				sources = line.split(SOURCES_DELIM);
+			}
+		} finally {
+			reader.close();
+		}
+
+		// Every partition's map file is named by its partition
+		boolean isOpen = false;
+		try {
+			for (FileStatus part : fs.listStatus(indexDir)) {
+				int partition = getPartition(part.getPath().getName());
+				if (partition >= 0) {
+					readers[partition] = new MapFile.Reader(part.getPath(),
+							conf);
+				}
+			}
+			isOpen = true;
+		} finally {
+			if (!isOpen) {
+				IOUtils.cleanup(null, readers); // the ones opened so far
+			}
+		}
+
+		// Access ordered, so the eldest entry is the least recently used
+		cache = new LinkedHashMap<String, DriverVerdictWritable>(cacheSize,
+				LOAD_FACTOR, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, DriverVerdictWritable> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Prints the result rows of drivers, with a column per source of
+	 * whether it suspected the trip.
+	 *
+	 * @param args
+	 *            hadoop's generic options, the index's folder and the driver
+	 *            ids ("dataset/driver" in a batch of datasets)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		args = new GenericOptionsParser(conf, args).getRemainingArgs();
+		VerdictIndex index = new VerdictIndex(conf, new Path(args[INDEX_ARG]),
+				CACHE_SIZE);
+		try {
+			Map<String, DriverVerdictWritable> verdicts = index.get(Arrays
+					.asList(args).subList(FIRST_DRIVER_ARG, args.length));
+			StringBuilder header = new StringBuilder(
+					FalseTripsMap.HEADER.trim());
+			for (String source : index.getSources()) {
+				header.append(SOURCES_DELIM).append(source);
+			}
+			System.out.println(header);
+
+			for (Map.Entry<String, DriverVerdictWritable> driver : verdicts
+					.entrySet()) {
+				DriverVerdictWritable verdict = driver.getValue();
+				for (int tripId = 1; tripId <= verdict.getLastTripID(); tripId++) {
+					StringBuilder row = new StringBuilder(
+							FalseTripsMap.buildTripRow(driver.getKey(), tripId,
+									verdict.isFalse(tripId)));
+					for (int source = 0; source < verdict.getSourcesCount(); source++) {
+						row.append(SOURCES_DELIM).append(
+								verdict.isSuspected(source, tripId) ? 1 : 0);
+					}
+					System.out.println(row);
+				}
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	// Java getters:
+	public String[] getSources() {
+		return sources;
+	}
+
+	/**
+	 * Get a driver's verdicts.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @return a copy of the driver's verdicts, or null if there's no such
+	 *         driver
+	 * @throws IOException
+	 */
+	public synchronized DriverVerdictWritable get(String driverId)
+			throws IOException {
+		DriverVerdictWritable verdict = cache.get(driverId);
+		if (verdict == null) {
+			// Look the driver up in its partition's map file
+			Text key = new Text(driverId);
+			MapFile.Reader reader = readers[getPartition(key)];
+			verdict = new DriverVerdictWritable();
+			if (reader == null || reader.get(key, verdict) == null) {
+				return null; // unknown driver
+			}
+			cache.put(driverId, verdict);
+		}
+
+		// The cached verdicts stay as read
+		DriverVerdictWritable copy = new DriverVerdictWritable();
+		copy.set(verdict);
+		return copy;
+	}
+
+	/**
+	 * Get several drivers' verdicts. The drivers are looked up by partition
+	 * and in their order in it, so every map file is read forward once.
+	 *
+	 * @param driverIds
+	 *            the driver ids
+	 * @return the verdicts of the known drivers, by partition and driver
+	 * @throws IOException
+	 */
+	public synchronized Map<String, DriverVerdictWritable> get(
+			Collection<String> driverIds) throws IOException {
+		List<Text> keys = new ArrayList<Text>();
+		for (String driverId : driverIds) {
+			keys.add(new Text(driverId));
+		}
+		Collections.sort(keys, new Comparator<Text>() {
+			@Override
+			public int compare(Text first, Text second) {
+				int cmp = Integer.compare(getPartition(first),
+						getPartition(second));
+				if (cmp != 0) {
+					return cmp;
+				}
+				return first.compareTo(second);
+			}
+		});
+
+		Map<String, DriverVerdictWritable> verdicts = new LinkedHashMap<String, DriverVerdictWritable>();
+		for (Text key : keys) {
+			DriverVerdictWritable verdict = get(key.toString());
+			if (verdict != null) {
+				verdicts.put(key.toString(), verdict);
+			}
+		}
+		return verdicts;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (MapFile.Reader reader : readers) {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+		cache.clear();
+	}
+
+	/**
+	 * Get the name of a partition's map file in the index, for its writer.
+	 *
+	 * @param partition
+	 *            the partition
+	 * @return the file's name, before the task's part
+	 */
+	public static String getPartitionName(int partition) {
+		return String.format(PARTITION_FORMAT, partition);
+	}
+
+	/**
+	 * Write the index's info: the number of partitions and the sources'
+	 * names, in the verdicts' order.
+	 *
+	 * @param conf
+	 *            the configuration
+	 * @param indexDir
+	 *            the index's folder
+	 * @param partitions
+	 *            the number of partitions
+	 * @param sources
+	 *            the sources' names
+	 * @throws IOException
+	 */
+	public static void writeInfo(Configuration conf, Path indexDir,
+			int partitions, String[] sources) throws IOException {
+		Path file = new Path(indexDir, INFO_FILE);
+		Writer writer = new OutputStreamWriter(file.getFileSystem(conf)
+				.create(file, true), ENCODING);
+		try {
+			writer.write(partitions + "\n");
+			for (int i = 0; i < sources.length; i++) {
+				if (i > 0) {
+					writer.write(SOURCES_DELIM);
+				}
+				writer.write(sources[i]);
+			}
+			writer.write("\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Get the partition of a map file in the index by its name.
+	 *
+	 * @param name
+	 *            the file's name
+	 * @return the file's partition, or -1 if it isn't a partition's map file
+	 */
+	private int getPartition(String name) {
+		int end = name.indexOf(PARTITION_DELIM);
+		if (name.startsWith(HIDDEN_PREFIX) || end <= 0) {
+			return -1;
+		}
+		for (int i = 0; i < end; i++) {
+			if (!Character.isDigit(name.charAt(i))) {
+				return -1;
+			}
+		}
+		try {
+			int partition = Integer.parseInt(name.substring(0, end));
+			return partition < readers.length ? partition : -1;
+		} catch (NumberFormatException e) {
+			return -1; // too long
+		}
+	}
+
+	/**
+	 * Get the partition of a driver, the same as the results' jobs'.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @return the driver's partition
+	 */
+	private int getPartition(Text driverId) {
+		return partitioner.getPartition(driverId, null, readers.length);
+	}
+}
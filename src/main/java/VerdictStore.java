@@ -0,0 +1,112 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Updatable local store of the drivers' verdicts. Keeps a file of result rows
+ * per driver, so one driver's verdicts can be replaced without rewriting the
+ * others.
+ */
+public class VerdictStore {
+	private static final String ENCODING = "UTF-8";
+	private static final String DRIVER_ENDING = ".csv";
+	private static final String TEMP_ENDING = ".tmp";
+	private static final char TRIPS_DELIM = '\n';
+	private final File folder;
+
+	/**
+	 * Open a verdict store.
+	 *
+	 * @param folder
+	 *            the store's folder, created if missing
+	 * @throws IOException
+	 */
+	public VerdictStore(File folder) throws IOException {
+		this.folder = folder;
+		FileUtils.forceMkdir(folder);
+	}
+
+	/**
+	 * Replace a driver's verdicts. The driver's file is replaced at once, so
+	 * readers never see partial rows.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @param trips
+	 *            all the driver's trips, in the rows' order
+	 * @param falseTrips
+	 *            the driver's false trips
+	 * @throws IOException
+	 */
+	public void update(String driverId, Collection<Integer> trips,
+			Collection<Integer> falseTrips) throws IOException {
+		Set<Integer> falseSet = new HashSet<Integer>(falseTrips);
+
+		// Build a row for every trip
+		StringBuilder builder = new StringBuilder();
+		for (Integer tripId : trips) {
+			builder.append(FalseTripsMap.buildTripRow(driverId, tripId,
+					falseSet.contains(tripId)));
+			builder.append(TRIPS_DELIM);
+		}
+
+		// Write aside and move over the old verdicts
+		File temp = new File(folder, driverId + TEMP_ENDING);
+		FileUtils.writeStringToFile(temp, builder.toString(), ENCODING);
+		if (!temp.renameTo(getDriverFile(driverId))) {
+			throw new IOException("Can't update the verdicts of driver "
+					+ driverId);
+		}
+	}
+
+	/**
+	 * Remove a driver's verdicts, if it has any.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @throws IOException
+	 */
+	public void remove(String driverId) throws IOException {
+		File driverFile = getDriverFile(driverId);
+		if (driverFile.exists() && !driverFile.delete()) {
+			throw new IOException("Can't remove the verdicts of driver "
+					+ driverId);
+		}
+	}
+
+	/**
+	 * Write all the stored verdicts as a single submission file.
+	 *
+	 * @param outFile
+	 *            the file to write
+	 * @throws IOException
+	 */
+	public void writeSubmission(File outFile) throws IOException {
+		File[] driverFiles = folder.listFiles();
+		Arrays.sort(driverFiles);
+
+		StringBuilder builder = new StringBuilder(FalseTripsMap.HEADER);
+		for (File driverFile : driverFiles) {
+			if (driverFile.getName().endsWith(DRIVER_ENDING)) {
+				builder.append(FileUtils.readFileToString(driverFile, ENCODING));
+			}
+		}
+		FileUtils.writeStringToFile(outFile, builder.toString(), ENCODING);
+	}
+
+	/**
+	 * Get the file of a driver's verdicts.
+	 *
+	 * @param driverId
+	 *            the driver id
+	 * @return the driver's file
+	 */
+	private File getDriverFile(String driverId) {
+		return new File(folder, driverId + DRIVER_ENDING);
+	}
+}
@@ -1,9 +1,11 @@
 import java.io.IOException;
+import java.util.List;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -13,7 +15,45 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
  * Hadoop's format for a whole file unsplittable format. 
  */
 public class WholeFileInputFormat extends
-		FileInputFormat<NullWritable, BytesWritable> {
+		FileInputFormat<TripIdWritable, BytesWritable> {
+	public static final String TAIL_BYTES = "trips.input.tail.bytes";
+	public static final String LINES_ONLY = "trips.input.lines.only";
+
+	/**
+	 * Read only the tail of every file, for checks which only need the trip's
+	 * final point. The tail is extended while it has no complete point.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param tailBytes
+	 *            number of bytes to read first from the file's end
+	 */
+	public static void setTailBytes(Job job, int tailBytes) {
+		job.getConfiguration().setInt(TAIL_BYTES, tailBytes);
+	}
+
+	/**
+	 * Only count every file's lines while streaming it, for checks which only
+	 * need the trip's length. The lines are given in the key and the value is
+	 * left empty.
+	 * 
+	 * @param job
+	 *            the job to set
+	 * @param linesOnly
+	 *            whether to only count the lines
+	 */
+	public static void setLinesOnly(Job job, boolean linesOnly) {
+		job.getConfiguration().setBoolean(LINES_ONLY, linesOnly);
+	}
+
+	@Override
+	protected List<FileStatus> listStatus(JobContext job) throws IOException {
+		List<FileStatus> files = InputManifest.listStatus(job);
+		if (files == null) {
+			return super.listStatus(job); // no manifest, list the input
+		}
+		return files;
+	}
 
 	@Override
 	protected boolean isSplitable(JobContext context, Path filename) {
@@ -21,7 +61,7 @@ public class WholeFileInputFormat extends
 	}
 
 	@Override
-	public RecordReader<NullWritable, BytesWritable> createRecordReader(
+	public RecordReader<TripIdWritable, BytesWritable> createRecordReader(
 			InputSplit inputSplit, TaskAttemptContext context)
 			throws IOException, InterruptedException {
 		WholeFileRecordReader reader = new WholeFileRecordReader();
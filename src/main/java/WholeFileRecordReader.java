@@ -5,7 +5,6 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.IOUtils;
-import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -15,11 +14,13 @@ import org.apache.hadoop.mapreduce.lib.input.FileSplit;
  * Hadoop's whole file unsplittable format record reader.
  */
 public class WholeFileRecordReader extends
-		RecordReader<NullWritable, BytesWritable> {
+		RecordReader<TripIdWritable, BytesWritable> {
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
 
 	private FileSplit split;
 	private Configuration conf;
 
+	private final TripIdWritable currKey = new TripIdWritable();
 	private final BytesWritable currValue = new BytesWritable();
 	private boolean fileProcessed = false;
 
@@ -28,6 +29,12 @@ public class WholeFileRecordReader extends
 			throws IOException, InterruptedException {
 		this.split = (FileSplit) split;
 		this.conf = context.getConfiguration();
+
+		// Get the trip id & the driver id from the filename
+		if (!currKey.set(this.split.getPath().toString(),
+				conf.getBoolean(TripIdWritable.DATASETS, false))) {
+			throw new IOException("Not a trip file: " + this.split.getPath());
+		}
 	}
 
 	@Override
@@ -36,16 +43,22 @@ public class WholeFileRecordReader extends
 			return false;
 		}
 
-		int fileLength = (int) split.getLength();
-		byte[] result = new byte[fileLength];
+		long fileLength = split.getLength();
+		int tailBytes = conf.getInt(WholeFileInputFormat.TAIL_BYTES, 0);
+		boolean linesOnly = conf.getBoolean(WholeFileInputFormat.LINES_ONLY,
+				false);
 
 		FileSystem fs = FileSystem.get(conf);
 		FSDataInputStream in = null;
 		try {
 			in = fs.open(split.getPath());
-			IOUtils.readFully(in, result, 0, fileLength);
-			currValue.set(result, 0, fileLength);
-
+			if (linesOnly) {
+				countLines(in);
+			} else if (tailBytes > 0 && tailBytes < fileLength) {
+				readTail(in, fileLength, tailBytes);
+			} else {
+				readBytes(in, 0, (int) fileLength);
+			}
 		} finally {
 			IOUtils.closeStream(in);
 		}
@@ -53,10 +66,69 @@ public class WholeFileRecordReader extends
 		return true;
 	}
 
+	/**
+	 * Count the file's lines while streaming it through a small buffer.
+	 * 
+	 * @param in
+	 *            the opened file
+	 * @throws IOException
+	 */
+	private void countLines(FSDataInputStream in) throws IOException {
+		byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+		int lines = 0;
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+			lines += TimeMap.countLines(buffer, 0, read);
+		}
+		currKey.setLines(lines);
+		currValue.setSize(0);
+	}
+
+	/**
+	 * Read the file's tail. Doubles the tail while it has no complete point.
+	 * 
+	 * @param in
+	 *            the opened file
+	 * @param fileLength
+	 *            the file's length
+	 * @param tailBytes
+	 *            the first tail's length
+	 * @throws IOException
+	 */
+	private void readTail(FSDataInputStream in, long fileLength, int tailBytes)
+			throws IOException {
+		long tailStart = fileLength;
+		do {
+			tailStart = Math.max(0, fileLength - tailBytes);
+			readBytes(in, tailStart, (int) (fileLength - tailStart));
+			tailBytes *= 2;
+		} while (tailStart > 0
+				&& TripPoint.parseLastPoint(currValue.getBytes(),
+						currValue.getLength(), false) == null);
+	}
+
+	/**
+	 * Read a range of the file as the current value.
+	 * 
+	 * @param in
+	 *            the opened file
+	 * @param start
+	 *            offset to read from
+	 * @param length
+	 *            number of bytes to read
+	 * @throws IOException
+	 */
+	private void readBytes(FSDataInputStream in, long start, int length)
+			throws IOException {
+		byte[] result = new byte[length];
+		in.seek(start);
+		IOUtils.readFully(in, result, 0, length);
+		currValue.set(result, 0, length);
+	}
+
 	@Override
-	public NullWritable getCurrentKey() throws IOException,
+	public TripIdWritable getCurrentKey() throws IOException,
 			InterruptedException {
-		return NullWritable.get();
+		return currKey;
 	}
 
 	@Override
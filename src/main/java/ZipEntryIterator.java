@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+
+/**
+ * Iterates over the entries of a range of a zip archive's central directory.
+ */
+public class ZipEntryIterator extends ArchiveEntryIterator {
+	private static final Charset NAMES_CHARSET = Charset.forName("UTF-8");
+	private static final long EOCD_SIG = 0x06054b50L;
+	private static final long ZIP64_LOCATOR_SIG = 0x07064b50L;
+	private static final long ZIP64_EOCD_SIG = 0x06064b50L;
+	private static final long CENTRAL_SIG = 0x02014b50L;
+	private static final long LOCAL_SIG = 0x04034b50L;
+	private static final int EOCD_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_EOCD_SIZE = 56;
+	private static final int CENTRAL_SIZE = 46;
+	private static final int LOCAL_SIZE = 30;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final String DIR_SUFFIX = "/";
+	private final byte[] centralDirectory;
+	private int pos = 0;
+
+	/**
+	 * Construct an iterator over a range of the central directory. The range
+	 * is read into memory at once.
+	 *
+	 * @param in
+	 *            the opened archive
+	 * @param start
+	 *            offset of the first central directory record
+	 * @param end
+	 *            offset where the range of records ends
+	 * @throws IOException
+	 */
+	public ZipEntryIterator(FSDataInputStream in, long start, long end)
+			throws IOException {
+		super(in, start, end);
+		centralDirectory = new byte[(int) (end - start)];
+		readAt(start, centralDirectory);
+	}
+
+	/**
+	 * Finds the central directory of the zip archive.
+	 *
+	 * @param in
+	 *            the opened archive
+	 * @param fileLength
+	 *            the archive's length
+	 * @return the central directory's start and end offsets
+	 * @throws IOException
+	 */
+	public static long[] getCentralDirectory(FSDataInputStream in,
+			long fileLength) throws IOException {
+		// The end of central directory record is the last one, before comment
+		byte[] tail = new byte[(int) Math.min(fileLength, EOCD_SIZE
+				+ MAX_COMMENT_SIZE)];
+		in.readFully(fileLength - tail.length, tail);
+		int eocd = tail.length - EOCD_SIZE;
+		while (eocd >= 0 && getUInt32(tail, eocd) != EOCD_SIG) {
+			eocd--;
+		}
+		if (eocd < 0) {
+			throw new IOException("Not a zip archive");
+		}
+
+		long cdSize = getUInt32(tail, eocd + 12);
+		long cdOffset = getUInt32(tail, eocd + 16);
+
+		// Big archives keep the sizes in the zip64 end of central directory
+		int locator = eocd - ZIP64_LOCATOR_SIZE;
+		if (locator >= 0 && getUInt32(tail, locator) == ZIP64_LOCATOR_SIG) {
+			byte[] eocd64 = new byte[ZIP64_EOCD_SIZE];
+			in.readFully(getUInt64(tail, locator + 8), eocd64);
+			if (getUInt32(eocd64, 0) != ZIP64_EOCD_SIG) {
+				throw new IOException("Corrupted zip64 archive");
+			}
+			cdSize = getUInt64(eocd64, 40);
+			cdOffset = getUInt64(eocd64, 48);
+		}
+
+		return new long[] { cdOffset, cdOffset + cdSize };
+	}
+
+	@Override
+	public ArchiveEntry next() throws IOException {
+		while (pos < centralDirectory.length) {
+			int record = pos;
+			if (getUInt32(centralDirectory, record) != CENTRAL_SIG) {
+				throw new IOException("Corrupted zip central directory at "
+						+ (start + record));
+			}
+
+			// Get the entry's fields
+			int method = getUInt16(centralDirectory, record + 10);
+			long storedSize = getUInt32(centralDirectory, record + 20);
+			long size = getUInt32(centralDirectory, record + 24);
+			int nameLength = getUInt16(centralDirectory, record + 28);
+			int extraLength = getUInt16(centralDirectory, record + 30);
+			int commentLength = getUInt16(centralDirectory, record + 32);
+			long localOffset = getUInt32(centralDirectory, record + 42);
+			String name = new String(centralDirectory, record + CENTRAL_SIZE,
+					nameLength, NAMES_CHARSET);
+			pos = record + CENTRAL_SIZE + nameLength + extraLength
+					+ commentLength;
+
+			// Skip the directories
+			if (name.endsWith(DIR_SUFFIX)) {
+				continue;
+			}
+
+			// Get the real values of overflowed fields from zip64 extra field
+			int extra = record + CENTRAL_SIZE + nameLength;
+			int extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd) {
+				int id = getUInt16(centralDirectory, extra);
+				int length = getUInt16(centralDirectory, extra + 2);
+				int field = extra + 4;
+				if (id == ZIP64_EXTRA_ID) {
+					if (size == ZIP64_MAGIC) {
+						size = getUInt64(centralDirectory, field);
+						field += 8;
+					}
+					if (storedSize == ZIP64_MAGIC) {
+						storedSize = getUInt64(centralDirectory, field);
+						field += 8;
+					}
+					if (localOffset == ZIP64_MAGIC) {
+						localOffset = getUInt64(centralDirectory, field);
+					}
+				}
+				extra += 4 + length;
+			}
+
+			return new ArchiveEntry(name, start + record, localOffset,
+					storedSize, size, method);
+		}
+		return null;
+	}
+
+	@Override
+	public byte[] read(ArchiveEntry entry) throws IOException {
+		// Skip the local header - its sizes may be unset, use the central ones
+		byte[] localHeader = new byte[LOCAL_SIZE];
+		readAt(entry.getDataOffset(), localHeader);
+		if (getUInt32(localHeader, 0) != LOCAL_SIG) {
+			throw new IOException("Corrupted zip entry " + entry.getName());
+		}
+		long dataOffset = entry.getDataOffset() + LOCAL_SIZE
+				+ getUInt16(localHeader, 26) + getUInt16(localHeader, 28);
+
+		byte[] stored = new byte[(int) entry.getStoredSize()];
+		readAt(dataOffset, stored);
+
+		switch (entry.getMethod()) {
+		case STORED:
+			return stored;
+		case DEFLATED:
+			return inflate(stored, (int) entry.getSize());
+		default:
+			throw new IOException("Unsupported zip compression method "
+					+ entry.getMethod() + " of " + entry.getName());
+		}
+	}
+
+	@Override
+	public long getPos() {
+		return start + pos;
+	}
+
+	/**
+	 * Inflate a deflated entry.
+	 *
+	 * @param deflated
+	 *            the entry's stored bytes
+	 * @param size
+	 *            the entry's extracted size
+	 * @return the extracted bytes
+	 * @throws IOException
+	 */
+	private byte[] inflate(byte[] deflated, int size) throws IOException {
+		Inflater inflater = new Inflater(true); // zip entries have no header
+		try {
+			inflater.setInput(deflated);
+			byte[] inflated = new byte[size];
+			int length = 0;
+			while (length < size && !inflater.finished()) {
+				int inflatedNow = inflater.inflate(inflated, length, size
+						- length);
+				if (inflatedNow == 0 && inflater.needsInput()) {
+					break;
+				}
+				length += inflatedNow;
+			}
+			if (length != size) {
+				throw new IOException("Truncated zip entry");
+			}
+			return inflated;
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted zip entry", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}